@@ -122,6 +122,10 @@ public class Account implements BaseAccount, AccountConfig {
     public static final boolean DEFAULT_STRIP_SIGNATURE = true;
     public static final boolean XRYPTO_MODE = true;
     public static final int DEFAULT_REMOTE_SEARCH_NUM_RESULTS = 25;
+    public static final int DEFAULT_MAX_SYNC_CONNECTIONS = 3;
+    public static final int DEFAULT_IMAP_MAX_IDLE_CONNECTIONS = 5;
+    public static final int DEFAULT_IMAP_IDLE_CONNECTION_TIMEOUT_MINUTES = 5;
+    public static final int DEFAULT_IMAP_KEEPALIVE_INTERVAL_SECONDS = 60;
 
     // Default mail polling interval = 30 minutes
     private static final int DEFAULT_POLL_INTERVAL = 30;
@@ -153,7 +157,8 @@ public class Account implements BaseAccount, AccountConfig {
         SORT_SENDER(R.string.sort_sender_alpha, R.string.sort_sender_re_alpha, true),
         SORT_UNREAD(R.string.sort_unread_first, R.string.sort_unread_last, true),
         SORT_FLAGGED(R.string.sort_flagged_first, R.string.sort_flagged_last, true),
-        SORT_ATTACHMENT(R.string.sort_attach_first, R.string.sort_unattached_first, true);
+        SORT_ATTACHMENT(R.string.sort_attach_first, R.string.sort_unattached_first, true),
+        SORT_CRYPTO(R.string.sort_crypto_first, R.string.sort_plain_first, true);
 
         private final int ascendingToast;
         private final int descendingToast;
@@ -219,6 +224,10 @@ public class Account implements BaseAccount, AccountConfig {
     private boolean mIsSignatureBeforeQuotedText;
     private Expunge mExpungePolicy = Expunge.EXPUNGE_IMMEDIATELY;
     private int mMaxPushFolders;
+    private int mMaxSyncConnections;
+    private int mImapMaxIdleConnections;
+    private int mImapIdleConnectionTimeoutMinutes;
+    private int mImapKeepaliveIntervalSeconds;
     private int mIdleRefreshMinutes;
     private boolean goToUnreadMessageSearch;
     private final Map<NetworkType, Boolean> compressionMap = new ConcurrentHashMap<>();
@@ -272,6 +281,14 @@ public class Account implements BaseAccount, AccountConfig {
     private List<Identity> identities;
     private NotificationSetting mNotificationSetting = new NotificationSetting();
 
+    /**
+     * Message counts of the last {@link #getStats(Context)} call, valid while the selection and
+     * the change count of the local store stay the same.
+     */
+    private AccountStats mCachedStats;
+    private String mCachedStatsKey;
+    private long mCachedStatsChangeCount;
+
     public enum FolderMode {
         NONE, ALL, FIRST_CLASS, FIRST_AND_SECOND_CLASS, NOT_SECOND_CLASS
     }
@@ -317,6 +334,10 @@ public class Account implements BaseAccount, AccountConfig {
         mAutoExpandFolder = INBOX;
         mInboxFolder = INBOX;
         mMaxPushFolders = 10;
+        mMaxSyncConnections = DEFAULT_MAX_SYNC_CONNECTIONS;
+        mImapMaxIdleConnections = DEFAULT_IMAP_MAX_IDLE_CONNECTIONS;
+        mImapIdleConnectionTimeoutMinutes = DEFAULT_IMAP_IDLE_CONNECTION_TIMEOUT_MINUTES;
+        mImapKeepaliveIntervalSeconds = DEFAULT_IMAP_KEEPALIVE_INTERVAL_SECONDS;
         mChipColor = pickColor(context);
         goToUnreadMessageSearch = false;
         subscribedFoldersOnly = false;
@@ -440,6 +461,13 @@ public class Account implements BaseAccount, AccountConfig {
         mSyncRemoteDeletions = storage.getBoolean(mAccountUuid + ".syncRemoteDeletions", true);
 
         mMaxPushFolders = storage.getInt(mAccountUuid + ".maxPushFolders", 10);
+        mMaxSyncConnections = storage.getInt(mAccountUuid + ".maxSyncConnections", DEFAULT_MAX_SYNC_CONNECTIONS);
+        mImapMaxIdleConnections = storage.getInt(mAccountUuid + ".imapMaxIdleConnections",
+                DEFAULT_IMAP_MAX_IDLE_CONNECTIONS);
+        mImapIdleConnectionTimeoutMinutes = storage.getInt(mAccountUuid + ".imapIdleConnectionTimeout",
+                DEFAULT_IMAP_IDLE_CONNECTION_TIMEOUT_MINUTES);
+        mImapKeepaliveIntervalSeconds = storage.getInt(mAccountUuid + ".imapKeepaliveInterval",
+                DEFAULT_IMAP_KEEPALIVE_INTERVAL_SECONDS);
         goToUnreadMessageSearch = storage.getBoolean(mAccountUuid + ".goToUnreadMessageSearch", false);
         subscribedFoldersOnly = storage.getBoolean(mAccountUuid + ".isSubscribedFoldersOnly", false);
         maximumPolledMessageAge = storage.getInt(mAccountUuid + ".maximumPolledMessageAge", -1);
@@ -555,6 +583,10 @@ public class Account implements BaseAccount, AccountConfig {
         editor.remove(mAccountUuid + ".expungePolicy");
         editor.remove(mAccountUuid + ".syncRemoteDeletions");
         editor.remove(mAccountUuid + ".maxPushFolders");
+        editor.remove(mAccountUuid + ".maxSyncConnections");
+        editor.remove(mAccountUuid + ".imapMaxIdleConnections");
+        editor.remove(mAccountUuid + ".imapIdleConnectionTimeout");
+        editor.remove(mAccountUuid + ".imapKeepaliveInterval");
         editor.remove(mAccountUuid + ".searchableFolders");
         editor.remove(mAccountUuid + ".chipColor");
         editor.remove(mAccountUuid + ".led");
@@ -730,6 +762,10 @@ public class Account implements BaseAccount, AccountConfig {
         editor.putString(mAccountUuid + ".expungePolicy", mExpungePolicy.name());
         editor.putBoolean(mAccountUuid + ".syncRemoteDeletions", mSyncRemoteDeletions);
         editor.putInt(mAccountUuid + ".maxPushFolders", mMaxPushFolders);
+        editor.putInt(mAccountUuid + ".maxSyncConnections", mMaxSyncConnections);
+        editor.putInt(mAccountUuid + ".imapMaxIdleConnections", mImapMaxIdleConnections);
+        editor.putInt(mAccountUuid + ".imapIdleConnectionTimeout", mImapIdleConnectionTimeoutMinutes);
+        editor.putInt(mAccountUuid + ".imapKeepaliveInterval", mImapKeepaliveIntervalSeconds);
         editor.putString(mAccountUuid + ".searchableFolders", searchableFolders.name());
         editor.putInt(mAccountUuid + ".chipColor", mChipColor);
         editor.putBoolean(mAccountUuid + ".goToUnreadMessageSearch", goToUnreadMessageSearch);
@@ -826,6 +862,21 @@ public class Account implements BaseAccount, AccountConfig {
         String selection = query.toString();
         String[] selectionArgs = queryArgs.toArray(new String[0]);
 
+        // The counts only change with the messages and folders of the store, or with the selection
+        LocalStore localStore = getLocalStore();
+        long changeCount = localStore.getChangeCount();
+        String statsKey = selection + Arrays.toString(selectionArgs);
+        synchronized (this) {
+            if (mCachedStats != null && mCachedStatsChangeCount == changeCount && statsKey.equals(mCachedStatsKey)) {
+                stats.unreadMessageCount = mCachedStats.unreadMessageCount;
+                stats.flaggedMessageCount = mCachedStats.flaggedMessageCount;
+                if (XryptoMail.measureAccounts()) {
+                    stats.size = localStore.getSize();
+                }
+                return stats;
+            }
+        }
+
         Cursor cursor = cr.query(uri, projection, selection, selectionArgs, null);
         try {
             if (cursor != null && cursor.moveToFirst()) {
@@ -835,7 +886,15 @@ public class Account implements BaseAccount, AccountConfig {
         } finally {
             Utility.closeQuietly(cursor);
         }
-        LocalStore localStore = getLocalStore();
+
+        synchronized (this) {
+            AccountStats cachedStats = new AccountStats();
+            cachedStats.unreadMessageCount = stats.unreadMessageCount;
+            cachedStats.flaggedMessageCount = stats.flaggedMessageCount;
+            mCachedStats = cachedStats;
+            mCachedStatsKey = statsKey;
+            mCachedStatsChangeCount = changeCount;
+        }
         if (XryptoMail.measureAccounts()) {
             stats.size = localStore.getSize();
         }
@@ -1357,6 +1416,54 @@ public class Account implements BaseAccount, AccountConfig {
         return oldMaxPushFolders != maxPushFolders;
     }
 
+    /**
+     * @return the maximum number of folders of this account that are synchronized concurrently,
+     * each over its own server connection.
+     */
+    public synchronized int getMaxSyncConnections() {
+        return mMaxSyncConnections;
+    }
+
+    public synchronized void setMaxSyncConnections(int maxSyncConnections) {
+        mMaxSyncConnections = maxSyncConnections;
+    }
+
+    /**
+     * @return the maximum number of idle IMAP connections kept open for reuse
+     */
+    @Override
+    public synchronized int getImapMaxIdleConnections() {
+        return mImapMaxIdleConnections;
+    }
+
+    public synchronized void setImapMaxIdleConnections(int imapMaxIdleConnections) {
+        mImapMaxIdleConnections = imapMaxIdleConnections;
+    }
+
+    /**
+     * @return the time after which an idle IMAP connection is closed
+     */
+    @Override
+    public synchronized int getImapIdleConnectionTimeoutMinutes() {
+        return mImapIdleConnectionTimeoutMinutes;
+    }
+
+    public synchronized void setImapIdleConnectionTimeoutMinutes(int imapIdleConnectionTimeoutMinutes) {
+        mImapIdleConnectionTimeoutMinutes = imapIdleConnectionTimeoutMinutes;
+    }
+
+    /**
+     * @return the interval at which idle IMAP connections are kept alive with a NOOP
+     */
+    @Override
+    public synchronized int getImapKeepaliveIntervalSeconds() {
+        return mImapKeepaliveIntervalSeconds;
+    }
+
+    public synchronized void setImapKeepaliveIntervalSeconds(int imapKeepaliveIntervalSeconds) {
+        mImapKeepaliveIntervalSeconds = imapKeepaliveIntervalSeconds;
+    }
+
     public LocalStore getLocalStore()
             throws MessagingException {
         return LocalStore.getInstance(this, XryptoMail.mInstance);
@@ -34,6 +34,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -1303,7 +1304,12 @@ public class XryptoMail extends Application {
     }
 
     public static void setOpenPgpProvider(String openPgpProvider) {
+        boolean changed = !Objects.equals(sOpenPgpProvider, openPgpProvider);
         sOpenPgpProvider = openPgpProvider;
+        if (changed) {
+            // Messages marked while no provider was usable are checked with the new one
+            LocalStore.verifyPendingCryptoStatus();
+        }
     }
 
     public static boolean getOpenPgpSupportSignOnly() {
@@ -822,6 +822,10 @@ public class MessageList extends XMActivity implements MessageListFragmentListen
                 mMessageListFragment.changeSort(SortType.SORT_ATTACHMENT);
                 return true;
             }
+            case R.id.set_sort_crypto: {
+                mMessageListFragment.changeSort(SortType.SORT_CRYPTO);
+                return true;
+            }
             case R.id.select_all: {
                 mMessageListFragment.selectAll();
                 return true;
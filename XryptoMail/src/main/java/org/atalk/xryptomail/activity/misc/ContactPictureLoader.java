@@ -29,6 +29,7 @@ import com.bumptech.glide.load.resource.file.FileToStreamDecoder;
 import com.bumptech.glide.load.resource.transcode.BitmapToGlideDrawableTranscoder;
 import com.bumptech.glide.request.RequestListener;
 import com.bumptech.glide.request.target.Target;
+import com.bumptech.glide.signature.StringSignature;
 
 import org.atalk.xryptomail.helper.Contacts;
 import org.atalk.xryptomail.mail.Address;
@@ -40,6 +41,14 @@ import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Loads the pictures of contacts, and letter tiles for addresses without one, into image views.
+ * <p>
+ * Both are kept in Glide's disk cache at the size they are displayed in. Contact pictures are
+ * signed with the {@link Contacts#getCacheGeneration() contacts cache generation}, so a change of
+ * the contacts makes the cached pictures stale.
+ * </p>
+ */
 public class ContactPictureLoader {
     /**
      * Resize the pictures to the following value (device-independent pixels).
@@ -125,8 +134,8 @@ public class ContactPictureLoader {
                 .decoder(new FallbackGlideBitmapDecoder(context))
                 .encoder(new BitmapEncoder(Bitmap.CompressFormat.PNG, 0))
                 .cacheDecoder(new FileToStreamDecoder<>(new StreamBitmapDecoder(context)))
-                .diskCacheStrategy(DiskCacheStrategy.NONE)
-                .load(new FallbackGlideParams(address))
+                .diskCacheStrategy(DiskCacheStrategy.RESULT)
+                .load(new FallbackGlideParams(address, calcUnknownContactColor(address)))
                 // for some reason, following 2 lines fix loading issues.
                 .dontAnimate()
                 .override(mPictureSizeInPx, mPictureSizeInPx)
@@ -155,7 +164,8 @@ public class ContactPictureLoader {
 
             Glide.with(imageView.getContext())
                     .load(photoUri)
-                    .diskCacheStrategy(DiskCacheStrategy.NONE)
+                    .signature(new StringSignature(Integer.toString(Contacts.getCacheGeneration())))
+                    .diskCacheStrategy(DiskCacheStrategy.RESULT)
                     .listener(noPhotoListener)
                     // for some reason, following 2 lines fix loading issues.
                     .dontAnimate()
@@ -178,8 +188,7 @@ public class ContactPictureLoader {
     private Bitmap drawTextAndBgColorOnBitmap(Bitmap bitmap, FallbackGlideParams params) {
         Canvas canvas = new Canvas(bitmap);
 
-        int rgb = calcUnknownContactColor(params.address);
-        bitmap.eraseColor(rgb);
+        bitmap.eraseColor(params.color);
         String letter = calcUnknownContactLetter(params.address);
 
         Paint paint = new Paint();
@@ -222,13 +231,15 @@ public class ContactPictureLoader {
 
     private static class FallbackGlideParams {
         final Address address;
+        final int color;
 
-        FallbackGlideParams(Address address) {
+        FallbackGlideParams(Address address, int color) {
             this.address = address;
+            this.color = color;
         }
 
         public String getId() {
-            return String.format(Locale.ROOT, "%s-%s", address.getAddress(), address.getPersonal());
+            return String.format(Locale.ROOT, "%s-%s-%08x", address.getAddress(), address.getPersonal(), color);
         }
     }
 
@@ -235,6 +235,21 @@ public class AccountConfigImpl implements AccountConfig, Parcelable {
         return idleRefreshMinutes;
     }
 
+    @Override
+    public int getImapMaxIdleConnections() {
+        return Account.DEFAULT_IMAP_MAX_IDLE_CONNECTIONS;
+    }
+
+    @Override
+    public int getImapIdleConnectionTimeoutMinutes() {
+        return Account.DEFAULT_IMAP_IDLE_CONNECTION_TIMEOUT_MINUTES;
+    }
+
+    @Override
+    public int getImapKeepaliveIntervalSeconds() {
+        return Account.DEFAULT_IMAP_KEEPALIVE_INTERVAL_SECONDS;
+    }
+
     @Override
     public boolean shouldHideHostname() {
         return XryptoMail.hideHostnameWhenConnecting();
@@ -0,0 +1,163 @@
+package org.atalk.xryptomail.cache;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-striped map of primitive {@code long} keys to {@code long} values.
+ * <p>
+ * Keys are spread over {@link #STRIPE_COUNT} stripes, each guarded by its own lock and backed by
+ * sorted primitive arrays, so lookups neither box nor allocate. When a stripe is full the entry
+ * that was written least recently is evicted.
+ * </p>
+ */
+class ConcurrentLongMap {
+    private static final int STRIPE_COUNT = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final AtomicLong writeCounter = new AtomicLong(0);
+
+    /**
+     * @param maxSize maximum number of entries; the actual bound is rounded up to a multiple of
+     * the number of stripes
+     */
+    ConcurrentLongMap(int maxSize) {
+        int stripeCapacity = Math.max(1, (maxSize + STRIPE_COUNT - 1) / STRIPE_COUNT);
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe(stripeCapacity);
+        }
+    }
+
+    boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    long get(long key, long defaultValue) {
+        if (isEmpty()) {
+            return defaultValue;
+        }
+
+        Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            int index = stripe.indexOf(key);
+            return (index >= 0) ? stripe.values[index] : defaultValue;
+        }
+    }
+
+    void put(long key, long value) {
+        Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            stripe.put(key, value, writeCounter.incrementAndGet());
+        }
+    }
+
+    /**
+     * Update the bits of a value: {@code newValue = (oldValue & ~clearMask) | setMask}, with a
+     * missing entry treated as 0. An entry whose value becomes 0 is removed.
+     */
+    void updateBits(long key, long clearMask, long setMask) {
+        Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            int index = stripe.indexOf(key);
+            long oldValue = (index >= 0) ? stripe.values[index] : 0;
+            long newValue = (oldValue & ~clearMask) | setMask;
+            if (newValue == 0) {
+                if (index >= 0) {
+                    stripe.removeAt(index);
+                }
+            } else if (newValue != oldValue) {
+                stripe.put(key, newValue, writeCounter.incrementAndGet());
+            }
+        }
+    }
+
+    /**
+     * Remove the entry for {@code key} if it maps to {@code expectedValue}.
+     */
+    void remove(long key, long expectedValue) {
+        Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            int index = stripe.indexOf(key);
+            if (index >= 0 && stripe.values[index] == expectedValue) {
+                stripe.removeAt(index);
+            }
+        }
+    }
+
+    private Stripe stripeFor(long key) {
+        int hash = (int) (key ^ (key >>> 32));
+        hash ^= (hash >>> 16);
+        return stripes[hash & (STRIPE_COUNT - 1)];
+    }
+
+    private class Stripe {
+        private final int capacity;
+        private long[] keys = new long[4];
+        private long[] values = new long[4];
+        private long[] writeOrder = new long[4];
+        private int count = 0;
+
+        Stripe(int capacity) {
+            this.capacity = capacity;
+        }
+
+        int indexOf(long key) {
+            return Arrays.binarySearch(keys, 0, count, key);
+        }
+
+        void put(long key, long value, long writeStamp) {
+            int index = indexOf(key);
+            if (index >= 0) {
+                values[index] = value;
+                writeOrder[index] = writeStamp;
+                return;
+            }
+
+            if (count == capacity) {
+                removeAt(findEldest());
+                index = indexOf(key);
+            }
+
+            index = ~index;
+            if (count == keys.length) {
+                int newLength = Math.min(capacity, keys.length * 2);
+                keys = Arrays.copyOf(keys, newLength);
+                values = Arrays.copyOf(values, newLength);
+                writeOrder = Arrays.copyOf(writeOrder, newLength);
+            }
+            System.arraycopy(keys, index, keys, index + 1, count - index);
+            System.arraycopy(values, index, values, index + 1, count - index);
+            System.arraycopy(writeOrder, index, writeOrder, index + 1, count - index);
+            keys[index] = key;
+            values[index] = value;
+            writeOrder[index] = writeStamp;
+            count++;
+            size.incrementAndGet();
+        }
+
+        void removeAt(int index) {
+            int moved = count - index - 1;
+            System.arraycopy(keys, index + 1, keys, index, moved);
+            System.arraycopy(values, index + 1, values, index, moved);
+            System.arraycopy(writeOrder, index + 1, writeOrder, index, moved);
+            count--;
+            size.decrementAndGet();
+        }
+
+        private int findEldest() {
+            int eldest = 0;
+            for (int i = 1; i < count; i++) {
+                if (writeOrder[i] < writeOrder[eldest]) {
+                    eldest = i;
+                }
+            }
+            return eldest;
+        }
+    }
+}
@@ -9,144 +9,174 @@ import org.atalk.xryptomail.fragment.MessageListFragment;
 import org.atalk.xryptomail.mail.Message;
 import org.atalk.xryptomail.mailstore.LocalMessage;
 import org.atalk.xryptomail.provider.EmailProvider;
+import org.atalk.xryptomail.provider.EmailProvider.MessageColumns;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Cache to bridge the time needed to write (user-initiated) changes to the database.
+ * <p>
+ * Flag values are kept per message id and per thread root id in primitive, lock-striped maps, so
+ * that {@link EmailProviderCacheCursor} can look them up for every row without allocating and
+ * without contending with the thread updating the cache.
+ * </p>
  */
 public class EmailProviderCache {
     public static final String ACTION_CACHE_UPDATED = "EmailProviderCache.ACTION_CACHE_UPDATED";
 
-    private static Context sContext;
-    private static final Map<String, EmailProviderCache> sInstances = new HashMap<>();
-
-    public static synchronized EmailProviderCache getCache(String accountUuid, Context context) {
+    private static volatile Context sContext;
+    private static final Map<String, EmailProviderCache> sInstances = new ConcurrentHashMap<>();
 
+    public static EmailProviderCache getCache(String accountUuid, Context context) {
         if (sContext == null) {
             sContext = context.getApplicationContext();
         }
+        return sInstances.computeIfAbsent(accountUuid, EmailProviderCache::new);
+    }
 
-        EmailProviderCache instance = sInstances.get(accountUuid);
-        if (instance == null) {
-            instance = new EmailProviderCache(accountUuid);
-            sInstances.put(accountUuid, instance);
-        }
 
-        return instance;
-    }
+    /**
+     * Returned by {@link #getFlagForMessage(long, int)} and {@link #getFlagForThread(long, int)}
+     * if there is no cached value.
+     */
+    public static final int NO_VALUE = -1;
+
+    /**
+     * The columns that can be cached. The index of a column in this array is its flag index.
+     */
+    private static final String[] FLAG_COLUMNS = {
+            MessageColumns.READ, MessageColumns.FLAGGED, MessageColumns.ANSWERED, MessageColumns.FORWARDED
+    };
 
+    /**
+     * Maximum number of messages and of threads with cached values, and of hidden messages. Entries
+     * normally only live until the database write they bridge has finished; the bound keeps a
+     * failed write from leaking memory.
+     */
+    private static final int MAX_CACHE_SIZE = 10000;
 
     private final String mAccountUuid;
-    private final Map<Long, Map<String, String>> mMessageCache = new HashMap<>();
-    private final Map<Long, Map<String, String>> mThreadCache = new HashMap<>();
-    private final Map<Long, Long> mHiddenMessageCache = new HashMap<>();
+
+    /**
+     * Message id / thread root id -> cached flags. Flag index {@code i} uses two bits: bit
+     * {@code 2i} is set if a value is cached, bit {@code 2i + 1} holds the value.
+     */
+    private final ConcurrentLongMap mMessageCache = new ConcurrentLongMap(MAX_CACHE_SIZE);
+    private final ConcurrentLongMap mThreadCache = new ConcurrentLongMap(MAX_CACHE_SIZE);
+
+    /**
+     * Message id -> id of the folder the message is hidden in
+     */
+    private final ConcurrentLongMap mHiddenMessageCache = new ConcurrentLongMap(MAX_CACHE_SIZE);
 
     private EmailProviderCache(String accountUuid) {
         mAccountUuid = accountUuid;
     }
 
-    public String getValueForMessage(Long messageId, String columnName) {
-        synchronized (mMessageCache) {
-            Map<String, String> map = mMessageCache.get(messageId);
-            return (map == null) ? null : map.get(columnName);
+    /**
+     * @return the flag index of a column, or -1 if values of the column are not cached
+     */
+    public static int getFlagIndex(String columnName) {
+        for (int i = 0; i < FLAG_COLUMNS.length; i++) {
+            if (FLAG_COLUMNS[i].equals(columnName)) {
+                return i;
+            }
         }
+        return -1;
     }
 
-    public String getValueForThread(Long threadRootId, String columnName) {
-        synchronized (mThreadCache) {
-            Map<String, String> map = mThreadCache.get(threadRootId);
-            return (map == null) ? null : map.get(columnName);
-        }
+    /**
+     * @return {@code true} if no flag values are cached
+     */
+    public boolean hasNoFlags() {
+        return mMessageCache.isEmpty() && mThreadCache.isEmpty();
     }
 
-    public void setValueForMessages(List<Long> messageIds, String columnName, String value) {
-        synchronized (mMessageCache) {
-            for (Long messageId : messageIds) {
-                Map<String, String> map = mMessageCache.get(messageId);
-                if (map == null) {
-                    map = new HashMap<>();
-                    mMessageCache.put(messageId, map);
-                }
-                map.put(columnName, value);
-            }
-        }
+    /**
+     * @return the cached value (0 or 1) of the flag column with the given index, or {@link #NO_VALUE}
+     */
+    public int getFlagForMessage(long messageId, int flagIndex) {
+        return getFlag(mMessageCache, messageId, flagIndex);
+    }
+
+    public int getFlagForThread(long threadRootId, int flagIndex) {
+        return getFlag(mThreadCache, threadRootId, flagIndex);
+    }
+
+    public void setValueForMessages(List<Long> messageIds, String columnName, boolean value) {
+        setFlag(mMessageCache, messageIds, requireFlagIndex(columnName), value);
         notifyChange();
     }
 
-    public void setValueForThreads(List<Long> threadRootIds, String columnName, String value) {
-        synchronized (mThreadCache) {
-            for (Long threadRootId : threadRootIds) {
-                Map<String, String> map = mThreadCache.get(threadRootId);
-                if (map == null) {
-                    map = new HashMap<>();
-                    mThreadCache.put(threadRootId, map);
-                }
-                map.put(columnName, value);
-            }
-        }
+    public void setValueForThreads(List<Long> threadRootIds, String columnName, boolean value) {
+        setFlag(mThreadCache, threadRootIds, requireFlagIndex(columnName), value);
         notifyChange();
     }
 
     public void removeValueForMessages(List<Long> messageIds, String columnName) {
-        synchronized (mMessageCache) {
-            for (Long messageId : messageIds) {
-                Map<String, String> map = mMessageCache.get(messageId);
-                if (map != null) {
-                    map.remove(columnName);
-                    if (map.isEmpty()) {
-                        mMessageCache.remove(messageId);
-                    }
-                }
-            }
-        }
+        removeFlag(mMessageCache, messageIds, requireFlagIndex(columnName));
     }
 
     public void removeValueForThreads(List<Long> threadRootIds, String columnName) {
-        synchronized (mThreadCache) {
-            for (Long threadRootId : threadRootIds) {
-                Map<String, String> map = mThreadCache.get(threadRootId);
-                if (map != null) {
-                    map.remove(columnName);
-                    if (map.isEmpty()) {
-                        mThreadCache.remove(threadRootId);
-                    }
-                }
-            }
+        removeFlag(mThreadCache, threadRootIds, requireFlagIndex(columnName));
+    }
+
+    private static int requireFlagIndex(String columnName) {
+        int flagIndex = getFlagIndex(columnName);
+        if (flagIndex == -1) {
+            throw new IllegalArgumentException("Column can't be cached: " + columnName);
+        }
+        return flagIndex;
+    }
+
+    private static int getFlag(ConcurrentLongMap cache, long id, int flagIndex) {
+        long flags = cache.get(id, 0);
+        if ((flags & (1L << (2 * flagIndex))) == 0) {
+            return NO_VALUE;
+        }
+        return ((flags & (1L << (2 * flagIndex + 1))) != 0) ? 1 : 0;
+    }
+
+    private static void setFlag(ConcurrentLongMap cache, List<Long> ids, int flagIndex, boolean value) {
+        long mask = 3L << (2 * flagIndex);
+        long bits = (1L << (2 * flagIndex)) | ((value) ? (1L << (2 * flagIndex + 1)) : 0);
+        for (Long id : ids) {
+            cache.updateBits(id, mask, bits);
+        }
+    }
+
+    private static void removeFlag(ConcurrentLongMap cache, List<Long> ids, int flagIndex) {
+        long mask = 3L << (2 * flagIndex);
+        for (Long id : ids) {
+            cache.updateBits(id, mask, 0);
         }
     }
 
     public void hideMessages(List<LocalMessage> messages) {
-        synchronized (mHiddenMessageCache) {
-            for (LocalMessage message : messages) {
-                long messageId = message.getDatabaseId();
-                mHiddenMessageCache.put(messageId, message.getFolder().getDatabaseId());
-            }
+        for (LocalMessage message : messages) {
+            mHiddenMessageCache.put(message.getDatabaseId(), message.getFolder().getDatabaseId());
         }
         notifyChange();
     }
 
-    public boolean isMessageHidden(Long messageId, long folderId) {
-        synchronized (mHiddenMessageCache) {
-            Long hiddenInFolder = mHiddenMessageCache.get(messageId);
-            return (hiddenInFolder != null && hiddenInFolder == folderId);
-        }
+    /**
+     * @return {@code true} if there are no hidden messages
+     */
+    public boolean hasNoHiddenMessages() {
+        return mHiddenMessageCache.isEmpty();
+    }
+
+    public boolean isMessageHidden(long messageId, long folderId) {
+        // Database ids are never negative
+        return mHiddenMessageCache.get(messageId, -1) == folderId;
     }
 
     public void unhideMessages(List<? extends Message> messages) {
-        synchronized (mHiddenMessageCache) {
-            for (Message message : messages) {
-                LocalMessage localMessage = (LocalMessage) message;
-                long messageId = localMessage.getDatabaseId();
-                long folderId = localMessage.getFolder().getDatabaseId();
-                Long hiddenInFolder = mHiddenMessageCache.get(messageId);
-
-                if (hiddenInFolder != null && hiddenInFolder == folderId) {
-                    mHiddenMessageCache.remove(messageId);
-                }
-            }
+        for (Message message : messages) {
+            LocalMessage localMessage = (LocalMessage) message;
+            mHiddenMessageCache.remove(localMessage.getDatabaseId(), localMessage.getFolder().getDatabaseId());
         }
     }
 
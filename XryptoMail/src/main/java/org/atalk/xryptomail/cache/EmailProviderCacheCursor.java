@@ -19,6 +19,11 @@ public class EmailProviderCacheCursor extends CursorWrapper {
     private final int mMessageIdColumn;
     private final int mThreadRootColumn;
 
+    /**
+     * Column index -> {@link EmailProviderCache} flag index, or -1 for columns that aren't cached
+     */
+    private final int[] mFlagIndexes;
+
     /**
      * The cursor's current position.
      *
@@ -41,11 +46,19 @@ public class EmailProviderCacheCursor extends CursorWrapper {
                     ", " + ThreadColumns.ROOT);
         }
 
-        while (cursor.moveToNext()) {
-            long messageId = cursor.getLong(mMessageIdColumn);
-            long folderId = cursor.getLong(mFolderIdColumn);
-            if (mCache.isMessageHidden(messageId, folderId)) {
-                mHiddenRows.add(cursor.getPosition());
+        String[] columnNames = cursor.getColumnNames();
+        mFlagIndexes = new int[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            mFlagIndexes[i] = EmailProviderCache.getFlagIndex(columnNames[i]);
+        }
+
+        if (!mCache.hasNoHiddenMessages()) {
+            while (cursor.moveToNext()) {
+                long messageId = cursor.getLong(mMessageIdColumn);
+                long folderId = cursor.getLong(mFolderIdColumn);
+                if (mCache.isMessageHidden(messageId, folderId)) {
+                    mHiddenRows.add(cursor.getPosition());
+                }
             }
         }
 
@@ -56,19 +69,21 @@ public class EmailProviderCacheCursor extends CursorWrapper {
 
     @Override
     public int getInt(int columnIndex) {
-        long messageId = getLong(mMessageIdColumn);
-        long threadRootId = getLong(mThreadRootColumn);
-
-        String columnName = getColumnName(columnIndex);
-        String value = mCache.getValueForMessage(messageId, columnName);
+        int flagIndex = (columnIndex >= 0 && columnIndex < mFlagIndexes.length) ? mFlagIndexes[columnIndex] : -1;
+        if (flagIndex == -1 || mCache.hasNoFlags()) {
+            return super.getInt(columnIndex);
+        }
 
-        if (value != null) {
-            return Integer.parseInt(value);
+        long messageId = getLong(mMessageIdColumn);
+        int value = mCache.getFlagForMessage(messageId, flagIndex);
+        if (value != EmailProviderCache.NO_VALUE) {
+            return value;
         }
 
-        value = mCache.getValueForThread(threadRootId, columnName);
-        if (value != null) {
-            return Integer.parseInt(value);
+        long threadRootId = getLong(mThreadRootColumn);
+        value = mCache.getFlagForThread(threadRootId, flagIndex);
+        if (value != EmailProviderCache.NO_VALUE) {
+            return value;
         }
         return super.getInt(columnIndex);
     }
@@ -0,0 +1,312 @@
+package org.atalk.xryptomail.controller;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import org.atalk.xryptomail.Account;
+import org.atalk.xryptomail.XryptoMail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Runs the {@link MessagingController} commands.
+ * <p>
+ * Each account has its own lane: the commands of one account run one at a time, foreground
+ * commands before background commands and otherwise in submission order. Lanes of different
+ * accounts are served by a small shared pool of worker threads, so a slow or stalled server
+ * only holds up the commands of its own account. Commands that are not tied to an account run
+ * in a global lane.
+ * </p>
+ * <p>
+ * Commands failing with {@link UnavailableAccountException} are put back into their lane after
+ * {@link #RETRY_DELAY_MILLIS}.
+ * </p>
+ * <p>
+ * The statistics of all lanes are logged when a command waited unusually long, and with debug
+ * logging enabled after every {@link #STATS_LOG_INTERVAL} commands.
+ * </p>
+ */
+class CommandScheduler {
+    static final long RETRY_DELAY_MILLIS = 30 * 1000L;
+
+    private static final int WORKER_COUNT = 4;
+    private static final String GLOBAL_LANE = "global";
+
+    /**
+     * Commands that waited longer than this in their lane are logged together with the lane statistics.
+     */
+    private static final long SLOW_WAIT_MILLIS = 10 * 1000L;
+    private static final int STATS_LOG_INTERVAL = 100;
+
+    private static final AtomicInteger sequencing = new AtomicInteger(0);
+
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService retryExecutor;
+    private final AtomicLong executedCommands = new AtomicLong();
+    private volatile boolean stopped = false;
+
+    CommandScheduler() {
+        workers = new ThreadPoolExecutor(WORKER_COUNT, WORKER_COUNT, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), newThreadFactory("MessagingController"));
+        // All tasks must go through the priority queue
+        workers.prestartAllCoreThreads();
+        retryExecutor = Executors.newSingleThreadScheduledExecutor(newThreadFactory("MessagingController-retry"));
+    }
+
+    private static ThreadFactory newThreadFactory(final String name) {
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        return runnable -> {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            });
+            thread.setName(name + "-" + threadCount.incrementAndGet());
+            return thread;
+        };
+    }
+
+    void put(Account account, String description, MessagingListener listener, Runnable runnable,
+            boolean isForeground) {
+        Command command = new Command();
+        command.laneName = (account != null) ? account.getUuid() : GLOBAL_LANE;
+        command.listener = listener;
+        command.runnable = runnable;
+        command.description = description;
+        command.isForegroundPriority = isForeground;
+        enqueue(command);
+    }
+
+    private void enqueue(Command command) {
+        if (stopped) {
+            Timber.w("Dropping command '%s'; scheduler is stopped", command.description);
+            return;
+        }
+
+        Lane lane = lanes.computeIfAbsent(command.laneName, Lane::new);
+
+        command.enqueueTime = SystemClock.elapsedRealtime();
+        lane.queue.add(command);
+        scheduleLane(lane);
+    }
+
+    /**
+     * Hand the lane to the worker pool unless it is already waiting there or running.
+     */
+    private void scheduleLane(Lane lane) {
+        if (stopped || !lane.scheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        Command head = lane.queue.peek();
+        if (head == null) {
+            lane.scheduled.set(false);
+            // A command may have arrived after peek() and failed to schedule the lane
+            if (!lane.queue.isEmpty()) {
+                scheduleLane(lane);
+            }
+            return;
+        }
+        workers.execute(new LaneTask(lane, head.isForegroundPriority, head.sequence));
+    }
+
+    private void runNextCommand(Lane lane) {
+        try {
+            final Command command = lane.queue.poll();
+            if (command != null) {
+                runCommand(lane, command);
+            }
+        } finally {
+            lane.scheduled.set(false);
+            if (!lane.queue.isEmpty()) {
+                scheduleLane(lane);
+            }
+        }
+    }
+
+    private void runCommand(Lane lane, final Command command) {
+        long waitMillis = SystemClock.elapsedRealtime() - command.enqueueTime;
+        lane.recordWait(waitMillis);
+
+        Timber.i("Running command '%s', seq = %s (%s priority, waited %d ms)", command.description,
+                command.sequence, command.isForegroundPriority ? "foreground" : "background", waitMillis);
+        long executed = executedCommands.incrementAndGet();
+        if (waitMillis > SLOW_WAIT_MILLIS) {
+            Timber.w("Command '%s' waited %d ms in lane %s", command.description, waitMillis, lane.name);
+            logLaneStats();
+        } else if (XryptoMail.isDebug() && executed % STATS_LOG_INTERVAL == 0) {
+            logLaneStats();
+        }
+
+        try {
+            command.runnable.run();
+            Timber.i(" Command '%s' completed", command.description);
+        } catch (UnavailableAccountException e) {
+            // retry later
+            lane.retries.incrementAndGet();
+            retryExecutor.schedule(() -> enqueue(command), RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            Timber.e(e, "Error running command '%s'", command.description);
+        }
+    }
+
+    /**
+     * @return a snapshot of the statistics of all lanes
+     */
+    List<LaneStats> getLaneStats() {
+        List<LaneStats> stats = new ArrayList<>(lanes.size());
+        for (Lane lane : lanes.values()) {
+            stats.add(lane.getStats());
+        }
+        return stats;
+    }
+
+    private void logLaneStats() {
+        for (LaneStats stats : getLaneStats()) {
+            Timber.i("Command lane %s", stats);
+        }
+    }
+
+    void stop(long timeoutMillis)
+            throws InterruptedException {
+        stopped = true;
+        retryExecutor.shutdownNow();
+        workers.shutdownNow();
+        workers.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static class Command implements Comparable<Command> {
+        String laneName;
+        Runnable runnable;
+        MessagingListener listener;
+        String description;
+        boolean isForegroundPriority;
+        long enqueueTime;
+
+        int sequence = sequencing.getAndIncrement();
+
+        @Override
+        public int compareTo(@NonNull Command other) {
+            return comparePriority(isForegroundPriority, sequence, other.isForegroundPriority, other.sequence);
+        }
+    }
+
+    private static int comparePriority(boolean isForeground, int sequence, boolean otherIsForeground,
+            int otherSequence) {
+        if (otherIsForeground && !isForeground) {
+            return 1;
+        }
+        else if (!otherIsForeground && isForeground) {
+            return -1;
+        }
+        else {
+            return (sequence - otherSequence);
+        }
+    }
+
+    /**
+     * Worker pool entry for a lane, ordered by the priority of the command at the head of the
+     * lane when it was scheduled, so foreground work of any account is picked up first.
+     */
+    private class LaneTask implements Runnable, Comparable<LaneTask> {
+        private final Lane lane;
+        private final boolean isForegroundPriority;
+        private final int sequence;
+
+        LaneTask(Lane lane, boolean isForegroundPriority, int sequence) {
+            this.lane = lane;
+            this.isForegroundPriority = isForegroundPriority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            runNextCommand(lane);
+        }
+
+        @Override
+        public int compareTo(@NonNull LaneTask other) {
+            return comparePriority(isForegroundPriority, sequence, other.isForegroundPriority, other.sequence);
+        }
+    }
+
+    private static class Lane {
+        final String name;
+        final PriorityBlockingQueue<Command> queue = new PriorityBlockingQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
+        final AtomicLong executed = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+        final AtomicLong totalWaitMillis = new AtomicLong();
+        final AtomicLong maxWaitMillis = new AtomicLong();
+
+        Lane(String name) {
+            this.name = name;
+        }
+
+        void recordWait(long waitMillis) {
+            executed.incrementAndGet();
+            totalWaitMillis.addAndGet(waitMillis);
+            long max;
+            do {
+                max = maxWaitMillis.get();
+            } while (waitMillis > max && !maxWaitMillis.compareAndSet(max, waitMillis));
+        }
+
+        LaneStats getStats() {
+            long count = executed.get();
+            return new LaneStats(name, queue.size(), count, retries.get(),
+                    (count == 0) ? 0 : totalWaitMillis.get() / count, maxWaitMillis.get());
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return getStats().toString();
+        }
+    }
+
+    /**
+     * Queue depth and wait time statistics of a lane.
+     */
+    static class LaneStats {
+        final String lane;
+        final int queueDepth;
+        final long executed;
+        final long retries;
+        final long averageWaitMillis;
+        final long maxWaitMillis;
+
+        LaneStats(String lane, int queueDepth, long executed, long retries, long averageWaitMillis,
+                long maxWaitMillis) {
+            this.lane = lane;
+            this.queueDepth = queueDepth;
+            this.executed = executed;
+            this.retries = retries;
+            this.averageWaitMillis = averageWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return lane + " [depth=" + queueDepth + ", executed=" + executed + ", retries=" + retries
+                    + ", avgWait=" + averageWaitMillis + "ms, maxWait=" + maxWaitMillis + "ms]";
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.atalk.xryptomail.controller;
+
+import android.os.Process;
+
+import org.atalk.xryptomail.Account;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import timber.log.Timber;
+
+/**
+ * Fans the folder synchronizations of a mail check out over a bounded pool of worker threads
+ * per account, so that an account with many folders is synchronized over several server
+ * connections concurrently instead of one folder at a time on the controller command thread.
+ * <p>
+ * Every folder sync runs from start to end on a single worker thread, so the
+ * {@link MessagingListener} callbacks of one folder keep their order. A folder that is still
+ * queued or running is not scheduled a second time.
+ * </p>
+ * <p>
+ * Folders are also synchronized outside of this scheduler, e.g. when the user refreshes a folder.
+ * All synchronizations of a folder hold its {@link #getFolderLock(Account, String) folder lock},
+ * so two of them never run at the same time.
+ * </p>
+ */
+class FolderSyncScheduler {
+    private static final long IDLE_THREAD_TIMEOUT_SECONDS = 60;
+
+    private final Map<String, ThreadPoolExecutor> accountExecutors = new ConcurrentHashMap<>();
+    private final Set<String> activeFolders = ConcurrentHashMap.newKeySet();
+    private final Map<String, ReentrantLock> folderLocks = new ConcurrentHashMap<>();
+
+    /**
+     * A single folder synchronization.
+     */
+    static class FolderSync {
+        final String folderServerId;
+        final Runnable runnable;
+
+        FolderSync(String folderServerId, Runnable runnable) {
+            this.folderServerId = folderServerId;
+            this.runnable = runnable;
+        }
+    }
+
+    /**
+     * Schedule the given folder syncs of an account.
+     *
+     * @param account the account the folders belong to
+     * @param maxConcurrency maximum number of folders of this account synchronized at the same time
+     * @param folderSyncs the folder syncs to run
+     * @param whenDone run once all scheduled folder syncs of this call have finished; may be {@code null}
+     */
+    void syncFolders(Account account, int maxConcurrency, List<FolderSync> folderSyncs, final Runnable whenDone) {
+        ThreadPoolExecutor executor = getExecutor(account, Math.max(1, maxConcurrency));
+
+        final AtomicInteger remaining = new AtomicInteger(1);
+        for (final FolderSync folderSync : folderSyncs) {
+            final String key = getFolderKey(account, folderSync.folderServerId);
+            if (!activeFolders.add(key)) {
+                Timber.v("Folder %s of %s is already scheduled for sync", folderSync.folderServerId,
+                        account.getDescription());
+                continue;
+            }
+
+            remaining.incrementAndGet();
+            executor.execute(() -> {
+                try {
+                    folderSync.runnable.run();
+                } catch (Exception e) {
+                    Timber.e(e, "Error synchronizing folder %s of %s", folderSync.folderServerId,
+                            account.getDescription());
+                } finally {
+                    activeFolders.remove(key);
+                    finishOne(remaining, whenDone);
+                }
+            });
+        }
+        finishOne(remaining, whenDone);
+    }
+
+    /**
+     * @return the lock that must be held while the given folder is synchronized
+     */
+    ReentrantLock getFolderLock(Account account, String folderServerId) {
+        return folderLocks.computeIfAbsent(getFolderKey(account, folderServerId), key -> new ReentrantLock());
+    }
+
+    private static String getFolderKey(Account account, String folderServerId) {
+        return account.getUuid() + ":" + folderServerId;
+    }
+
+    private static void finishOne(AtomicInteger remaining, Runnable whenDone) {
+        if (remaining.decrementAndGet() == 0 && whenDone != null) {
+            whenDone.run();
+        }
+    }
+
+    private synchronized ThreadPoolExecutor getExecutor(final Account account, int maxConcurrency) {
+        ThreadPoolExecutor executor = accountExecutors.get(account.getUuid());
+        if (executor == null) {
+            final AtomicInteger threadCount = new AtomicInteger(0);
+            ThreadFactory threadFactory = runnable -> {
+                Thread thread = new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                });
+                thread.setName("FolderSync-" + account.getDescription() + "-" + threadCount.incrementAndGet());
+                return thread;
+            };
+
+            executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, IDLE_THREAD_TIMEOUT_SECONDS,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+            executor.allowCoreThreadTimeOut(true);
+            accountExecutors.put(account.getUuid(), executor);
+        }
+        else if (executor.getMaximumPoolSize() != maxConcurrency) {
+            // Account setting changed; order matters so that core <= max at all times
+            if (maxConcurrency > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(maxConcurrency);
+                executor.setCorePoolSize(maxConcurrency);
+            }
+            else {
+                executor.setCorePoolSize(maxConcurrency);
+                executor.setMaximumPoolSize(maxConcurrency);
+            }
+        }
+        return executor;
+    }
+}
@@ -10,8 +10,6 @@ import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.PowerManager;
-import android.os.Process;
-import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.VisibleForTesting;
@@ -31,15 +29,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.atalk.xryptomail.Account;
 import org.atalk.xryptomail.Account.DeletePolicy;
@@ -87,12 +84,14 @@ import org.atalk.xryptomail.mail.Pusher;
 import org.atalk.xryptomail.mail.Store;
 import org.atalk.xryptomail.mail.Transport;
 import org.atalk.xryptomail.mail.TransportProvider;
+import org.atalk.xryptomail.mail.internet.BinaryTempFileBody;
 import org.atalk.xryptomail.mail.internet.MessageExtractor;
 import org.atalk.xryptomail.mail.internet.MimeUtility;
 import org.atalk.xryptomail.mail.store.pop3.Pop3Store;
 import org.atalk.xryptomail.mailstore.LocalFolder;
 import org.atalk.xryptomail.mailstore.LocalFolder.MoreMessages;
 import org.atalk.xryptomail.mailstore.LocalMessage;
+import org.atalk.xryptomail.mailstore.LocalMessageIterator;
 import org.atalk.xryptomail.mailstore.LocalStore;
 import org.atalk.xryptomail.mailstore.UnavailableStorageException;
 import org.atalk.xryptomail.message.extractors.EncryptionDetector;
@@ -133,6 +132,12 @@ public class MessagingController {
             Flag.FLAGGED,
             Flag.ANSWERED,
             Flag.FORWARDED);
+
+    /**
+     * Number of downloaded small messages stored per database transaction.
+     */
+    private static final int SMALL_MESSAGE_STORE_BATCH_SIZE = 25;
+
     /**
      * The maximum message size that we'll consider to be "small". A small message is downloaded
      * in full immediately instead of in pieces. Anything over this size will be downloaded in
@@ -158,17 +163,17 @@ public class MessagingController {
     private final Context mContext;
     private final Contacts mContacts;
     private final NotificationController mNotificationController;
-    private final Thread mControllerThread;
-    private final BlockingQueue<Command> mQueuedCommands = new PriorityBlockingQueue<>();
+    private final CommandScheduler mCommandScheduler;
     private final Set<MessagingListener> mListeners = new CopyOnWriteArraySet<>();
     private final ConcurrentHashMap<String, AtomicInteger> sendCount = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<Account, Pusher> pushers = new ConcurrentHashMap<>();
     private final ExecutorService threadPool = Executors.newCachedThreadPool();
+    private final FolderSyncScheduler folderSyncScheduler = new FolderSyncScheduler();
+    private final ConcurrentHashMap<String, Object> pendingCommandLocks = new ConcurrentHashMap<>();
     private final MemorizingMessagingListener memorizingMessagingListener = new MemorizingMessagingListener();
     private final TransportProvider mTransportProvider;
     private ImapMessageStore imapMessageStore;
     private MessagingListener checkMailListener = null;
-    private volatile boolean stopped = false;
 
     public static synchronized MessagingController getInstance(Context context) {
         if (inst == null) {
@@ -189,91 +194,29 @@ public class MessagingController {
         mContacts = contacts;
         mTransportProvider = transportProvider;
 
-        mControllerThread = new Thread(this::runInBackground);
-        mControllerThread.setName("MessagingController");
-        mControllerThread.start();
+        mCommandScheduler = new CommandScheduler();
         addListener(memorizingMessagingListener);
     }
 
     @VisibleForTesting
     void stop()
             throws InterruptedException {
-        stopped = true;
-        mControllerThread.interrupt();
-        mControllerThread.join(1000L);
-    }
-
-    private void runInBackground() {
-        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-        while (!stopped) {
-            String commandDescription = null;
-            try {
-                final Command command = mQueuedCommands.take();
-
-                if (command != null) {
-                    commandDescription = command.description;
-
-                    Timber.i("Running command '%s', seq = %s (%s priority)", command.description,
-                            command.sequence, command.isForegroundPriority ? "foreground" : "background");
-                    try {
-                        command.runnable.run();
-                    } catch (UnavailableAccountException e) {
-                        // retry later
-                        new Thread() {
-                            @Override
-                            public void run() {
-                                try {
-                                    sleep(30 * 1000);
-                                    mQueuedCommands.put(command);
-                                } catch (InterruptedException e) {
-                                    Timber.e("Interrupted while putting a pending command for an unavailable account"
-                                            + " back into the queue. THIS SHOULD NEVER HAPPEN.");
-                                }
-                            }
-                        }.start();
-                    }
-                    Timber.i(" Command '%s' completed", command.description);
-                }
-            } catch (Exception e) {
-                Timber.e(e, "Error running command '%s'", commandDescription);
-            }
-        }
-    }
-
-    private void put(String description, MessagingListener listener, Runnable runnable) {
-        putCommand(mQueuedCommands, description, listener, runnable, true);
+        mCommandScheduler.stop(1000L);
     }
 
-    private void putBackground(String description, MessagingListener listener, Runnable runnable) {
-        putCommand(mQueuedCommands, description, listener, runnable, false);
+    private void put(Account account, String description, MessagingListener listener, Runnable runnable) {
+        mCommandScheduler.put(account, description, listener, runnable, true);
     }
 
-    private void putCommand(BlockingQueue<Command> queue, String description, MessagingListener listener,
-            Runnable runnable, boolean isForeground) {
-        int retries = 10;
-        Exception e = null;
-        while (retries-- > 0) {
-            try {
-                Command command = new Command();
-                command.listener = listener;
-                command.runnable = runnable;
-                command.description = description;
-                command.isForegroundPriority = isForeground;
-                queue.put(command);
-                return;
-            } catch (InterruptedException ie) {
-                SystemClock.sleep(200);
-                e = ie;
-            }
-        }
-        throw new Error(e);
+    private void putBackground(Account account, String description, MessagingListener listener, Runnable runnable) {
+        mCommandScheduler.put(account, description, listener, runnable, false);
     }
 
     private RemoteMessageStore getRemoteMessageStore(Account account) {
         return account.getStoreUri().startsWith("imap") ? getImapMessageStore() : null;
     }
 
-    private ImapMessageStore getImapMessageStore() {
+    private synchronized ImapMessageStore getImapMessageStore() {
         if (imapMessageStore == null) {
             imapMessageStore = new ImapMessageStore(mNotificationController, this, mContext);
         }
@@ -330,8 +273,7 @@ public class MessagingController {
     private void setFlagInCache(final Account account, final List<Long> messageIds, final Flag flag, final boolean newState) {
         EmailProviderCache cache = EmailProviderCache.getCache(account.getUuid(), mContext);
         String columnName = LocalStore.getColumnNameForFlag(flag);
-        String value = Integer.toString((newState) ? 1 : 0);
-        cache.setValueForMessages(messageIds, columnName, value);
+        cache.setValueForMessages(messageIds, columnName, newState);
     }
 
     private void removeFlagFromCache(final Account account, final List<Long> messageIds, final Flag flag) {
@@ -344,8 +286,7 @@ public class MessagingController {
             final Flag flag, final boolean newState) {
         EmailProviderCache cache = EmailProviderCache.getCache(account.getUuid(), mContext);
         String columnName = LocalStore.getColumnNameForFlag(flag);
-        String value = Integer.toString((newState) ? 1 : 0);
-        cache.setValueForThreads(threadRootIds, columnName, value);
+        cache.setValueForThreads(threadRootIds, columnName, newState);
     }
 
     private void removeFlagForThreadsFromCache(final Account account, final List<Long> messageIds, final Flag flag) {
@@ -419,7 +360,7 @@ public class MessagingController {
     }
 
     private void doRefreshRemote(final Account account, final MessagingListener listener) {
-        put("doRefreshRemote", listener, () -> refreshRemoteSynchronous(account, listener));
+        put(account, "doRefreshRemote", listener, () -> refreshRemoteSynchronous(account, listener));
     }
 
     @VisibleForTesting
@@ -507,35 +448,22 @@ public class MessagingController {
                 continue;
             }
 
-            // Collecting statistics of the search result
-            MessageRetrievalListener<LocalMessage> retrievalListener = new MessageRetrievalListener<LocalMessage>() {
-                @Override
-                public void messageStarted(String message, int number, int ofTotal) {
-                }
-
-                @Override
-                public void messagesFinished(int number) {
-                }
-
-                @Override
-                public void messageFinished(LocalMessage message, int number, int ofTotal) {
+            // Collecting statistics of the search result. The messages are read a page at a time
+            // and handed to the listener, so the result isn't held in memory.
+            try {
+                LocalStore localStore = account.getLocalStore();
+                LocalMessageIterator messages = localStore.searchForMessages(search);
+                while (messages.hasNext()) {
+                    LocalMessage message = messages.next();
                     if (!isMessageSuppressed(message)) {
-                        List<LocalMessage> messages = new ArrayList<>();
-
-                        messages.add(message);
                         stats.unreadMessageCount += (!message.isSet(Flag.SEEN)) ? 1 : 0;
                         stats.flaggedMessageCount += (message.isSet(Flag.FLAGGED)) ? 1 : 0;
                         if (listener != null) {
-                            listener.listLocalMessagesAddMessages(account, null, messages);
+                            listener.listLocalMessagesAddMessages(account, null,
+                                    Collections.singletonList(message));
                         }
                     }
                 }
-            };
-
-            // build and do the query in the localstore
-            try {
-                LocalStore localStore = account.getLocalStore();
-                localStore.searchForMessages(retrievalListener, search);
             } catch (Exception e) {
                 Timber.e(e);
             }
@@ -695,7 +623,7 @@ public class MessagingController {
      */
     public void synchronizeMailbox(final Account account, final String folder, final MessagingListener listener,
             final Folder providedRemoteFolder) {
-        putBackground("synchronizeMailbox", listener,
+        putBackground(account, "synchronizeMailbox", listener,
                 () -> synchronizeMailboxSynchronous(account, folder, listener, providedRemoteFolder));
     }
 
@@ -709,12 +637,22 @@ public class MessagingController {
     @VisibleForTesting
     private void synchronizeMailboxSynchronous(final Account account, final String folder, final MessagingListener listener,
             Folder providedRemoteFolder) {
-        RemoteMessageStore remoteMessageStore = getRemoteMessageStore(account);
-        if (remoteMessageStore != null) {
-            remoteMessageStore.sync(account, folder, listener, providedRemoteFolder);
+        // Scheduled and user triggered syncs of the same folder must not update it concurrently
+        ReentrantLock folderLock = folderSyncScheduler.getFolderLock(account, folder);
+        if (!folderLock.tryLock()) {
+            Timber.d("Waiting for the running sync of folder %s:%s", account.getDescription(), folder);
+            folderLock.lock();
         }
-        else {
-            synchronizeMailboxSynchronousLegacy(account, folder, listener);
+        try {
+            RemoteMessageStore remoteMessageStore = getRemoteMessageStore(account);
+            if (remoteMessageStore != null) {
+                remoteMessageStore.sync(account, folder, listener, providedRemoteFolder);
+            }
+            else {
+                synchronizeMailboxSynchronousLegacy(account, folder, listener);
+            }
+        } finally {
+            folderLock.unlock();
         }
     }
 
@@ -1247,37 +1185,15 @@ public class MessagingController {
         final String folder = remoteFolder.getServerId();
         // Timber.d("SYNC: Fetching %d small messages for folder %s", smallMessages.size(), folder);
 
+        // Downloaded messages are stored in batches to save on per-transaction overhead
+        final List<T> pendingMessages = new ArrayList<>(SMALL_MESSAGE_STORE_BATCH_SIZE);
         remoteFolder.fetch(smallMessages, fp, new MessageRetrievalListener<T>() {
             @Override
             public void messageFinished(final T message, int number, int ofTotal) {
-                try {
-                    // Store the updated message locally
-                    final LocalMessage localMessage = localFolder.storeSmallMessage(message, progress::incrementAndGet);
-
-                    // Increment the number of "new messages" if the newly downloaded message is not marked as read.
-                    if (!localMessage.isSet(Flag.SEEN)) {
-                        newMessages.incrementAndGet();
-                    }
-
-                    Timber.v("Notify listeners on new small message received %s:%s:%s",
-                            account, folder, message.getUid());
-
-                    // Update the listener with what we've found
-                    for (MessagingListener l : getListeners()) {
-                        l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
-                        if (!localMessage.isSet(Flag.SEEN)) {
-                            l.synchronizeMailboxNewMessage(account, folder, localMessage);
-                        }
-                    }
-
-                    // Send a notification of this message
-                    if (shouldNotifyForMessage(account, localFolder, message)) {
-                        // Notify with the localMessage so that we don't have to recalculate the content preview.
-                        mNotificationController.addNewMailNotification(account, localMessage, unreadBeforeStart);
-                    }
-
-                } catch (MessagingException me) {
-                    Timber.e(me, "SYNC: fetch small messages");
+                pendingMessages.add(message);
+                if (pendingMessages.size() >= SMALL_MESSAGE_STORE_BATCH_SIZE) {
+                    storeSmallMessages(account, localFolder, pendingMessages, progress, unreadBeforeStart,
+                            newMessages, todo);
                 }
             }
 
@@ -1289,9 +1205,60 @@ public class MessagingController {
             public void messagesFinished(int total) {
             }
         });
+        storeSmallMessages(account, localFolder, pendingMessages, progress, unreadBeforeStart, newMessages, todo);
         Timber.d("SYNC: Done fetching small messages for folder %s", folder);
     }
 
+    private <T extends Message> void storeSmallMessages(final Account account, final LocalFolder localFolder,
+            List<T> messages, final AtomicInteger progress, final int unreadBeforeStart,
+            final AtomicInteger newMessages, final int todo) {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        final String folder = localFolder.getServerId();
+        try {
+            // Store the updated messages locally
+            List<LocalMessage> localMessages = localFolder.storeSmallMessages(messages);
+
+            for (int i = 0; i < messages.size(); i++) {
+                Message message = messages.get(i);
+                LocalMessage localMessage = localMessages.get(i);
+                progress.incrementAndGet();
+                if (localMessage == null) {
+                    // Couldn't be stored; the rest of the batch was
+                    continue;
+                }
+
+                // Increment the number of "new messages" if the newly downloaded message is not marked as read.
+                if (!localMessage.isSet(Flag.SEEN)) {
+                    newMessages.incrementAndGet();
+                }
+
+                Timber.v("Notify listeners on new small message received %s:%s:%s",
+                        account, folder, message.getUid());
+
+                // Update the listener with what we've found
+                for (MessagingListener l : getListeners()) {
+                    l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
+                    if (!localMessage.isSet(Flag.SEEN)) {
+                        l.synchronizeMailboxNewMessage(account, folder, localMessage);
+                    }
+                }
+
+                // Send a notification of this message
+                if (shouldNotifyForMessage(account, localFolder, message)) {
+                    // Notify with the localMessage so that we don't have to recalculate the content preview.
+                    mNotificationController.addNewMailNotification(account, localMessage, unreadBeforeStart);
+                }
+            }
+        } catch (MessagingException me) {
+            Timber.e(me, "SYNC: fetch small messages");
+        } finally {
+            messages.clear();
+        }
+    }
+
     private <T extends Message> void downloadLargeMessages(final Account account, final Folder<T> remoteFolder,
             final LocalFolder localFolder, List<T> largeMessages, final AtomicInteger progress,
             final int unreadBeforeStart, final AtomicInteger newMessages, final int todo, FetchProfile fp)
@@ -1304,7 +1271,7 @@ public class MessagingController {
                 downloadSaneBody(account, remoteFolder, localFolder, message);
             }
             else {
-                downloadPartial(remoteFolder, localFolder, message);
+                downloadPartial(account, remoteFolder, localFolder, message);
             }
             Timber.v("Notify listeners on new large message received %s:%s:%s",
                     account, folder, message.getUid());
@@ -1333,7 +1300,7 @@ public class MessagingController {
         Timber.d("SYNC: Done fetching large messages for folder %s", folder);
     }
 
-    private void downloadPartial(Folder remoteFolder, LocalFolder localFolder, Message message)
+    private void downloadPartial(Account account, Folder remoteFolder, LocalFolder localFolder, Message message)
             throws MessagingException {
         /*
          * We have a structure to deal with, from which we can pull down the parts we want to actually store.
@@ -1346,12 +1313,24 @@ public class MessagingController {
         /*
          * Now download the parts we're interested in storing.
          */
-        BodyFactory bodyFactory = new DefaultBodyFactory();
-        for (Part part : viewables) {
-            remoteFolder.fetchPart(message, part, null, bodyFactory);
+        // Parts are streamed from the server into the message part storage, from where they are
+        // renamed into place when the message is stored
+        BodyFactory bodyFactory = new DefaultBodyFactory(account.getLocalStore().getAttachmentDirectory());
+        try {
+            for (Part part : viewables) {
+                remoteFolder.fetchPart(message, part, null, bodyFactory);
+            }
+            // Store the updated message locally
+            localFolder.appendMessages(Collections.singletonList(message));
+        } finally {
+            // Bodies stored on disk were renamed to their part file; the staged files of bodies
+            // stored in the database, or not stored at all, are left to delete
+            for (Part part : viewables) {
+                if (part.getBody() instanceof BinaryTempFileBody) {
+                    ((BinaryTempFileBody) part.getBody()).deleteFile();
+                }
+            }
         }
-        // Store the updated message locally
-        localFolder.appendMessages(Collections.singletonList(message));
 
         Message localMessage = localFolder.getMessage(message.getUid());
 
@@ -1507,7 +1486,7 @@ public class MessagingController {
     }
 
     private void processPendingCommands(final Account account) {
-        putBackground("processPendingCommands", null, () -> {
+        putBackground(account, "processPendingCommands", null, () -> {
             try {
                 processPendingCommandsSynchronous(account);
             } catch (UnavailableStorageException e) {
@@ -1525,6 +1504,15 @@ public class MessagingController {
 
     public void processPendingCommandsSynchronous(Account account)
             throws MessagingException {
+        // Folders of an account may be synchronized concurrently; pending commands must still run in order
+        Object lock = pendingCommandLocks.computeIfAbsent(account.getUuid(), uuid -> new Object());
+        synchronized (lock) {
+            processPendingCommandsLocked(account);
+        }
+    }
+
+    private void processPendingCommandsLocked(Account account)
+            throws MessagingException {
         LocalStore localStore = account.getLocalStore();
         List<PendingCommand> commands = localStore.getPendingCommands();
 
@@ -1861,7 +1849,7 @@ public class MessagingController {
 
     private void queueSetFlag(final Account account, final String folderServerId,
             final boolean newState, final Flag flag, final List<String> uids) {
-        putBackground("queueSetFlag " + account.getDescription() + ":" + folderServerId, null,
+        putBackground(account, "queueSetFlag " + account.getDescription() + ":" + folderServerId, null,
                 () -> {
                     PendingCommand command = PendingSetFlag.create(folderServerId, newState, flag, uids);
                     queuePendingCommand(account, command);
@@ -1916,7 +1904,7 @@ public class MessagingController {
     }
 
     private void queueExpunge(final Account account, final String folderServerId) {
-        putBackground("queueExpunge " + account.getDescription() + ":" + folderServerId, null, () -> {
+        putBackground(account, "queueExpunge " + account.getDescription() + ":" + folderServerId, null, () -> {
             PendingCommand command = PendingExpunge.create(folderServerId);
             queuePendingCommand(account, command);
             processPendingCommands(account);
@@ -2158,14 +2146,14 @@ public class MessagingController {
 
     public void loadMessageRemotePartial(final Account account, final String folder,
             final String uid, final MessagingListener listener) {
-        put("loadMessageRemotePartial", listener,
+        put(account, "loadMessageRemotePartial", listener,
                 () -> loadMessageRemoteSynchronous(account, folder, uid, listener, true));
     }
 
     //TODO: Fix the callback mess. See GH-782
     public void loadMessageRemote(final Account account, final String folder,
             final String uid, final MessagingListener listener) {
-        put("loadMessageRemote", listener,
+        put(account, "loadMessageRemote", listener,
                 () -> loadMessageRemoteSynchronous(account, folder, uid, listener, false));
     }
 
@@ -2300,7 +2288,7 @@ public class MessagingController {
          * there's no reason to download it, so we just tell the listener that
          * it's ready to go.
          */
-        put("loadAttachment", listener, () -> {
+        put(account, "loadAttachment", listener, () -> {
             Folder remoteFolder = null;
             LocalFolder localFolder = null;
             try {
@@ -2386,7 +2374,7 @@ public class MessagingController {
      * @param listener
      */
     public void sendPendingMessages(final Account account, MessagingListener listener) {
-        putBackground("sendPendingMessages", listener, () -> {
+        putBackground(account, "sendPendingMessages", listener, () -> {
             if (!account.isAvailable(mContext)) {
                 throw new UnavailableAccountException();
             }
@@ -2708,7 +2696,7 @@ public class MessagingController {
             }
             l.folderStatusChanged(account, folderServerId, unreadMessageCount);
         };
-        put("getFolderUnread:" + account.getDescription() + ":" + folderServerId, l, unreadRunnable);
+        put(account, "getFolderUnread:" + account.getDescription() + ":" + folderServerId, l, unreadRunnable);
     }
 
     public boolean isMoveCapable(MessageReference messageReference) {
@@ -2748,7 +2736,7 @@ public class MessagingController {
             public void act(final Account account, LocalFolder messageFolder, final List<LocalMessage> messages) {
                 suppressMessages(account, messages);
 
-                putBackground("moveMessages", null,
+                putBackground(account, "moveMessages", null,
                         () -> moveOrCopyMessageSynchronous(account, srcFolder, messages, destFolder, false));
             }
         });
@@ -2760,7 +2748,7 @@ public class MessagingController {
             @Override
             public void act(final Account account, LocalFolder messageFolder, final List<LocalMessage> messages) {
                 suppressMessages(account, messages);
-                putBackground("moveMessagesInThread", null, () -> {
+                putBackground(account, "moveMessagesInThread", null, () -> {
                     try {
                         List<Message> messagesInThreads = collectMessagesInThreads(account, messages);
                         moveOrCopyMessageSynchronous(account, srcFolder, messagesInThreads, destFolder, false);
@@ -2782,7 +2770,7 @@ public class MessagingController {
         actOnMessageGroup(srcAccount, srcFolder, messageReferences, new MessageActor() {
             @Override
             public void act(final Account account, LocalFolder messageFolder, final List<LocalMessage> messages) {
-                putBackground("copyMessages", null,
+                putBackground(account, "copyMessages", null,
                         () -> moveOrCopyMessageSynchronous(srcAccount, srcFolder, messages, destFolder, true));
             }
         });
@@ -2793,7 +2781,7 @@ public class MessagingController {
         actOnMessageGroup(srcAccount, srcFolder, messageReferences, new MessageActor() {
             @Override
             public void act(final Account account, LocalFolder messageFolder, final List<LocalMessage> messages) {
-                putBackground("copyMessagesInThread", null, () -> {
+                putBackground(account, "copyMessagesInThread", null, () -> {
                     try {
                         List<Message> messagesInThreads = collectMessagesInThreads(account, messages);
                         moveOrCopyMessageSynchronous(account, srcFolder, messagesInThreads, destFolder, true);
@@ -2902,7 +2890,7 @@ public class MessagingController {
     }
 
     public void expunge(final Account account, final String folder) {
-        putBackground("expunge", null, () -> queueExpunge(account, folder));
+        putBackground(account, "expunge", null, () -> queueExpunge(account, folder));
     }
 
     public void deleteDraft(final Account account, long id) {
@@ -2931,7 +2919,7 @@ public class MessagingController {
                     final List<LocalMessage> accountMessages) {
                 suppressMessages(account, accountMessages);
 
-                putBackground("deleteThreads", null,
+                putBackground(account, "deleteThreads", null,
                         () -> deleteThreadsSynchronous(account, messageFolder.getServerId(), accountMessages));
             }
         });
@@ -2970,7 +2958,7 @@ public class MessagingController {
             @Override
             public void act(final Account account, final LocalFolder messageFolder, final List<LocalMessage> accountMessages) {
                 suppressMessages(account, accountMessages);
-                putBackground("deleteMessages", null,
+                putBackground(account, "deleteMessages", null,
                         () -> deleteMessagesSynchronous(account, messageFolder.getServerId(), accountMessages, listener));
             }
         });
@@ -2986,7 +2974,7 @@ public class MessagingController {
             @Override
             public void act(final Account account, final LocalFolder messageFolder,
                     final List<LocalMessage> accountMessages) {
-                putBackground("debugClearLocalMessages", null, () -> {
+                putBackground(account, "debugClearLocalMessages", null, () -> {
                     for (LocalMessage message : accountMessages) {
                         try {
                             message.debugClearLocalData();
@@ -3140,7 +3128,7 @@ public class MessagingController {
     }
 
     public void emptyTrash(final Account account, MessagingListener listener) {
-        putBackground("emptyTrash", listener, () -> {
+        putBackground(account, "emptyTrash", listener, () -> {
             LocalFolder localFolder = null;
             try {
                 Store localStore = account.getLocalStore();
@@ -3176,7 +3164,7 @@ public class MessagingController {
     }
 
     public void clearFolder(final Account account, final String folderServerId, final ActivityListener listener) {
-        putBackground("clearFolder", listener, () -> clearFolderSynchronous(account, folderServerId, listener));
+        putBackground(account, "clearFolder", listener, () -> clearFolderSynchronous(account, folderServerId, listener));
     }
 
     @VisibleForTesting
@@ -3259,6 +3247,23 @@ public class MessagingController {
         context.startActivity(Intent.createChooser(msg, context.getString(R.string.send_alternate_chooser_title)));
     }
 
+    /**
+     * Log the lock wait times of the databases of the checked accounts, to show where the
+     * synchronization contends with other database users.
+     */
+    private void logDatabaseLockStats(Context context, Account account) {
+        Collection<Account> accounts = (account != null) ?
+                Collections.singletonList(account) : Preferences.getPreferences(context).getAvailableAccounts();
+        for (Account checkedAccount : accounts) {
+            try {
+                Timber.d("Database locks of %s: %s", checkedAccount.getDescription(),
+                        checkedAccount.getLocalStore().getDatabase().getLockStats());
+            } catch (MessagingException e) {
+                Timber.w(e, "Unable to get the database lock statistics of %s", checkedAccount.getDescription());
+            }
+        }
+    }
+
     /**
      * Checks mail for one or multiple accounts. If account is null all accounts
      * are checked.
@@ -3282,7 +3287,27 @@ public class MessagingController {
         for (MessagingListener l : getListeners()) {
             l.checkMailStarted(context, account);
         }
-        putBackground("checkMail", listener, () -> {
+        putBackground(account, "checkMail", listener, () -> {
+            // Folder syncs complete asynchronously on the FolderSyncScheduler; the extra count
+            // held during the loop guarantees "finalize sync" is queued only once all are done.
+            final AtomicInteger pendingAccounts = new AtomicInteger(1);
+            final Runnable accountDone = () -> {
+                if (pendingAccounts.decrementAndGet() == 0) {
+                    putBackground(account, "finalize sync", null, () -> {
+                        Timber.i("Finished mail sync");
+                        logDatabaseLockStats(context, account);
+
+                        if (wakeLock != null) {
+                            wakeLock.release();
+                        }
+                        for (MessagingListener l : getListeners()) {
+                            l.checkMailFinished(context, account);
+                        }
+
+                    });
+                }
+            };
+
             try {
                 Timber.i("Starting mail check");
 
@@ -3298,35 +3323,33 @@ public class MessagingController {
                 }
 
                 for (final Account account1 : accounts) {
-                    checkMailForAccount(context, account1, ignoreLastCheckedTime, listener);
+                    pendingAccounts.incrementAndGet();
+                    checkMailForAccount(context, account1, ignoreLastCheckedTime, listener, accountDone);
                 }
 
             } catch (Exception e) {
                 Timber.e(e, "Unable to synchronize mail");
             }
-            putBackground("finalize sync", null, () -> {
-                Timber.i("Finished mail sync");
-
-                if (wakeLock != null) {
-                    wakeLock.release();
-                }
-                for (MessagingListener l : getListeners()) {
-                    l.checkMailFinished(context, account);
-                }
-
-            });
+            accountDone.run();
         });
     }
 
+    /**
+     * Synchronize the folders of an account that are due for a mail check.
+     *
+     * @param whenDone always run exactly once, after all folder syncs started for this account have finished
+     */
     private void checkMailForAccount(final Context context, final Account account, final boolean ignoreLastCheckedTime,
-            final MessagingListener listener) {
+            final MessagingListener listener, final Runnable whenDone) {
         if (!account.isAvailable(context)) {
             Timber.i("Skipping synchronizing unavailable account %s", account.getDescription());
+            whenDone.run();
             return;
         }
         final long accountInterval = account.getAutomaticCheckIntervalMinutes() * 60 * 1000;
         if (!ignoreLastCheckedTime && accountInterval <= 0) {
             Timber.i("Skipping synchronizing account %s", account.getDescription());
+            whenDone.run();
             return;
         }
 
@@ -3334,6 +3357,7 @@ public class MessagingController {
         account.setRingNotified(false);
         sendPendingMessages(account, listener);
 
+        List<FolderSyncScheduler.FolderSync> folderSyncs = new ArrayList<>();
         try {
             Account.FolderMode aDisplayMode = account.getFolderDisplayMode();
             Account.FolderMode aSyncMode = account.getFolderSyncMode();
@@ -3365,29 +3389,48 @@ public class MessagingController {
                     */
                     continue;
                 }
-                synchronizeFolder(account, folder, ignoreLastCheckedTime, accountInterval, listener);
+                Runnable folderSync = createFolderSync(account, folder, ignoreLastCheckedTime, accountInterval, listener);
+                if (folderSync != null) {
+                    folderSyncs.add(new FolderSyncScheduler.FolderSync(folder.getServerId(), folderSync));
+                }
             }
         } catch (MessagingException e) {
             Timber.e(e, "Unable to synchronize account %s", account.getName());
         } finally {
-            putBackground("clear notification flag for " + account.getDescription(), null, () -> {
-                Timber.v("Clearing notification flag for %s", account.getDescription());
+            // Only IMAP has a connection pool to spread the folders over
+            int maxConcurrency = (getRemoteMessageStore(account) != null) ? account.getMaxSyncConnections() : 1;
+            folderSyncScheduler.syncFolders(account, maxConcurrency, folderSyncs, () -> {
+                putBackground(account, "clear notification flag for " + account.getDescription(), null, () -> {
+                    Timber.v("Clearing notification flag for %s", account.getDescription());
 
-                account.setRingNotified(false);
-                try {
-                    AccountStats stats = account.getStats(context);
-                    if (stats == null || stats.unreadMessageCount == 0) {
-                        mNotificationController.clearNewMailNotifications(account);
+                    account.setRingNotified(false);
+                    try {
+                        AccountStats stats = account.getStats(context);
+                        if (stats == null || stats.unreadMessageCount == 0) {
+                            mNotificationController.clearNewMailNotifications(account);
+                        }
+                    } catch (MessagingException e) {
+                        Timber.e(e, "Unable to getUnreadMessageCount for account: %s", account);
                     }
-                } catch (MessagingException e) {
-                    Timber.e(e, "Unable to getUnreadMessageCount for account: %s", account);
-                }
+                });
+                whenDone.run();
             });
         }
     }
 
     private void synchronizeFolder(final Account account, final Folder folder, final boolean ignoreLastCheckedTime,
             final long accountInterval, final MessagingListener listener) {
+        Runnable folderSync = createFolderSync(account, folder, ignoreLastCheckedTime, accountInterval, listener);
+        if (folderSync != null) {
+            putBackground(account, "sync" + folder.getServerId(), null, folderSync);
+        }
+    }
+
+    /**
+     * @return the sync task for the given folder, or {@code null} if the folder is not yet due for a sync.
+     */
+    private Runnable createFolderSync(final Account account, final Folder folder, final boolean ignoreLastCheckedTime,
+            final long accountInterval, final MessagingListener listener) {
         long lastSyncTime = folder.getLastChecked();
         long newSyncTime = lastSyncTime + accountInterval;
         long presenceTime = System.currentTimeMillis();
@@ -3396,38 +3439,37 @@ public class MessagingController {
                 folder.getServerId(), new Date(lastSyncTime), new Date(newSyncTime));
         if (!ignoreLastCheckedTime && presenceTime < newSyncTime) {
             Timber.v("Not syncing folder %s, earlier than actual time: %tc", folder.getServerId(), new Date(presenceTime));
-            return;
+            return null;
         }
 
-        putBackground("sync" + folder.getServerId(), null, () -> {
-                    LocalFolder tLocalFolder = null;
-                    try {
-                        // In case multiple Commands get enqueued, don't run more than once
-                        final LocalStore localStore = account.getLocalStore();
-                        tLocalFolder = localStore.getFolder(folder.getServerId());
-                        tLocalFolder.open(Folder.OPEN_MODE_RW);
-
-                        if (!ignoreLastCheckedTime && tLocalFolder.getLastChecked() >
-                                (System.currentTimeMillis() - accountInterval)) {
-                            Timber.v("Not running Command for folder %s, previously synced @ "
-                                            + "%tc which would be too recent for the account period",
-                                    folder.getServerId(), new Date(folder.getLastChecked()));
-                            return;
-                        }
-                        showFetchingMailNotificationIfNecessary(account, folder);
-                        try {
-                            synchronizeMailboxSynchronous(account, folder.getServerId(), listener, null);
-                        } finally {
-                            clearFetchingMailNotificationIfNecessary(account);
-                        }
-                    } catch (Exception e) {
-                        Timber.e(e, "Exception while processing folder %s:%s",
-                                account.getDescription(), folder.getServerId());
-                    } finally {
-                        closeFolder(tLocalFolder);
-                    }
+        return () -> {
+            LocalFolder tLocalFolder = null;
+            try {
+                // In case multiple Commands get enqueued, don't run more than once
+                final LocalStore localStore = account.getLocalStore();
+                tLocalFolder = localStore.getFolder(folder.getServerId());
+                tLocalFolder.open(Folder.OPEN_MODE_RW);
+
+                if (!ignoreLastCheckedTime && tLocalFolder.getLastChecked() >
+                        (System.currentTimeMillis() - accountInterval)) {
+                    Timber.v("Not running Command for folder %s, previously synced @ "
+                                    + "%tc which would be too recent for the account period",
+                            folder.getServerId(), new Date(folder.getLastChecked()));
+                    return;
+                }
+                showFetchingMailNotificationIfNecessary(account, folder);
+                try {
+                    synchronizeMailboxSynchronous(account, folder.getServerId(), listener, null);
+                } finally {
+                    clearFetchingMailNotificationIfNecessary(account);
                 }
-        );
+            } catch (Exception e) {
+                Timber.e(e, "Exception while processing folder %s:%s",
+                        account.getDescription(), folder.getServerId());
+            } finally {
+                closeFolder(tLocalFolder);
+            }
+        };
     }
 
     private void showFetchingMailNotificationIfNecessary(Account account, Folder folder) {
@@ -3443,7 +3485,7 @@ public class MessagingController {
     }
 
     public void compact(final Account account, final MessagingListener ml) {
-        putBackground("compact:" + account.getDescription(), ml, () -> {
+        putBackground(account, "compact:" + account.getDescription(), ml, () -> {
             try {
                 LocalStore localStore = account.getLocalStore();
                 long oldSize = localStore.getSize();
@@ -3462,7 +3504,7 @@ public class MessagingController {
     }
 
     public void clear(final Account account, final MessagingListener ml) {
-        putBackground("clear:" + account.getDescription(), ml, () -> {
+        putBackground(account, "clear:" + account.getDescription(), ml, () -> {
             try {
                 LocalStore localStore = account.getLocalStore();
                 long oldSize = localStore.getSize();
@@ -3487,7 +3529,7 @@ public class MessagingController {
     }
 
     public void recreate(final Account account, final MessagingListener ml) {
-        putBackground("recreate:" + account.getDescription(), ml, () -> {
+        putBackground(account, "recreate:" + account.getDescription(), ml, () -> {
             try {
                 LocalStore localStore = account.getLocalStore();
                 long oldSize = localStore.getSize();
@@ -3645,30 +3687,6 @@ public class MessagingController {
                 || ((aMode == Account.FolderMode.NOT_SECOND_CLASS) && (fMode == Folder.FolderClass.SECOND_CLASS));
     }
 
-    private static AtomicInteger sequencing = new AtomicInteger(0);
-
-    private static class Command implements Comparable<Command> {
-        public Runnable runnable;
-        public MessagingListener listener;
-        public String description;
-        boolean isForegroundPriority;
-
-        int sequence = sequencing.getAndIncrement();
-
-        @Override
-        public int compareTo(@NonNull Command other) {
-            if (other.isForegroundPriority && !isForegroundPriority) {
-                return 1;
-            }
-            else if (!other.isForegroundPriority && isForegroundPriority) {
-                return -1;
-            }
-            else {
-                return (sequence - other.sequence);
-            }
-        }
-    }
-
     public MessagingListener getCheckMailListener() {
         return checkMailListener;
     }
@@ -3787,7 +3805,7 @@ public class MessagingController {
                 account.getDescription(), remoteFolder.getServerId());
 
         final CountDownLatch latch = new CountDownLatch(1);
-        putBackground("Push messageArrived of account " + account.getDescription()
+        putBackground(account, "Push messageArrived of account " + account.getDescription()
                 + ", folder " + remoteFolder.getServerId(), null, () -> {
             LocalFolder localFolder = null;
             try {
@@ -25,7 +25,9 @@ import org.atalk.xryptomail.mail.MessageRetrievalListener;
 import org.atalk.xryptomail.mail.MessagingException;
 import org.atalk.xryptomail.mail.Part;
 import org.atalk.xryptomail.mail.Store;
+import org.atalk.xryptomail.mail.internet.BinaryTempFileBody;
 import org.atalk.xryptomail.mail.internet.MessageExtractor;
+import org.atalk.xryptomail.mail.store.imap.ImapStore;
 import org.atalk.xryptomail.mailstore.LocalFolder;
 import org.atalk.xryptomail.mailstore.LocalFolder.MoreMessages;
 import org.atalk.xryptomail.mailstore.LocalMessage;
@@ -47,6 +49,11 @@ import java.util.concurrent.atomic.AtomicInteger;
 import timber.log.Timber;
 
 class ImapSync {
+    /**
+     * Number of downloaded small messages stored per database transaction.
+     */
+    private static final int SMALL_MESSAGE_STORE_BATCH_SIZE = 25;
+
     private final NotificationController notificationController;
     private final MessagingController controller;
     private final Context context;
@@ -244,6 +251,11 @@ class ImapSync {
 
             Timber.d("Done synchronizing folder %s:%s @ %tc with %d new messages",
                     account.getDescription(), folder, new Date(System.currentTimeMillis()), newMessages);
+            Store remoteStore = account.getRemoteStore();
+            if (remoteStore instanceof ImapStore) {
+                Timber.d("IMAP connection pool of %s: %s", account.getDescription(),
+                        ((ImapStore) remoteStore).getConnectionPoolStats());
+            }
 
             for (MessagingListener l : getListeners(listener)) {
                 l.synchronizeMailboxFinished(account, folder, remoteMessageCount, newMessages);
@@ -555,40 +567,20 @@ class ImapSync {
         final Date earliestDate = account.getEarliestPollDate();
 
         Timber.d("SYNC: Fetching %d small messages for folder %s", smallMessages.size(), folder);
+        // Downloaded messages are stored in batches to save on per-transaction overhead
+        final List<T> pendingMessages = new ArrayList<>(SMALL_MESSAGE_STORE_BATCH_SIZE);
         remoteFolder.fetch(smallMessages, fp, new MessageRetrievalListener<T>() {
             @Override
             public void messageFinished(final T message, int number, int ofTotal) {
-                try {
-                    if (!shouldImportMessage(message, earliestDate)) {
-                        progress.incrementAndGet();
-                        return;
-                    }
-
-                    // Store the updated message locally
-                    final LocalMessage localMessage = localFolder.storeSmallMessage(message, progress::incrementAndGet);
-
-                    // Increment the number of "new messages" if the newly downloaded message is
-                    // not marked as read.
-                    if (!localMessage.isSet(Flag.SEEN)) {
-                        newMessages.incrementAndGet();
-                    }
-                    Timber.v("About to notify listeners that we got a new small message %s:%s:%s",
-                            account, folder, message.getUid());
+                if (!shouldImportMessage(message, earliestDate)) {
+                    progress.incrementAndGet();
+                    return;
+                }
 
-                    // Update the listener with what we've found
-                    for (MessagingListener l : getListeners()) {
-                        l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
-                        if (!localMessage.isSet(Flag.SEEN)) {
-                            l.synchronizeMailboxNewMessage(account, folder, localMessage);
-                        }
-                    }
-                    // Send a notification of this message
-                    if (shouldNotifyForMessage(account, localFolder, message)) {
-                        // Notify with the localMessage so that we don't have to recalculate the content preview.
-                        notificationController.addNewMailNotification(account, localMessage, unreadBeforeStart);
-                    }
-                } catch (MessagingException me) {
-                    Timber.e(me, "SYNC: fetch small messages");
+                pendingMessages.add(message);
+                if (pendingMessages.size() >= SMALL_MESSAGE_STORE_BATCH_SIZE) {
+                    storeSmallMessages(account, localFolder, pendingMessages, progress, unreadBeforeStart,
+                            newMessages, todo);
                 }
             }
 
@@ -600,9 +592,59 @@ class ImapSync {
             public void messagesFinished(int total) {
             }
         });
+        storeSmallMessages(account, localFolder, pendingMessages, progress, unreadBeforeStart, newMessages, todo);
         Timber.d("SYNC: Done fetching small messages for folder %s", folder);
     }
 
+    private <T extends Message> void storeSmallMessages(final Account account, final LocalFolder localFolder,
+            List<T> messages, final AtomicInteger progress, final int unreadBeforeStart,
+            final AtomicInteger newMessages, final int todo) {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        final String folder = localFolder.getServerId();
+        try {
+            // Store the updated messages locally
+            List<LocalMessage> localMessages = localFolder.storeSmallMessages(messages);
+
+            for (int i = 0; i < messages.size(); i++) {
+                Message message = messages.get(i);
+                LocalMessage localMessage = localMessages.get(i);
+                progress.incrementAndGet();
+                if (localMessage == null) {
+                    // Couldn't be stored; the rest of the batch was
+                    continue;
+                }
+
+                // Increment the number of "new messages" if the newly downloaded message is
+                // not marked as read.
+                if (!localMessage.isSet(Flag.SEEN)) {
+                    newMessages.incrementAndGet();
+                }
+                Timber.v("About to notify listeners that we got a new small message %s:%s:%s",
+                        account, folder, message.getUid());
+
+                // Update the listener with what we've found
+                for (MessagingListener l : getListeners()) {
+                    l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
+                    if (!localMessage.isSet(Flag.SEEN)) {
+                        l.synchronizeMailboxNewMessage(account, folder, localMessage);
+                    }
+                }
+                // Send a notification of this message
+                if (shouldNotifyForMessage(account, localFolder, message)) {
+                    // Notify with the localMessage so that we don't have to recalculate the content preview.
+                    notificationController.addNewMailNotification(account, localMessage, unreadBeforeStart);
+                }
+            }
+        } catch (MessagingException me) {
+            Timber.e(me, "SYNC: fetch small messages");
+        } finally {
+            messages.clear();
+        }
+    }
+
     private <T extends Message> void downloadLargeMessages(final Account account, final Folder<T> remoteFolder,
             final LocalFolder localFolder, List<T> largeMessages, final AtomicInteger progress,
             final int unreadBeforeStart, final AtomicInteger newMessages, final int todo, FetchProfile fp)
@@ -621,7 +663,7 @@ class ImapSync {
             if (message.getBody() == null) {
                 downloadSaneBody(account, remoteFolder, localFolder, message);
             } else {
-                downloadPartial(remoteFolder, localFolder, message);
+                downloadPartial(account, remoteFolder, localFolder, message);
             }
             Timber.v("About to notify listeners that we got a new large message %s:%s:%s",
                     account, folder, message.getUid());
@@ -656,43 +698,118 @@ class ImapSync {
         final String folder = remoteFolder.getServerId();
         Timber.d("SYNC: About to sync flags for %d remote messages for folder %s", syncFlagMessages.size(), folder);
 
-        FetchProfile fp = new FetchProfile();
-        fp.add(FetchProfile.Item.FLAGS);
+        long remoteModSeq = remoteFolder.getHighestModSeq();
+        long localModSeq = localFolder.getHighestModSeq();
+        long remoteUidValidity = remoteFolder.getUidValidity();
+        if (remoteUidValidity != localFolder.getUidValidity()) {
+            // The stored mod-sequence refers to the UIDs of an earlier incarnation of the mailbox
+            if (localModSeq > 0) {
+                Timber.i("SYNC: UIDVALIDITY of folder %s changed; discarding modseq %d", folder, localModSeq);
+            }
+            localModSeq = 0;
+        }
 
-        List<Message> undeletedMessages = new LinkedList<>();
-        for (Message message : syncFlagMessages) {
-            if (!message.isSet(Flag.DELETED)) {
-                undeletedMessages.add(message);
+        Map<String, Message> changedMessages = null;
+        if (remoteModSeq > 0 && localModSeq > 0 && localModSeq <= remoteModSeq) {
+            changedMessages = fetchFlagChangesSince(remoteFolder, localModSeq, remoteModSeq);
+        }
+
+        if (changedMessages == null) {
+            FetchProfile fp = new FetchProfile();
+            fp.add(FetchProfile.Item.FLAGS);
+
+            List<Message> undeletedMessages = new LinkedList<>();
+            for (Message message : syncFlagMessages) {
+                if (!message.isSet(Flag.DELETED)) {
+                    undeletedMessages.add(message);
+                }
             }
+            remoteFolder.fetch(undeletedMessages, fp, null);
         }
 
-        remoteFolder.fetch(undeletedMessages, fp, null);
         for (Message remoteMessage : syncFlagMessages) {
-            LocalMessage localMessage = localFolder.getMessage(remoteMessage.getUid());
-            boolean messageChanged = syncFlags(localMessage, remoteMessage);
-            if (messageChanged) {
-                boolean shouldBeNotifiedOf = false;
-                if (localMessage.isSet(Flag.DELETED) || isMessageSuppressed(localMessage)) {
-                    for (MessagingListener l : getListeners()) {
-                        l.synchronizeMailboxRemovedMessage(account, folder, localMessage);
-                    }
-                } else {
-                    if (shouldNotifyForMessage(account, localFolder, localMessage)) {
-                        shouldBeNotifiedOf = true;
-                    }
-                }
+            if (changedMessages != null) {
+                // Incremental sync: flags of messages not reported as changed are still in sync
+                remoteMessage = changedMessages.remove(remoteMessage.getUid());
+            }
 
-                // we're only interested in messages that need removing
-                if (!shouldBeNotifiedOf) {
-                    MessageReference messageReference = localMessage.makeMessageReference();
-                    notificationController.removeNewMailNotification(account, messageReference);
-                }
+            if (remoteMessage != null) {
+                LocalMessage localMessage = localFolder.getMessage(remoteMessage.getUid());
+                applyRemoteFlags(account, localFolder, localMessage, remoteMessage);
             }
             progress.incrementAndGet();
             for (MessagingListener l : getListeners()) {
                 l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
             }
         }
+
+        if (changedMessages != null && !changedMessages.isEmpty()) {
+            // Changes of locally stored messages outside the synced window; skipping them would lose
+            // them for good once the mod-sequence is advanced
+            Timber.d("SYNC: Applying %d flag changes outside the sync window of folder %s",
+                    changedMessages.size(), folder);
+            for (Message remoteMessage : changedMessages.values()) {
+                LocalMessage localMessage = localFolder.getMessage(remoteMessage.getUid());
+                if (localMessage != null) {
+                    applyRemoteFlags(account, localFolder, localMessage, remoteMessage);
+                }
+            }
+        }
+
+        // Local flags are now in sync up to the mod-sequence seen when the folder was opened. Store
+        // the mod-sequence first, so an interrupted update leaves a UIDVALIDITY mismatch behind and
+        // the next sync does a full flag refresh.
+        localFolder.setHighestModSeq(Math.max(remoteModSeq, 0));
+        localFolder.setUidValidity(Math.max(remoteUidValidity, 0));
+    }
+
+    private void applyRemoteFlags(Account account, LocalFolder localFolder, LocalMessage localMessage,
+            Message remoteMessage)
+            throws MessagingException {
+        boolean messageChanged = syncFlags(localMessage, remoteMessage);
+        if (messageChanged) {
+            boolean shouldBeNotifiedOf = false;
+            if (localMessage.isSet(Flag.DELETED) || isMessageSuppressed(localMessage)) {
+                for (MessagingListener l : getListeners()) {
+                    l.synchronizeMailboxRemovedMessage(account, localFolder.getServerId(), localMessage);
+                }
+            } else {
+                if (shouldNotifyForMessage(account, localFolder, localMessage)) {
+                    shouldBeNotifiedOf = true;
+                }
+            }
+
+            // we're only interested in messages that need removing
+            if (!shouldBeNotifiedOf) {
+                MessageReference messageReference = localMessage.makeMessageReference();
+                notificationController.removeNewMailNotification(account, messageReference);
+            }
+        }
+    }
+
+    /**
+     * Fetch only the flags that changed on the server since the last sync (RFC 7162 CONDSTORE).
+     *
+     * @return the changed messages mapped by UID, or {@code null} if a full flag refresh is required
+     */
+    private Map<String, Message> fetchFlagChangesSince(Folder<?> remoteFolder, long localModSeq, long remoteModSeq) {
+        String folder = remoteFolder.getServerId();
+        Map<String, Message> changedMessages = new HashMap<>();
+        if (localModSeq == remoteModSeq) {
+            Timber.d("SYNC: No flag changes in folder %s since modseq %d", folder, localModSeq);
+            return changedMessages;
+        }
+
+        try {
+            for (Message message : remoteFolder.fetchFlagChangesSince(localModSeq)) {
+                changedMessages.put(message.getUid(), message);
+            }
+            Timber.d("SYNC: %d flag changes in folder %s since modseq %d", changedMessages.size(), folder, localModSeq);
+            return changedMessages;
+        } catch (MessagingException | UnsupportedOperationException e) {
+            Timber.w(e, "SYNC: Unable to fetch flag changes for folder %s; doing full flag refresh", folder);
+            return null;
+        }
     }
 
     private void downloadSaneBody(Account account, Folder remoteFolder, LocalFolder localFolder, Message message)
@@ -718,7 +835,7 @@ class ImapSync {
         Message localMessage = localFolder.getMessage(message.getUid());
     }
 
-    private void downloadPartial(Folder<?> remoteFolder, LocalFolder localFolder, Message message)
+    private void downloadPartial(Account account, Folder<?> remoteFolder, LocalFolder localFolder, Message message)
             throws MessagingException {
         /*
          * We have a structure to deal with, from which
@@ -731,12 +848,24 @@ class ImapSync {
         /*
          * Now download the parts we're interested in storing.
          */
-        BodyFactory bodyFactory = new DefaultBodyFactory();
-        for (Part part : viewables) {
-            remoteFolder.fetchPart(message, part, null, bodyFactory);
+        // Parts are streamed from the server into the message part storage, from where they are
+        // renamed into place when the message is stored
+        BodyFactory bodyFactory = new DefaultBodyFactory(account.getLocalStore().getAttachmentDirectory());
+        try {
+            for (Part part : viewables) {
+                remoteFolder.fetchPart(message, part, null, bodyFactory);
+            }
+            // Store the updated message locally
+            localFolder.appendMessages(Collections.singletonList(message));
+        } finally {
+            // Bodies stored on disk were renamed to their part file; the staged files of bodies
+            // stored in the database, or not stored at all, are left to delete
+            for (Part part : viewables) {
+                if (part.getBody() instanceof BinaryTempFileBody) {
+                    ((BinaryTempFileBody) part.getBody()).deleteFile();
+                }
+            }
         }
-        // Store the updated message locally
-        localFolder.appendMessages(Collections.singletonList(message));
         Message localMessage = localFolder.getMessage(message.getUid());
 
         // Set a flag indicating this message has been fully downloaded and can be viewed.
@@ -134,6 +134,10 @@ public class MessageCryptoStructureDetector {
         return encryptedParts;
     }
 
+    public static List<Part> findMultipartSignedParts(Part startPart) {
+        return findMultipartSignedParts(startPart, new MessageCryptoAnnotations());
+    }
+
     public static List<Part> findMultipartSignedParts(Part startPart, MessageCryptoAnnotations messageCryptoAnnotations) {
         List<Part> signedParts = new ArrayList<>();
         Stack<Part> partsToCheck = new Stack<>();
@@ -65,6 +65,7 @@ import org.atalk.xryptomail.fragment.ConfirmationDialogFragment.ConfirmationDial
 import org.atalk.xryptomail.fragment.MessageListFragmentComparators.ArrivalComparator;
 import org.atalk.xryptomail.fragment.MessageListFragmentComparators.AttachmentComparator;
 import org.atalk.xryptomail.fragment.MessageListFragmentComparators.ComparatorChain;
+import org.atalk.xryptomail.fragment.MessageListFragmentComparators.CryptoStatusComparator;
 import org.atalk.xryptomail.fragment.MessageListFragmentComparators.DateComparator;
 import org.atalk.xryptomail.fragment.MessageListFragmentComparators.FlaggedComparator;
 import org.atalk.xryptomail.fragment.MessageListFragmentComparators.ReverseComparator;
@@ -140,6 +141,7 @@ public class MessageListFragment extends BaseFragment implements OnItemClickList
     static {
         final Map<SortType, Comparator<Cursor>> map = new EnumMap<>(SortType.class);
         map.put(SortType.SORT_ATTACHMENT, new AttachmentComparator());
+        map.put(SortType.SORT_CRYPTO, new CryptoStatusComparator());
         map.put(SortType.SORT_DATE, new DateComparator());
         map.put(SortType.SORT_ARRIVAL, new ArrivalComparator());
         map.put(SortType.SORT_FLAGGED, new FlaggedComparator());
@@ -991,6 +993,10 @@ public class MessageListFragment extends BaseFragment implements OnItemClickList
                 changeSort(SortType.SORT_ATTACHMENT);
                 return true;
             }
+            case R.id.set_sort_crypto: {
+                changeSort(SortType.SORT_CRYPTO);
+                return true;
+            }
             case R.id.select_all: {
                 selectAll();
                 return true;
@@ -2322,10 +2328,17 @@ public class MessageListFragment extends BaseFragment implements OnItemClickList
             }
         }
 
+        String sortOrder = buildSortOrder();
+        if (needConditions) {
+            // The ranking goes last in the SQL, so its argument follows those of the selection
+            String searchRankOrder = SqlQueryBuilder.buildSearchRankOrder(account, mSearch.getConditions(), queryArgs);
+            if (searchRankOrder != null) {
+                sortOrder = searchRankOrder + ", " + sortOrder;
+            }
+        }
+
         String selection = query.toString();
         String[] selectionArgs = queryArgs.toArray(new String[0]);
-
-        String sortOrder = buildSortOrder();
         return new CursorLoader(mContext, uri, projection, selection, selectionArgs, sortOrder);
     }
 
@@ -2354,6 +2367,11 @@ public class MessageListFragment extends BaseFragment implements OnItemClickList
                 sortColumn = "(" + MessageColumns.FLAGGED + " != 1)";
                 break;
             }
+            case SORT_CRYPTO: {
+                // Signed and encrypted messages have the higher values, see DatabaseCryptoStatus
+                sortColumn = "(-IFNULL(" + MessageColumns.CRYPTO_STATUS + ", 0))";
+                break;
+            }
             case SORT_SENDER: {
                 //FIXME
                 sortColumn = MessageColumns.SENDER_LIST;
@@ -83,6 +83,17 @@ public class MessageListFragmentComparators {
         }
     }
 
+    public static class CryptoStatusComparator implements Comparator<Cursor> {
+
+        @Override
+        public int compare(Cursor cursor1, Cursor cursor2) {
+            // Signed and encrypted messages first; NULL, i.e. not determined yet, is read as 0
+            int o1CryptoStatus = cursor1.getInt(MLFProjectionInfo.CRYPTO_STATUS_COLUMN);
+            int o2CryptoStatus = cursor2.getInt(MLFProjectionInfo.CRYPTO_STATUS_COLUMN);
+            return o2CryptoStatus - o1CryptoStatus;
+        }
+    }
+
     public static class FlaggedComparator implements Comparator<Cursor> {
 
         @Override
@@ -5,20 +5,29 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.provider.ContactsContract;
 import timber.log.Timber;
 import android.provider.ContactsContract.CommonDataKinds.Photo;
+import android.util.LruCache;
 import androidx.core.content.ContextCompat;
 
 import org.atalk.xryptomail.mail.Address;
 import org.atalk.xryptomail.mail.helper.EmptyCursor;
 
-import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Helper class to access the contacts stored on the device.
+ * <p>
+ * The result of looking up an email address, including the absence of a matching contact, is kept
+ * in a bounded LRU cache shared by all instances. The cache is cleared whenever the contacts
+ * change.
+ * </p>
  */
 public class Contacts {
     /**
@@ -52,6 +61,17 @@ public class Contacts {
      */
     protected static final int CONTACT_ID_INDEX = 2;
 
+    /**
+     * Index of the photo URI field in the projection. This must match the order in
+     * {@link #PROJECTION}.
+     */
+    protected static final int PHOTO_URI_INDEX = 3;
+
+    /**
+     * Maximum number of email addresses whose lookup result is cached.
+     */
+    private static final int CACHE_SIZE = 500;
+
 
     /**
      * Get instance of the Contacts class.
@@ -68,7 +88,14 @@ public class Contacts {
 
     protected Context mContext;
     protected ContentResolver mContentResolver;
-    private static HashMap<String, String> nameCache = new HashMap<>();
+
+    private static final LruCache<String, ContactInfo> sContactCache = new LruCache<>(CACHE_SIZE);
+
+    /**
+     * Incremented whenever the cache is cleared; see {@link #getCacheGeneration()}.
+     */
+    private static final AtomicInteger sCacheGeneration = new AtomicInteger(0);
+    private static final AtomicBoolean sObserverRegistered = new AtomicBoolean(false);
 
 
     /**
@@ -79,6 +106,27 @@ public class Contacts {
     protected Contacts(Context context) {
         mContext = context;
         mContentResolver = context.getContentResolver();
+        registerContactsObserver(context);
+    }
+
+    /**
+     * Clear the cache whenever the contacts change. Registered once per process.
+     */
+    private static void registerContactsObserver(Context context) {
+        if (!sObserverRegistered.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            context.getApplicationContext().getContentResolver().registerContentObserver(
+                    ContactsContract.Contacts.CONTENT_URI, true, new ContentObserver(null) {
+                        @Override
+                        public void onChange(boolean selfChange) {
+                            clearCache();
+                        }
+                    });
+        } catch (SecurityException e) {
+            Timber.w(e, "Unable to observe the contacts; cached contact data may become outdated");
+        }
     }
 
     /**
@@ -134,18 +182,7 @@ public class Contacts {
      *         <tt>false</tt>, otherwise.
      */
     public boolean isInContacts(final String emailAddress) {
-        boolean result = false;
-
-        final Cursor c = getContactByAddress(emailAddress);
-
-        if (c != null) {
-            if (c.getCount() > 0) {
-                result = true;
-            }
-            c.close();
-        }
-
-        return result;
+        return lookupContact(emailAddress).found;
     }
 
     /**
@@ -178,23 +215,8 @@ public class Contacts {
     public String getNameForAddress(String address) {
         if (address == null) {
             return null;
-        } else if (nameCache.containsKey(address)) {
-            return nameCache.get(address);
-        }
-
-        final Cursor c = getContactByAddress(address);
-
-        String name = null;
-        if (c != null) {
-            if (c.getCount() > 0) {
-                c.moveToFirst();
-                name = c.getString(NAME_INDEX);
-            }
-            c.close();
         }
-
-        nameCache.put(address, name);
-        return name;
+        return lookupContact(address).name;
     }
 
     /**
@@ -204,17 +226,10 @@ public class Contacts {
      *        contacts to be marked as contacted.
      */
     public void markAsContacted(final Address[] addresses) {
-        //TODO: Optimize! Potentially a lot of database queries
         for (final Address address : addresses) {
-            final Cursor c = getContactByAddress(address.getAddress());
-
-            if (c != null) {
-                if (c.getCount() > 0) {
-                    c.moveToFirst();
-                    final long personId = c.getLong(CONTACT_ID_INDEX);
-                    ContactsContract.Contacts.markAsContacted(mContentResolver, personId);
-                }
-                c.close();
+            ContactInfo contact = lookupContact(address.getAddress());
+            if (contact.found) {
+                ContactsContract.Contacts.markAsContacted(mContentResolver, contact.contactId);
             }
         }
     }
@@ -239,30 +254,47 @@ public class Contacts {
      *         no such contact could be found or the contact doesn't have a picture.
      */
     public Uri getPhotoUri(String address) {
-        try {
-            final Cursor c = getContactByAddress(address);
-            if (c == null) {
-                return null;
-            }
+        String uriString = lookupContact(address).photoUri;
+        return (uriString == null) ? null : Uri.parse(uriString);
+    }
+
+    /**
+     * Look up the contact an email address belongs to, from the cache if possible.
+     */
+    private ContactInfo lookupContact(String address) {
+        if (address == null) {
+            return ContactInfo.NOT_FOUND;
+        }
+
+        String key = address.toLowerCase(Locale.ROOT);
+        ContactInfo contact = sContactCache.get(key);
+        if (contact != null) {
+            return contact;
+        }
 
-            try {
-                if (!c.moveToFirst()) {
-                    return null;
-                }
-                int columnIndex = c.getColumnIndex(Photo.PHOTO_URI);
-                final String uriString = c.getString(columnIndex);
-                if (uriString == null)
-                    return null;
-                return Uri.parse(uriString);
-            } catch (IllegalStateException e) {
-                return null;
-            } finally {
-                c.close();
+        // Without the permission nothing is found; don't cache that, it may be granted later
+        if (!hasContactPermission()) {
+            return ContactInfo.NOT_FOUND;
+        }
+
+        int generation = sCacheGeneration.get();
+        try (Cursor c = getContactByAddress(address)) {
+            if (c != null && c.moveToFirst()) {
+                contact = new ContactInfo(c.getString(NAME_INDEX), c.getLong(CONTACT_ID_INDEX),
+                        c.getString(PHOTO_URI_INDEX));
+            } else {
+                contact = ContactInfo.NOT_FOUND;
             }
         } catch (Exception e) {
-            Timber.e(e, "Couldn't fetch photo for contact with email %s", address);
-            return null;
+            Timber.e(e, "Couldn't look up contact with email %s", address);
+            return ContactInfo.NOT_FOUND;
         }
+
+        // Don't cache a result that may predate a change of the contacts
+        if (generation == sCacheGeneration.get()) {
+            sContactCache.put(key, contact);
+        }
+        return contact;
     }
 
     private boolean hasContactPermission() {
@@ -300,7 +332,40 @@ public class Contacts {
      * Clears the cache for names and photo uris
      */
     public static void clearCache() {
-        nameCache.clear();
+        sCacheGeneration.incrementAndGet();
+        Timber.d("Clearing contact cache: %s", sContactCache);
+        sContactCache.evictAll();
+    }
+
+    /**
+     * Returns a number that changes whenever the cache is cleared, i.e. when contact data
+     * derived from earlier lookups may be outdated.
+     */
+    public static int getCacheGeneration() {
+        return sCacheGeneration.get();
+    }
+
+    private static class ContactInfo {
+        static final ContactInfo NOT_FOUND = new ContactInfo();
+
+        final boolean found;
+        final String name;
+        final long contactId;
+        final String photoUri;
+
+        private ContactInfo() {
+            found = false;
+            name = null;
+            contactId = -1;
+            photoUri = null;
+        }
+
+        ContactInfo(String name, long contactId, String photoUri) {
+            found = true;
+            this.name = name;
+            this.contactId = contactId;
+            this.photoUri = photoUri;
+        }
     }
 
 }
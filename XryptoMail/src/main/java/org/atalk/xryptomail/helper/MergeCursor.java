@@ -28,6 +28,11 @@ import java.util.Comparator;
 
 /**
  * This class can be used to combine multiple {@link Cursor}s into one.
+ * <p>
+ * The cursors are merged lazily with a heap ordered by the comparator. Every merged row is recorded
+ * in a position index of (cursor, offset) pairs, so moving to a position that was merged before
+ * doesn't have to compare any rows again.
+ * </p>
  */
 public class MergeCursor implements Cursor {
     /**
@@ -62,6 +67,37 @@ public class MergeCursor implements Cursor {
      */
     private final Comparator<Cursor> mComparator;
 
+    /**
+     * Index of the cursor that holds the row at a merged position.
+     */
+    private int[] mIndexCursors;
+
+    /**
+     * Position of the row in the cursor it belongs to, for every merged position.
+     */
+    private int[] mIndexOffsets;
+
+    /**
+     * Number of positions that have been merged into the index.
+     */
+    private int mIndexedCount;
+
+    /**
+     * Cached {@code getCount()} of every cursor.
+     */
+    private int[] mCursorCounts;
+
+    /**
+     * Position of the next row to be merged, for every cursor.
+     */
+    private int[] mMergeOffsets;
+
+    /**
+     * Binary min-heap of the indexes of the cursors that still have rows to be merged.
+     */
+    private int[] mHeap;
+    private int mHeapSize;
+
     /**
      * Constructor
      *
@@ -261,49 +297,10 @@ public class MergeCursor implements Cursor {
 
     @Override
     public boolean moveToNext() {
-        int count = getCount();
-        if (mPosition == count) {
+        if (mPosition == getCount()) {
             return false;
         }
-
-        if (mPosition == count - 1) {
-            mActiveCursor.moveToNext();
-            mPosition++;
-            return false;
-        }
-
-        int smallest = -1;
-        for (int i = 0, len = mCursors.length; i < len; i++) {
-            if (mCursors[i] == null || mCursors[i].getCount() == 0 || mCursors[i].isLast()) {
-                continue;
-            }
-
-            if (smallest == -1) {
-                smallest = i;
-                mCursors[smallest].moveToNext();
-                continue;
-            }
-
-            Cursor left = mCursors[smallest];
-            Cursor right = mCursors[i];
-
-            right.moveToNext();
-
-            int result = mComparator.compare(left, right);
-            if (result > 0) {
-                smallest = i;
-                left.moveToPrevious();
-            } else {
-                right.moveToPrevious();
-            }
-        }
-
-        mPosition++;
-        if (smallest != -1) {
-            mActiveCursorIndex = smallest;
-            mActiveCursor = mCursors[mActiveCursorIndex];
-        }
-        return true;
+        return moveToPosition(mPosition + 1);
     }
 
     @Override
@@ -311,34 +308,28 @@ public class MergeCursor implements Cursor {
         // Make sure position isn't past the end of the cursor
         final int count = getCount();
         if (position >= count) {
+            if (mActiveCursor != null) {
+                mActiveCursor.moveToPosition(mActiveCursor.getCount());
+            }
             mPosition = count;
             return false;
         }
 
         // Make sure position isn't before the beginning of the cursor
         if (position < 0) {
+            if (mActiveCursor != null) {
+                mActiveCursor.moveToPosition(-1);
+            }
             mPosition = -1;
             return false;
         }
 
-        // Check for no-op moves, and skip the rest of the work for them
-        if (position == mPosition) {
-            return true;
-        }
+        mergeUpTo(position);
 
-        if (position > mPosition) {
-            for (int i = 0, end = position - mPosition; i < end; i++) {
-                if (!moveToNext()) {
-                    return false;
-                }
-            }
-        } else {
-            for (int i = 0, end = mPosition - position; i < end; i++) {
-                if (!moveToPrevious()) {
-                    return false;
-                }
-            }
-        }
+        mActiveCursorIndex = mIndexCursors[position];
+        mActiveCursor = mCursors[mActiveCursorIndex];
+        mActiveCursor.moveToPosition(mIndexOffsets[position]);
+        mPosition = position;
         return true;
     }
 
@@ -347,40 +338,103 @@ public class MergeCursor implements Cursor {
         if (mPosition < 0) {
             return false;
         }
+        return moveToPosition(mPosition - 1);
+    }
 
-        mActiveCursor.moveToPrevious();
+    /**
+     * Extend the position index until it contains {@code position}.
+     */
+    private void mergeUpTo(int position) {
+        if (position < mIndexedCount) {
+            return;
+        }
 
-        if (mPosition == 0) {
-            mPosition = -1;
-            return false;
+        if (mIndexCursors == null) {
+            startMerge();
         }
 
-        int greatest = -1;
-        for (int i = 0, len = mCursors.length; i < len; i++) {
-            if (mCursors[i] == null || mCursors[i].isBeforeFirst()) {
-                continue;
-            }
+        while (mIndexedCount <= position && mHeapSize > 0) {
+            int cursorIndex = mHeap[0];
+            mIndexCursors[mIndexedCount] = cursorIndex;
+            mIndexOffsets[mIndexedCount] = mMergeOffsets[cursorIndex];
+            mIndexedCount++;
 
-            if (greatest == -1) {
-                greatest = i;
-                continue;
+            mMergeOffsets[cursorIndex]++;
+            if (mMergeOffsets[cursorIndex] == mCursorCounts[cursorIndex]) {
+                mHeapSize--;
+                mHeap[0] = mHeap[mHeapSize];
             }
+            siftDown(0);
+        }
+    }
 
-            Cursor left = mCursors[greatest];
-            Cursor right = mCursors[i];
+    private void startMerge() {
+        int count = getCount();
+        int cursorCount = mCursors.length;
+        mIndexCursors = new int[count];
+        mIndexOffsets = new int[count];
+        mIndexedCount = 0;
+        mCursorCounts = new int[cursorCount];
+        mMergeOffsets = new int[cursorCount];
+        mHeap = new int[cursorCount];
+        mHeapSize = 0;
+
+        for (int i = 0; i < cursorCount; i++) {
+            Cursor cursor = mCursors[i];
+            mCursorCounts[i] = (cursor != null) ? cursor.getCount() : 0;
+            if (mCursorCounts[i] > 0) {
+                mHeap[mHeapSize] = i;
+                siftUp(mHeapSize);
+                mHeapSize++;
+            }
+        }
+    }
 
-            int result = mComparator.compare(left, right);
-            if (result <= 0) {
-                greatest = i;
+    private void siftUp(int heapIndex) {
+        while (heapIndex > 0) {
+            int parent = (heapIndex - 1) / 2;
+            if (compareNextRows(mHeap[parent], mHeap[heapIndex]) <= 0) {
+                return;
             }
+            swapHeapEntries(parent, heapIndex);
+            heapIndex = parent;
         }
+    }
 
-        mPosition--;
-        if (greatest != -1) {
-            mActiveCursorIndex = greatest;
-            mActiveCursor = mCursors[mActiveCursorIndex];
+    private void siftDown(int heapIndex) {
+        while (true) {
+            int left = 2 * heapIndex + 1;
+            if (left >= mHeapSize) {
+                return;
+            }
+            int right = left + 1;
+            int smallest = (right < mHeapSize && compareNextRows(mHeap[right], mHeap[left]) < 0) ? right : left;
+            if (compareNextRows(mHeap[heapIndex], mHeap[smallest]) <= 0) {
+                return;
+            }
+            swapHeapEntries(heapIndex, smallest);
+            heapIndex = smallest;
         }
-        return true;
+    }
+
+    private void swapHeapEntries(int a, int b) {
+        int temp = mHeap[a];
+        mHeap[a] = mHeap[b];
+        mHeap[b] = temp;
+    }
+
+    /**
+     * Compare the next rows to be merged of two cursors. Equal rows are taken from the cursor that
+     * comes first in {@link #mCursors}.
+     */
+    private int compareNextRows(int leftIndex, int rightIndex) {
+        Cursor left = mCursors[leftIndex];
+        Cursor right = mCursors[rightIndex];
+        left.moveToPosition(mMergeOffsets[leftIndex]);
+        right.moveToPosition(mMergeOffsets[rightIndex]);
+
+        int result = mComparator.compare(left, right);
+        return (result != 0) ? result : Integer.compare(leftIndex, rightIndex);
     }
 
     @Override
@@ -404,6 +458,11 @@ public class MergeCursor implements Cursor {
         for (Cursor cursor : mCursors) {
             success &= cursor.requery();
         }
+        mCount = -1;
+        mIndexCursors = null;
+        mIndexOffsets = null;
+        mIndexedCount = 0;
+        resetCursors();
         return success;
     }
 
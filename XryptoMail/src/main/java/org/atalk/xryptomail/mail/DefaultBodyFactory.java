@@ -2,11 +2,26 @@ package org.atalk.xryptomail.mail;
 
 import org.apache.james.mime4j.util.MimeUtil;
 import org.atalk.xryptomail.helper.FileBackend;
+import org.atalk.xryptomail.mail.filter.DecodedSizeCountingOutputStream;
 import org.atalk.xryptomail.mail.internet.*;
 
 import java.io.*;
 
 public class DefaultBodyFactory implements BodyFactory {
+    private final File tempDirectory;
+
+    public DefaultBodyFactory() {
+        this(null);
+    }
+
+    /**
+     * @param tempDirectory directory the body files are created in; {@code null} for the default
+     * temp directory
+     */
+    public DefaultBodyFactory(File tempDirectory) {
+        this.tempDirectory = tempDirectory;
+    }
+
     public Body createBody(String contentTransferEncoding, String contentType, InputStream inputStream)
             throws IOException {
 
@@ -16,14 +31,18 @@ public class DefaultBodyFactory implements BodyFactory {
 
         final BinaryTempFileBody tempBody;
         if (MimeUtil.isMessage(contentType)) {
-            tempBody = new BinaryTempFileMessageBody(contentTransferEncoding);
+            tempBody = new BinaryTempFileMessageBody(contentTransferEncoding, tempDirectory);
         } else {
-            tempBody = new BinaryTempFileBody(contentTransferEncoding);
+            tempBody = new BinaryTempFileBody(contentTransferEncoding, tempDirectory);
         }
 
+        // Count the decoded size on the way to disk so it doesn't have to be decoded again when stored
+        DecodedSizeCountingOutputStream countingOutputStream;
         try (OutputStream outputStream = tempBody.getOutputStream()) {
-            copyData(inputStream, outputStream);
+            countingOutputStream = new DecodedSizeCountingOutputStream(outputStream, contentTransferEncoding);
+            copyData(inputStream, countingOutputStream);
         }
+        tempBody.setDecodedSize(countingOutputStream.getDecodedCount());
         return tempBody;
     }
 
@@ -196,6 +196,36 @@ public abstract class Folder<T extends Message>
         return true;
     }
 
+    /**
+     * @return the highest mod-sequence of the folder reported by the server when the folder was
+     * opened (RFC 7162 CONDSTORE), or {@code -1} if not available.
+     */
+    public long getHighestModSeq()
+    {
+        return -1;
+    }
+
+    /**
+     * @return the UIDVALIDITY of the folder reported by the server when the folder was opened, or
+     * {@code -1} if not available. Mod-sequences are only comparable while it doesn't change.
+     */
+    public long getUidValidity()
+    {
+        return -1;
+    }
+
+    /**
+     * Fetch the flags of all messages whose mod-sequence is greater than {@code modSeq}.
+     * Only supported if {@link #getHighestModSeq()} returns a valid mod-sequence.
+     *
+     * @return the changed messages, with their flags populated
+     */
+    public List<T> fetchFlagChangesSince(long modSeq)
+            throws MessagingException
+    {
+        throw new UnsupportedOperationException("fetchFlagChangesSince() not supported by " + getClass().getSimpleName());
+    }
+
     @NonNull
     @Override
     public String toString()
@@ -0,0 +1,151 @@
+package org.atalk.xryptomail.mail.filter;
+
+import org.apache.james.mime4j.util.MimeUtil;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes transfer-encoded data through unchanged while counting how many bytes it decodes to.
+ * <p>
+ * This allows the decoded size of a body to be determined while it is being written, instead of
+ * reading the body back through a decoder afterwards. Base64 and quoted-printable are supported;
+ * any other encoding is counted as-is. For well-formed input the count matches the output of the
+ * decoders used by {@code LocalStore}.
+ * </p>
+ */
+public class DecodedSizeCountingOutputStream extends FilterOutputStream {
+    private static final int ENCODING_NONE = 0;
+    private static final int ENCODING_BASE64 = 1;
+    private static final int ENCODING_QUOTED_PRINTABLE = 2;
+
+    private static final int QP_TEXT = 0;
+    private static final int QP_EQUALS = 1;
+    private static final int QP_EQUALS_HEX = 2;
+    private static final int QP_SOFT_BREAK_CR = 3;
+
+    private final int mEncoding;
+    private long mRawCount;
+    private long mBase64Chars;
+    private long mQpCount;
+    private int mQpState = QP_TEXT;
+    private int mQpPendingWhitespace;
+
+    public DecodedSizeCountingOutputStream(OutputStream out, String encoding) {
+        super(out);
+        if (MimeUtil.ENC_BASE64.equalsIgnoreCase(encoding)) {
+            mEncoding = ENCODING_BASE64;
+        } else if (MimeUtil.ENC_QUOTED_PRINTABLE.equalsIgnoreCase(encoding)) {
+            mEncoding = ENCODING_QUOTED_PRINTABLE;
+        } else {
+            mEncoding = ENCODING_NONE;
+        }
+    }
+
+    /**
+     * @return number of bytes the data written so far decodes to
+     */
+    public long getDecodedCount() {
+        switch (mEncoding) {
+            case ENCODING_BASE64:
+                return mBase64Chars * 3 / 4;
+            case ENCODING_QUOTED_PRINTABLE:
+                // Trailing whitespace at the end of the data is kept by the decoder
+                return mQpCount + mQpPendingWhitespace + ((mQpState == QP_EQUALS) ? 1 : 0)
+                        + ((mQpState == QP_EQUALS_HEX) ? 2 : 0);
+            default:
+                return mRawCount;
+        }
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+        out.write(oneByte);
+        count(oneByte & 0xFF);
+    }
+
+    @Override
+    public void write(byte[] b, int offset, int len) throws IOException {
+        out.write(b, offset, len);
+        if (mEncoding == ENCODING_NONE) {
+            mRawCount += len;
+            return;
+        }
+
+        for (int i = offset, end = offset + len; i < end; i++) {
+            count(b[i] & 0xFF);
+        }
+    }
+
+    private void count(int c) {
+        switch (mEncoding) {
+            case ENCODING_BASE64:
+                if (isBase64Char(c)) {
+                    mBase64Chars++;
+                }
+                break;
+            case ENCODING_QUOTED_PRINTABLE:
+                countQuotedPrintable(c);
+                break;
+            default:
+                mRawCount++;
+                break;
+        }
+    }
+
+    private void countQuotedPrintable(int c) {
+        switch (mQpState) {
+            case QP_EQUALS:
+                if (isHexChar(c)) {
+                    mQpState = QP_EQUALS_HEX;
+                } else if (c == '\r') {
+                    mQpState = QP_SOFT_BREAK_CR;
+                } else if (c == '\n') {
+                    mQpState = QP_TEXT;
+                } else {
+                    // Not an escape sequence; the decoder passes both characters through
+                    mQpCount += 2;
+                    mQpState = QP_TEXT;
+                }
+                return;
+            case QP_EQUALS_HEX:
+                mQpCount += isHexChar(c) ? 1 : 3;
+                mQpState = QP_TEXT;
+                return;
+            case QP_SOFT_BREAK_CR:
+                mQpState = QP_TEXT;
+                if (c == '\n') {
+                    return;
+                }
+                break;
+        }
+
+        if (c == ' ' || c == '\t') {
+            mQpPendingWhitespace++;
+            return;
+        }
+        if (c == '\r' || c == '\n') {
+            // Whitespace at the end of a line is dropped by the decoder
+            mQpPendingWhitespace = 0;
+            mQpCount++;
+            return;
+        }
+
+        mQpCount += mQpPendingWhitespace;
+        mQpPendingWhitespace = 0;
+        if (c == '=') {
+            mQpState = QP_EQUALS;
+        } else {
+            mQpCount++;
+        }
+    }
+
+    private static boolean isBase64Char(int c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '+' || c == '/';
+    }
+
+    private static boolean isHexChar(int c) {
+        return (c >= '0' && c <= '9') || (c >= 'A' && c <= 'F') || (c >= 'a' && c <= 'f');
+    }
+}
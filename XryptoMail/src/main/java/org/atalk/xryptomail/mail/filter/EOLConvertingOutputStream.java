@@ -32,6 +32,28 @@ public class EOLConvertingOutputStream extends FilterOutputStream {
         ignoreLf = false;
     }
 
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        int i = off;
+        while (i < end) {
+            int oneByte = b[i];
+            if (oneByte == CR || oneByte == LF || lastByte == CR || ignoreLf) {
+                write(oneByte);
+                i++;
+                continue;
+            }
+
+            // Bytes up to the next line break are passed through unchanged
+            int start = i;
+            while (i < end && b[i] != CR && b[i] != LF) {
+                i++;
+            }
+            out.write(b, start, i - start);
+            lastByte = b[i - 1];
+        }
+    }
+
     @Override
     public void flush() throws IOException {
         completeCrLf();
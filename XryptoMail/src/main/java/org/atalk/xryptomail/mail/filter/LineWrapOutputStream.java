@@ -69,6 +69,36 @@ public class LineWrapOutputStream extends FilterOutputStream {
         }
     }
 
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        int i = off;
+        while (i < end) {
+            if (lineLength == buffer.length || b[i] == '\n' || b[i] == '\r') {
+                write(b[i]);
+                i++;
+                continue;
+            }
+
+            // Copy the bytes up to the next line break into the buffer, as far as they fit
+            int count = Math.min(end - i, buffer.length - lineLength);
+            int copied = 0;
+            while (copied < count) {
+                byte oneByte = b[i + copied];
+                if (oneByte == '\n' || oneByte == '\r') {
+                    break;
+                }
+                if (oneByte == ' ') {
+                    endOfLastWord = lineLength + copied;
+                }
+                copied++;
+            }
+            System.arraycopy(b, i, buffer, lineLength, copied);
+            lineLength += copied;
+            i += copied;
+        }
+    }
+
     @Override
     public void flush() throws IOException {
         // Buffer empty?
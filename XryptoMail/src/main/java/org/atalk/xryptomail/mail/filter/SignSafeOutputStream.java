@@ -43,6 +43,19 @@ public class SignSafeOutputStream extends FilterOutputStream {
         }
     }
 
+    private void writeToBuffer(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int count = Math.min(len, outBuffer.length - outputIndex);
+            System.arraycopy(b, off, outBuffer, outputIndex, count);
+            outputIndex += count;
+            off += count;
+            len -= count;
+            if (outputIndex >= outBuffer.length) {
+                flushOutput();
+            }
+        }
+    }
+
     void flushOutput() throws IOException {
         if (outputIndex < outBuffer.length) {
             out.write(outBuffer, 0, outputIndex);
@@ -65,8 +78,22 @@ public class SignSafeOutputStream extends FilterOutputStream {
         if (closed) {
             throw new IOException("Stream has been closed");
         }
-        for (int inputIndex = off; inputIndex < len + off; inputIndex++) {
+        int end = off + len;
+        int inputIndex = off;
+        while (inputIndex < end) {
+            if (state == State.INIT) {
+                // Nothing can be escaped before the next <CR>, so copy everything up to it
+                int start = inputIndex;
+                while (inputIndex < end && b[inputIndex] != '\r') {
+                    inputIndex++;
+                }
+                writeToBuffer(b, start, inputIndex - start);
+                if (inputIndex == end) {
+                    break;
+                }
+            }
             encode(b[inputIndex]);
+            inputIndex++;
         }
     }
 
@@ -30,4 +30,27 @@ public class SmtpDataStuffing extends FilterOutputStream {
         }
         super.write(oneByte);
     }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        int start = off;
+        for (int i = off; i < end; i++) {
+            int oneByte = b[i];
+            if (oneByte == '\r') {
+                state = STATE_CR;
+            } else if ((state == STATE_CR) && (oneByte == '\n')) {
+                state = STATE_CRLF;
+            } else if ((state == STATE_CRLF) && (oneByte == '.')) {
+                // Read <CR><LF><DOT> so this line needs an additional period.
+                out.write(b, start, i - start);
+                out.write('.');
+                start = i;
+                state = STATE_NORMAL;
+            } else {
+                state = STATE_NORMAL;
+            }
+        }
+        out.write(b, start, end - start);
+    }
 }
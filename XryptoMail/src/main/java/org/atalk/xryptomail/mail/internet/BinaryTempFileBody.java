@@ -25,7 +25,9 @@ import timber.log.Timber;
 public class BinaryTempFileBody implements RawDataBody, SizeAware {
     private static File mTempDirectory;
 
+    private final File mDirectory;
     private File mFile;
+    private long mDecodedSize = -1;
 
     String mEncoding = null;
 
@@ -53,7 +55,7 @@ public class BinaryTempFileBody implements RawDataBody, SizeAware {
         }
 
         try {
-            File newFile = File.createTempFile("body", null, mTempDirectory);
+            File newFile = File.createTempFile("body", null, mDirectory);
             try (OutputStream out = new FileOutputStream(newFile)) {
                 OutputStream wrappedOut;
                 if (MimeUtil.ENC_QUOTED_PRINTABLE.equals(encoding)) {
@@ -72,20 +74,32 @@ public class BinaryTempFileBody implements RawDataBody, SizeAware {
 
             mFile = newFile;
             mEncoding = encoding;
+            mDecodedSize = -1;
         } catch (IOException e) {
             throw new MessagingException("Unable to convert body", e);
         }
     }
 
     public BinaryTempFileBody(String encoding) {
-        if (mTempDirectory == null) {
+        this(encoding, null);
+    }
+
+    /**
+     * @param directory where to create the backing file; {@code null} for the default temp directory.
+     * Creating the file on the same file system as its final destination allows it to be moved
+     * there without copying.
+     */
+    public BinaryTempFileBody(String encoding, File directory) {
+        if (directory == null && mTempDirectory == null) {
             throw new RuntimeException("setTempDirectory has not been called on BinaryTempFileBody!");
         }
         mEncoding = encoding;
+        mDirectory = (directory != null) ? directory : mTempDirectory;
     }
 
     public OutputStream getOutputStream() throws IOException {
-        mFile = File.createTempFile("body", null, mTempDirectory);
+        mDecodedSize = -1;
+        mFile = File.createTempFile("body", null, mDirectory);
         mFile.deleteOnExit();
         return new FileOutputStream(mFile);
     }
@@ -109,10 +123,31 @@ public class BinaryTempFileBody implements RawDataBody, SizeAware {
         return mFile.length();
     }
 
+    /**
+     * @return size of the body after transfer decoding, or -1 if it is not known
+     */
+    public long getDecodedSize() {
+        return mDecodedSize;
+    }
+
+    public void setDecodedSize(long decodedSize) {
+        mDecodedSize = decodedSize;
+    }
+
     public File getFile() {
         return mFile;
     }
 
+    /**
+     * Delete the backing file, unless it was already moved or deleted. {@code deleteOnExit()} isn't
+     * reliable on Android, so callers done with the body should clean up explicitly.
+     */
+    public void deleteFile() {
+        if (mFile != null && mFile.exists() && !mFile.delete()) {
+            Timber.w("Unable to delete temporary body file %s", mFile);
+        }
+    }
+
     class BinaryTempFileBodyInputStream extends FilterInputStream {
         public BinaryTempFileBodyInputStream(InputStream in) {
             super(in);
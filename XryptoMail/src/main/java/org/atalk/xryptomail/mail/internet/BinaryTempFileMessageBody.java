@@ -4,6 +4,8 @@ import org.apache.james.mime4j.util.MimeUtil;
 import org.atalk.xryptomail.mail.Body;
 import org.atalk.xryptomail.mail.MessagingException;
 
+import java.io.File;
+
 /**
  * A {@link BinaryTempFileBody} extension containing a body of type message/rfc822.
  */
@@ -13,6 +15,10 @@ public class BinaryTempFileMessageBody extends BinaryTempFileBody implements Bod
         super(encoding);
     }
 
+    public BinaryTempFileMessageBody(String encoding, File directory) {
+        super(encoding, directory);
+    }
+
     @Override
     public void setEncoding(String encoding) throws MessagingException {
         if (!MimeUtil.ENC_7BIT.equalsIgnoreCase(encoding)
@@ -46,5 +46,11 @@ public interface StoreConfig
 
     int getIdleRefreshMinutes();
 
+    int getImapMaxIdleConnections();
+
+    int getImapIdleConnectionTimeoutMinutes();
+
+    int getImapKeepaliveIntervalSeconds();
+
     boolean shouldHideHostname();
 }
@@ -23,6 +23,11 @@ class FetchBodyCallback implements ImapResponseCallback {
             String uid = fetchList.getKeyedString("UID");
 
             ImapMessage message = (ImapMessage) mMessageMap.get(uid);
+            if (message == null) {
+                // UID not (yet) known, e.g. it follows the body in the response; let the parser
+                // stream the literal into an ImapLiteral instead.
+                return null;
+            }
             message.parse(literal);
 
             // Return placeholder object
@@ -0,0 +1,202 @@
+package org.atalk.xryptomail.mail.store.imap;
+
+import android.os.SystemClock;
+
+import org.atalk.xryptomail.mail.MessagingException;
+
+import java.io.IOException;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Pool of idle, authenticated {@link ImapConnection}s of an {@link ImapStore}.
+ * <p>
+ * Checkout and release are lock-free. At most {@code maxIdleConnections} connections are kept;
+ * a connection released to a full pool is closed. While the pool holds connections a background
+ * task sends NOOPs to connections that have been idle for the keepalive interval, and evicts
+ * connections that have been idle for longer than the idle TTL. A connection that was validated
+ * recently is handed out without another round trip to the server.
+ * </p>
+ */
+class ImapConnectionPool {
+    /**
+     * A pooled connection that was validated within this period is reused without a NOOP.
+     */
+    private static final long VALIDATION_SKIP_MILLIS = 30 * 1000L;
+
+    private static final ScheduledExecutorService maintenanceExecutor =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ImapConnectionPool");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final Deque<PooledConnection> idleConnections = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger(0);
+    private final AtomicBoolean maintenanceScheduled = new AtomicBoolean(false);
+    private final ConnectionFactory connectionFactory;
+    private final int maxIdleConnections;
+    private final long idleTtlMillis;
+    private final long keepaliveIntervalMillis;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong checkouts = new AtomicLong();
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+
+    interface ConnectionFactory {
+        ImapConnection createConnection();
+    }
+
+    ImapConnectionPool(ConnectionFactory connectionFactory, int maxIdleConnections, long idleTtlMillis,
+            long keepaliveIntervalMillis) {
+        this.connectionFactory = connectionFactory;
+        this.maxIdleConnections = maxIdleConnections;
+        this.idleTtlMillis = idleTtlMillis;
+        this.keepaliveIntervalMillis = keepaliveIntervalMillis;
+    }
+
+    /**
+     * Gets a connection if one is available for reuse, or creates a new one if not. A newly created
+     * connection is not opened yet.
+     */
+    ImapConnection checkout() {
+        long start = SystemClock.elapsedRealtime();
+        try {
+            PooledConnection pooled;
+            while ((pooled = idleConnections.pollFirst()) != null) {
+                idleCount.decrementAndGet();
+                if (isValid(pooled, start)) {
+                    reused.incrementAndGet();
+                    return pooled.connection;
+                }
+            }
+
+            created.incrementAndGet();
+            Timber.v("Creating new IMAP connection; pool: %s", getStats());
+            return connectionFactory.createConnection();
+        } finally {
+            checkouts.incrementAndGet();
+            totalWaitMillis.addAndGet(SystemClock.elapsedRealtime() - start);
+        }
+    }
+
+    /**
+     * Return a connection to the pool. Closed connections are dropped; if the pool is full the
+     * connection is closed.
+     */
+    void release(ImapConnection connection) {
+        if (connection == null || !connection.isConnected()) {
+            return;
+        }
+
+        if (idleCount.incrementAndGet() > maxIdleConnections) {
+            idleCount.decrementAndGet();
+            evicted.incrementAndGet();
+            connection.close();
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        // Most recently used first, so idle connections age out at the tail
+        idleConnections.offerFirst(new PooledConnection(connection, now, now));
+        scheduleMaintenance();
+    }
+
+    private boolean isValid(PooledConnection pooled, long now) {
+        if (now - pooled.lastUsed > idleTtlMillis) {
+            evicted.incrementAndGet();
+            pooled.connection.close();
+            return false;
+        }
+        if (now - pooled.lastValidated < VALIDATION_SKIP_MILLIS) {
+            return true;
+        }
+        return validate(pooled.connection);
+    }
+
+    private boolean validate(ImapConnection connection) {
+        try {
+            connection.executeSimpleCommand(Commands.NOOP);
+            return true;
+        } catch (IOException | MessagingException e) {
+            validationFailures.incrementAndGet();
+            connection.close();
+            return false;
+        }
+    }
+
+    private void scheduleMaintenance() {
+        if (maintenanceScheduled.compareAndSet(false, true)) {
+            maintenanceExecutor.schedule(this::maintain, keepaliveIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Evict connections idle for longer than the TTL and keep the others alive. A connection is
+     * only touched after it was removed from the pool, so it is never used concurrently with a
+     * checkout.
+     */
+    private void maintain() {
+        long now = SystemClock.elapsedRealtime();
+        for (PooledConnection pooled : idleConnections) {
+            boolean expired = now - pooled.lastUsed > idleTtlMillis;
+            boolean needsKeepalive = now - pooled.lastValidated >= keepaliveIntervalMillis;
+            if ((!expired && !needsKeepalive) || !idleConnections.remove(pooled)) {
+                continue;
+            }
+            idleCount.decrementAndGet();
+
+            if (expired) {
+                evicted.incrementAndGet();
+                pooled.connection.close();
+                Timber.d("Evicted IMAP connection %s idle for %d ms", pooled.connection.getLogId(),
+                        now - pooled.lastUsed);
+            }
+            else if (validate(pooled.connection)) {
+                if (idleCount.incrementAndGet() > maxIdleConnections) {
+                    idleCount.decrementAndGet();
+                    evicted.incrementAndGet();
+                    pooled.connection.close();
+                }
+                else {
+                    idleConnections.offerLast(new PooledConnection(pooled.connection, pooled.lastUsed,
+                            SystemClock.elapsedRealtime()));
+                }
+            }
+        }
+
+        maintenanceScheduled.set(false);
+        if (!idleConnections.isEmpty()) {
+            scheduleMaintenance();
+        }
+    }
+
+    ImapConnectionPoolStats getStats() {
+        long checkoutCount = checkouts.get();
+        return new ImapConnectionPoolStats(idleCount.get(), created.get(), reused.get(), evicted.get(),
+                validationFailures.get(), (checkoutCount == 0) ? 0 : totalWaitMillis.get() / checkoutCount);
+    }
+
+    private static class PooledConnection {
+        final ImapConnection connection;
+        final long lastUsed;
+        final long lastValidated;
+
+        PooledConnection(ImapConnection connection, long lastUsed, long lastValidated) {
+            this.connection = connection;
+            this.lastUsed = lastUsed;
+            this.lastValidated = lastValidated;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.atalk.xryptomail.mail.store.imap;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Connection reuse counters of an {@link ImapStore}'s connection pool, for tuning connection churn
+ * against server limits.
+ */
+public class ImapConnectionPoolStats {
+    private final int idle;
+    private final long created;
+    private final long reused;
+    private final long evicted;
+    private final long validationFailures;
+    private final long averageWaitMillis;
+
+    ImapConnectionPoolStats(int idle, long created, long reused, long evicted, long validationFailures,
+            long averageWaitMillis) {
+        this.idle = idle;
+        this.created = created;
+        this.reused = reused;
+        this.evicted = evicted;
+        this.validationFailures = validationFailures;
+        this.averageWaitMillis = averageWaitMillis;
+    }
+
+    /**
+     * @return the number of connections currently kept idle in the pool
+     */
+    public int getIdle() {
+        return idle;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public long getReused() {
+        return reused;
+    }
+
+    /**
+     * @return the number of idle connections closed because they expired, failed a keepalive, or
+     * were released to a full pool
+     */
+    public long getEvicted() {
+        return evicted;
+    }
+
+    public long getValidationFailures() {
+        return validationFailures;
+    }
+
+    /**
+     * @return the average time a checkout took, including connection validation
+     */
+    public long getAverageWaitMillis() {
+        return averageWaitMillis;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "idle=" + idle + ", created=" + created + ", reused=" + reused + ", evicted=" + evicted
+                + ", validationFailures=" + validationFailures + ", avgWait=" + averageWaitMillis + "ms";
+    }
+}
@@ -11,6 +11,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
@@ -48,9 +49,15 @@ class ImapFolder extends Folder<ImapMessage> {
     };
     private static final int MORE_MESSAGES_WINDOW_SIZE = 500;
     private static final int FETCH_WINDOW_SIZE = 100;
+    /**
+     * Maximum number of UID FETCH commands kept outstanding on the connection by a pipelined fetch.
+     */
+    private static final int FETCH_PIPELINE_DEPTH = 3;
 
     protected volatile int mMessageCount = -1;
     protected volatile long uidNext = -1L;
+    protected volatile long highestModSeq = -1L;
+    protected volatile long uidValidity = -1L;
     protected volatile ImapConnection mConnection;
     protected ImapStore mStore;
     protected Map<Long, String> msgSeqUidMap = new ConcurrentHashMap<>();
@@ -140,10 +147,16 @@ class ImapFolder extends Folder<ImapMessage> {
         // 2 OK [READ-WRITE] Select completed.
         try {
             msgSeqUidMap.clear();
+            highestModSeq = -1L;
+            uidValidity = -1L;
             String openCommand = (mode == OPEN_MODE_RW) ? "SELECT" : "EXAMINE";
             String encodedFolderName = folderNameCodec.encode(getPrefixedName());
             String escapedFolderName = ImapUtility.encodeString(encodedFolderName);
             String command = String.format("%s %s", openCommand, escapedFolderName);
+            if (mConnection.isCondstoreCapable()) {
+                // Have the server report HIGHESTMODSEQ; RFC 7162, Section 3.1.8
+                command += " (CONDSTORE)";
+            }
             List<ImapResponse> responses = executeSimpleCommand(command);
 
             /*
@@ -652,7 +665,7 @@ class ImapFolder extends Folder<ImapMessage> {
         checkOpen();
 
         List<String> uids = new ArrayList<>(messages.size());
-        HashMap<String, Message> messageMap = new HashMap<>();
+        Map<String, Message> messageMap = new HashMap<>();
         for (Message message : messages) {
             String uid = message.getUid();
             uids.add(uid);
@@ -696,83 +709,209 @@ class ImapFolder extends Folder<ImapMessage> {
 
         String spaceSeparatedFetchFields = ImapUtility.join(" ", fetchFields);
 
+        ImapResponseCallback callback = null;
+        if (fetchProfile.contains(FetchProfile.Item.BODY) ||
+                fetchProfile.contains(FetchProfile.Item.BODY_SANE)) {
+            callback = new FetchBodyCallback(messageMap);
+        }
+
+        List<List<String>> uidWindows = new ArrayList<>();
         for (int windowStart = 0; windowStart < messages.size(); windowStart += (FETCH_WINDOW_SIZE)) {
             int windowEnd = Math.min(windowStart + FETCH_WINDOW_SIZE, messages.size());
-            List<String> uidWindow = uids.subList(windowStart, windowEnd);
+            uidWindows.add(uids.subList(windowStart, windowEnd));
+        }
 
-            try {
-                String commaSeparatedUids = ImapUtility.join(",", uidWindow);
-                String command = String.format("UID FETCH %s (%s)", commaSeparatedUids, spaceSeparatedFetchFields);
-                mConnection.sendCommand(command, false);
+        try {
+            List<List<String>> serialWindows = uidWindows;
+            if (uidWindows.size() > 1 && mStore.isFetchPipeliningEnabled()) {
+                serialWindows = fetchPipelined(uidWindows, spaceSeparatedFetchFields, callback, messageMap, listener);
+            }
+
+            for (List<String> uidWindow : serialWindows) {
+                mConnection.sendCommand(createFetchCommand(uidWindow, spaceSeparatedFetchFields), false);
 
                 ImapResponse response;
                 int messageNumber = 0;
-
-                ImapResponseCallback callback = null;
-                if (fetchProfile.contains(FetchProfile.Item.BODY) ||
-                        fetchProfile.contains(FetchProfile.Item.BODY_SANE)) {
-                    callback = new FetchBodyCallback(messageMap);
-                }
-
                 do {
                     response = mConnection.readResponse(callback);
-                    if (response.getTag() == null && ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
-                        ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
-                        String uid = fetchList.getKeyedString("UID");
-                        long msgSeq = response.getLong(0);
-                        if (uid != null) {
-                            try {
-                                msgSeqUidMap.put(msgSeq, uid);
-                                if (TimberLog.isTraceEnable) {
-                                    Timber.v("Stored uid '%s' for msgSeq %d into map", uid, msgSeq);
-                                }
-                            } catch (Exception e) {
-                                Timber.e("Unable to store uid '%s' for msgSeq %d", uid, msgSeq);
-                            }
-                        }
+                    messageNumber = handleFetchWindowResponse(response, messageMap, listener, messageNumber);
+                } while (response.getTag() == null);
+            }
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(mConnection, ioe);
+        }
+    }
 
-                        Message message = messageMap.get(uid);
-                        if (message == null) {
-                            if (XryptoMailLib.isDebug())
-                                Timber.d("Do not have message in messageMap for UID %s for %s", uid, getLogId());
+    private static String createFetchCommand(List<String> uidWindow, String spaceSeparatedFetchFields) {
+        String commaSeparatedUids = ImapUtility.join(",", uidWindow);
+        return String.format("UID FETCH %s (%s)", commaSeparatedUids, spaceSeparatedFetchFields);
+    }
 
-                            handleUntaggedResponse(response);
-                            continue;
-                        }
-                        if (listener != null) {
-                            listener.messageStarted(uid, messageNumber++, messageMap.size());
-                        }
+    /**
+     * Fetch the given UID windows keeping up to {@link #FETCH_PIPELINE_DEPTH} tagged UID FETCH
+     * commands outstanding on the connection, so round trips overlap with data transfer.
+     * <p>
+     * Untagged FETCH responses carry the UID and are matched against {@code messageMap} no matter
+     * which command produced them; tagged responses complete the window sent with that tag. If the
+     * server rejects a pipelined command or answers with a tag we did not send, pipelining is
+     * disabled for the store and the affected windows are returned to be fetched serially.
+     * </p>
+     *
+     * @return the UID windows that still need to be fetched using the serial path
+     */
+    private List<List<String>> fetchPipelined(List<List<String>> uidWindows, String spaceSeparatedFetchFields,
+            ImapResponseCallback callback, Map<String, Message> messageMap,
+            MessageRetrievalListener<ImapMessage> listener)
+            throws IOException, MessagingException {
+        List<List<String>> serialWindows = new ArrayList<>();
+        Map<String, List<String>> outstandingWindows = new LinkedHashMap<>();
+        int nextWindow = 0;
+        int messageNumber = 0;
+
+        while (nextWindow < uidWindows.size() || !outstandingWindows.isEmpty()) {
+            while (nextWindow < uidWindows.size() && outstandingWindows.size() < FETCH_PIPELINE_DEPTH
+                    && mStore.isFetchPipeliningEnabled()) {
+                List<String> uidWindow = uidWindows.get(nextWindow++);
+                String tag = mConnection.sendCommand(createFetchCommand(uidWindow, spaceSeparatedFetchFields), false);
+                outstandingWindows.put(tag, uidWindow);
+            }
 
-                        ImapMessage imapMessage = (ImapMessage) message;
-                        Object literal = handleFetchResponse(imapMessage, fetchList);
-                        if (literal != null) {
-                            if (literal instanceof String) {
-                                String bodyString = (String) literal;
-                                InputStream bodyStream = new ByteArrayInputStream(bodyString.getBytes());
-                                imapMessage.parse(bodyStream);
-                            }
-                            else if (literal instanceof Integer) {
-                                // All the work was done in FetchBodyCallback.foundLiteral()
-                            }
-                            else {
-                                // This shouldn't happen
-                                throw new MessagingException("Got FETCH response with bogus parameters");
-                            }
-                        }
+            if (outstandingWindows.isEmpty()) {
+                // Pipelining got disabled; leave the remaining windows to the serial path
+                serialWindows.addAll(uidWindows.subList(nextWindow, uidWindows.size()));
+                break;
+            }
 
-                        if (listener != null) {
-                            listener.messageFinished(imapMessage, messageNumber, messageMap.size());
-                        }
+            ImapResponse response = mConnection.readResponse(callback);
+            messageNumber = handleFetchWindowResponse(response, messageMap, listener, messageNumber);
+
+            if (response.isTagged()) {
+                List<String> uidWindow = outstandingWindows.remove(response.getTag());
+                if (uidWindow == null) {
+                    Timber.w("Got unexpected tagged response %s during pipelined fetch for %s; "
+                            + "disabling fetch pipelining", response, getLogId());
+                    mStore.disableFetchPipelining();
+                }
+                else if (response.size() < 1 || !ImapResponseParser.equalsIgnoreCase(response.get(0), Responses.OK)) {
+                    Timber.w("Pipelined fetch failed with %s for %s; falling back to serial fetch",
+                            response, getLogId());
+                    mStore.disableFetchPipelining();
+                    serialWindows.add(uidWindow);
+                }
+            }
+        }
+        return serialWindows;
+    }
+
+    /**
+     * Process a response read while fetching a UID window.
+     *
+     * @return the updated message number passed to the listener
+     */
+    private int handleFetchWindowResponse(ImapResponse response, Map<String, Message> messageMap,
+            MessageRetrievalListener<ImapMessage> listener, int messageNumber)
+            throws IOException, MessagingException {
+        if (response.getTag() == null && ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
+            ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
+            String uid = fetchList.getKeyedString("UID");
+            long msgSeq = response.getLong(0);
+            if (uid != null) {
+                try {
+                    msgSeqUidMap.put(msgSeq, uid);
+                    if (TimberLog.isTraceEnable) {
+                        Timber.v("Stored uid '%s' for msgSeq %d into map", uid, msgSeq);
                     }
-                    else {
-                        handleUntaggedResponse(response);
+                } catch (Exception e) {
+                    Timber.e("Unable to store uid '%s' for msgSeq %d", uid, msgSeq);
+                }
+            }
+
+            Message message = messageMap.get(uid);
+            if (message == null) {
+                if (XryptoMailLib.isDebug())
+                    Timber.d("Do not have message in messageMap for UID %s for %s", uid, getLogId());
+
+                discardLiterals(fetchList);
+                handleUntaggedResponse(response);
+                return messageNumber;
+            }
+            if (listener != null) {
+                listener.messageStarted(uid, messageNumber++, messageMap.size());
+            }
+
+            ImapMessage imapMessage = (ImapMessage) message;
+            Object literal = handleFetchResponse(imapMessage, fetchList);
+            if (literal != null) {
+                if (literal instanceof ImapLiteral) {
+                    try (InputStream bodyStream = ((ImapLiteral) literal).getInputStream()) {
+                        imapMessage.parse(bodyStream);
                     }
+                }
+                else if (literal instanceof String) {
+                    String bodyString = (String) literal;
+                    InputStream bodyStream = new ByteArrayInputStream(bodyString.getBytes());
+                    imapMessage.parse(bodyStream);
+                }
+                else if (literal instanceof Integer) {
+                    // All the work was done in FetchBodyCallback.foundLiteral()
+                }
+                else {
+                    // This shouldn't happen
+                    throw new MessagingException("Got FETCH response with bogus parameters");
+                }
+            }
 
-                } while (response.getTag() == null);
-            } catch (IOException ioe) {
-                throw ioExceptionHandler(mConnection, ioe);
+            if (listener != null) {
+                listener.messageFinished(imapMessage, messageNumber, messageMap.size());
             }
         }
+        else {
+            handleUntaggedResponse(response);
+        }
+        return messageNumber;
+    }
+
+    @Override
+    public long getHighestModSeq() {
+        return highestModSeq;
+    }
+
+    @Override
+    public long getUidValidity() {
+        return uidValidity;
+    }
+
+    /**
+     * Fetch the flags of all messages changed after {@code modSeq} with a single
+     * {@code UID FETCH 1:* (UID FLAGS) (CHANGEDSINCE modSeq)} command (RFC 7162).
+     */
+    @Override
+    public List<ImapMessage> fetchFlagChangesSince(long modSeq)
+            throws MessagingException {
+        checkOpen();
+
+        String command = String.format(Locale.US, "UID FETCH 1:* (UID FLAGS) (CHANGEDSINCE %d)", modSeq);
+        try {
+            List<ImapResponse> responses = executeSimpleCommand(command);
+
+            List<ImapMessage> messages = new ArrayList<>();
+            for (ImapResponse response : responses) {
+                if (response.getTag() == null && ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
+                    ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
+                    String uid = fetchList.getKeyedString("UID");
+                    if (uid == null) {
+                        continue;
+                    }
+
+                    ImapMessage message = new ImapMessage(uid, this);
+                    handleFetchResponse(message, fetchList);
+                    messages.add(message);
+                }
+            }
+            return messages;
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(mConnection, ioe);
+        }
     }
 
     @Override
@@ -810,6 +949,7 @@ class ImapFolder extends Folder<ImapMessage> {
                         if (XryptoMailLib.isDebug())
                             Timber.d("Did not ask for UID %s for %s", uid, getLogId());
 
+                        discardLiterals(fetchList);
                         handleUntaggedResponse(response);
                         continue;
                     }
@@ -825,6 +965,15 @@ class ImapFolder extends Folder<ImapMessage> {
                             // Most of the work was done in FetchAttchmentCallback.foundLiteral()
                             MimeMessageHelper.setBody(part, (Body) literal);
                         }
+                        else if (literal instanceof ImapLiteral) {
+                            try (InputStream bodyStream = ((ImapLiteral) literal).getInputStream()) {
+                                String contentTransferEncoding =
+                                        part.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING)[0];
+                                String contentType = part.getHeader(MimeHeader.HEADER_CONTENT_TYPE)[0];
+                                Body body = bodyFactory.createBody(contentTransferEncoding, contentType, bodyStream);
+                                MimeMessageHelper.setBody(part, body);
+                            }
+                        }
                         else if (literal instanceof String) {
                             String bodyString = (String) literal;
                             InputStream bodyStream = new ByteArrayInputStream(bodyString.getBytes());
@@ -926,6 +1075,17 @@ class ImapFolder extends Folder<ImapMessage> {
         return result;
     }
 
+    /**
+     * Release the content of any unclaimed body literals in a FETCH response we are not interested in.
+     */
+    private static void discardLiterals(ImapList fetchList) {
+        for (Object token : fetchList) {
+            if (token instanceof ImapLiteral) {
+                ((ImapLiteral) token).discard();
+            }
+        }
+    }
+
     /**
      * Handle any untagged responses that the caller doesn't care to handle themselves.
      *
@@ -960,6 +1120,35 @@ class ImapFolder extends Folder<ImapMessage> {
         }
     }
 
+    // * OK [HIGHESTMODSEQ 715194045007] Highest
+    protected void handlePossibleHighestModSeq(ImapResponse response) {
+        if (ImapResponseParser.equalsIgnoreCase(response.get(0), "OK") && response.size() > 1
+                && response.get(1) instanceof ImapList) {
+            ImapList bracketed = (ImapList) response.get(1);
+            if (bracketed.size() > 1 && ImapResponseParser.equalsIgnoreCase(bracketed.get(0), "HIGHESTMODSEQ")) {
+                highestModSeq = bracketed.getLong(1);
+                if (XryptoMailLib.isDebug())
+                    Timber.d("Got HighestModSeq = %d for %s", highestModSeq, getLogId());
+            }
+            else if (bracketed.size() > 0 && ImapResponseParser.equalsIgnoreCase(bracketed.get(0), "NOMODSEQ")) {
+                highestModSeq = -1L;
+            }
+        }
+    }
+
+    // * OK [UIDVALIDITY 1125022061] UIDs valid
+    protected void handlePossibleUidValidity(ImapResponse response) {
+        if (ImapResponseParser.equalsIgnoreCase(response.get(0), "OK") && response.size() > 1
+                && response.get(1) instanceof ImapList) {
+            ImapList bracketed = (ImapList) response.get(1);
+            if (bracketed.size() > 1 && ImapResponseParser.equalsIgnoreCase(bracketed.get(0), "UIDVALIDITY")) {
+                uidValidity = bracketed.getLong(1);
+                if (XryptoMailLib.isDebug())
+                    Timber.d("Got UidValidity = %d for %s", uidValidity, getLogId());
+            }
+        }
+    }
+
     /**
      * Handle an untagged response that the caller doesn't care to handle themselves.
      *
@@ -974,6 +1163,8 @@ class ImapFolder extends Folder<ImapMessage> {
                 }
             }
             handlePossibleUidNext(response);
+            handlePossibleHighestModSeq(response);
+            handlePossibleUidValidity(response);
 
             if (ImapResponseParser.equalsIgnoreCase(response.get(1), "EXPUNGE") && mMessageCount > 0) {
                 mMessageCount--;
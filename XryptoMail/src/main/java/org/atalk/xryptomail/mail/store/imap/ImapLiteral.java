@@ -0,0 +1,151 @@
+package org.atalk.xryptomail.mail.store.imap;
+
+import org.atalk.xryptomail.mail.internet.BinaryTempFileBody;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import timber.log.Timber;
+
+/**
+ * Raw content of a {@code BODY[...]} literal that was not consumed by an {@link ImapResponseCallback}.
+ * <p>
+ * Small literals are kept as the bytes read off the wire; literals larger than
+ * {@link #SPILL_THRESHOLD} are streamed into a temp file so that a multi-MB message body is
+ * never held on the heap. The content is never converted to a {@code String}.
+ * </p>
+ * The literal can be read once via {@link #getInputStream()}; closing that stream releases the
+ * backing temp file, if any.
+ */
+class ImapLiteral
+{
+    /**
+     * Literals larger than this are spilled to disk instead of being buffered in memory.
+     */
+    static final int SPILL_THRESHOLD = 256 * 1024;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int mSize;
+    private byte[] mData;
+    private File mFile;
+
+    private ImapLiteral(int size, byte[] data, File file)
+    {
+        mSize = size;
+        mData = data;
+        mFile = file;
+    }
+
+    /**
+     * Read exactly {@code size} bytes from {@code in} into a new literal.
+     */
+    static ImapLiteral read(InputStream in, int size)
+            throws IOException
+    {
+        File tempDirectory = BinaryTempFileBody.getTempDirectory();
+        if (size <= SPILL_THRESHOLD || tempDirectory == null) {
+            byte[] data = new byte[size];
+            int read = 0;
+            while (read != size) {
+                int count = in.read(data, read, size - read);
+                if (count == -1) {
+                    throw new IOException("ImapLiteral.read(): end of stream reached");
+                }
+                read += count;
+            }
+            return new ImapLiteral(size, data, null);
+        }
+
+        File file = File.createTempFile("literal", null, tempDirectory);
+        boolean success = false;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int remaining = size;
+            while (remaining > 0) {
+                int count = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                if (count == -1) {
+                    throw new IOException("ImapLiteral.read(): end of stream reached");
+                }
+                out.write(buffer, 0, count);
+                remaining -= count;
+            }
+            success = true;
+        } finally {
+            if (!success && !file.delete()) {
+                Timber.w("Failed to delete temporary literal file: %s", file.getName());
+            }
+        }
+        return new ImapLiteral(size, null, file);
+    }
+
+    int getSize()
+    {
+        return mSize;
+    }
+
+    boolean isSpilled()
+    {
+        return mFile != null;
+    }
+
+    /**
+     * Returns the literal content. May only be called once.
+     */
+    InputStream getInputStream()
+            throws IOException
+    {
+        if (mData != null) {
+            InputStream in = new ByteArrayInputStream(mData);
+            mData = null;
+            return in;
+        }
+        else if (mFile != null) {
+            final File file = mFile;
+            mFile = null;
+            return new FilterInputStream(new FileInputStream(file))
+            {
+                @Override
+                public void close()
+                        throws IOException
+                {
+                    try {
+                        super.close();
+                    } finally {
+                        if (!file.delete()) {
+                            Timber.w("Failed to delete temporary literal file: %s", file.getName());
+                        }
+                    }
+                }
+            };
+        }
+        throw new IllegalStateException("Literal content has already been consumed");
+    }
+
+    /**
+     * Release the content without reading it.
+     */
+    void discard()
+    {
+        mData = null;
+        if (mFile != null) {
+            if (!mFile.delete()) {
+                Timber.w("Failed to delete temporary literal file: %s", mFile.getName());
+            }
+            mFile = null;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "{literal " + mSize + (isSpilled() ? " bytes on disk}" : " bytes}");
+    }
+}
@@ -262,7 +262,7 @@ class ImapResponseParser
                 return parseQuoted();
             }
             else if (ch == '{') {
-                return parseLiteral();
+                return parseLiteral(parent);
             }
             else if (ch == ' ') {
                 expect(' ');
@@ -294,7 +294,7 @@ class ImapResponseParser
             return parseQuoted();
         }
         else if (ch == '{') {
-            return (String) parseLiteral();
+            return (String) parseLiteral(null);
         }
         else {
             return parseBareString(false);
@@ -379,8 +379,14 @@ class ImapResponseParser
     /**
      * A "{" has been read. Read the rest of the size string, the space and then
      * notify the callback with an InputStream.
+     * <p>
+     * Unclaimed {@code BODY[...]} literals are returned as {@link ImapLiteral} so that message
+     * content is streamed (or spilled to disk) rather than materialized as a String.
+     * </p>
+     *
+     * @param parent The list the literal is a member of, or {@code null} if unknown.
      */
-    private Object parseLiteral()
+    private Object parseLiteral(ImapList parent)
             throws IOException
     {
         expect('{');
@@ -429,6 +435,10 @@ class ImapResponseParser
             }
         }
 
+        if (isBodySectionLiteral(parent)) {
+            return ImapLiteral.read(inputStream, size);
+        }
+
         byte[] data = new byte[size];
         int read = 0;
         while (read != size) {
@@ -441,6 +451,25 @@ class ImapResponseParser
         return new String(data, StandardCharsets.US_ASCII);
     }
 
+    /**
+     * Check whether the literal being parsed is the value of a {@code BODY[<section>]<<origin>>}
+     * fetch item, i.e. the preceding tokens in {@code parent} are "BODY", the section list and an
+     * optional origin octet.
+     */
+    private static boolean isBodySectionLiteral(ImapList parent)
+    {
+        if (parent == null) {
+            return false;
+        }
+
+        int index = parent.size() - 1;
+        if (index >= 0 && parent.get(index) instanceof String && ((String) parent.get(index)).startsWith("<")) {
+            index--;
+        }
+        return index >= 1 && parent.get(index) instanceof ImapList
+                && equalsIgnoreCase(parent.get(index - 1), "BODY");
+    }
+
     private String parseQuoted()
             throws IOException
     {
@@ -8,11 +8,9 @@ import java.io.IOException;
 import java.nio.charset.CharacterCodingException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -55,7 +53,8 @@ public class ImapStore extends RemoteStore {
     private String mCombinedPrefix = null;
     private String mPathDelimiter = null;
 
-    private final Deque<ImapConnection> mConnections = new LinkedList<>();
+    private final ImapConnectionPool connectionPool;
+    private volatile boolean fetchPipeliningEnabled = true;
     private final FolderNameCodec folderNameCodec;
 
     /**
@@ -100,6 +99,11 @@ public class ImapStore extends RemoteStore {
         // Make extra sure mPathPrefix is null if "auto-detect namespace" is configured
         mPathPrefix = (serverSettings.autoDetectNamespace) ? null : serverSettings.pathPrefix;
         folderNameCodec = FolderNameCodec.newInstance();
+
+        connectionPool = new ImapConnectionPool(this::createImapConnection,
+                storeConfig.getImapMaxIdleConnections(),
+                storeConfig.getImapIdleConnectionTimeoutMinutes() * 60 * 1000L,
+                storeConfig.getImapKeepaliveIntervalSeconds() * 1000L);
     }
 
     @Override
@@ -339,33 +343,18 @@ public class ImapStore extends RemoteStore {
      */
     ImapConnection getConnection()
             throws MessagingException {
-        ImapConnection connection;
-        while ((connection = pollConnection()) != null) {
-            try {
-                connection.executeSimpleCommand(Commands.NOOP);
-                break;
-            } catch (IOException ioe) {
-                connection.close();
-            }
-        }
-        if (connection == null) {
-            connection = createImapConnection();
-        }
-        return connection;
+        return connectionPool.checkout();
     }
 
-    private ImapConnection pollConnection() {
-        synchronized (mConnections) {
-            return mConnections.poll();
-        }
+    void releaseConnection(ImapConnection connection) {
+        connectionPool.release(connection);
     }
 
-    void releaseConnection(ImapConnection connection) {
-        if (connection != null && connection.isConnected()) {
-            synchronized (mConnections) {
-                mConnections.offer(connection);
-            }
-        }
+    /**
+     * @return the connection pool counters (created, reused, evicted, wait time)
+     */
+    public ImapConnectionPoolStats getConnectionPoolStats() {
+        return connectionPool.getStats();
     }
 
     ImapConnection createImapConnection() {
@@ -418,6 +407,17 @@ public class ImapStore extends RemoteStore {
         return permanentFlagsIndex;
     }
 
+    /**
+     * @return {@code false} once the server has failed a pipelined FETCH; fetches then run serially.
+     */
+    boolean isFetchPipeliningEnabled() {
+        return fetchPipeliningEnabled;
+    }
+
+    void disableFetchPipelining() {
+        fetchPipeliningEnabled = false;
+    }
+
     @Override
     public Pusher getPusher(PushReceiver receiver) {
         return new ImapPusher(this, receiver);
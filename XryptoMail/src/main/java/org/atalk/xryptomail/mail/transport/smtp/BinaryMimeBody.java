@@ -0,0 +1,53 @@
+package org.atalk.xryptomail.mail.transport.smtp;
+
+import org.apache.commons.io.IOUtils;
+import org.atalk.xryptomail.mail.Body;
+import org.atalk.xryptomail.mail.MessagingException;
+import org.atalk.xryptomail.mail.internet.MimeUtility;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stands in for the body of an attachment while a message is serialized for a BINARYMIME
+ * transaction (RFC 3030).
+ * <p>
+ * The decoded content of the original body is written straight to {@code rawOut}, bypassing the
+ * line ending conversion and line wrapping that the rest of the message goes through. The part
+ * using this body must be labelled with {@code Content-Transfer-Encoding: binary}.
+ * </p>
+ */
+class BinaryMimeBody implements Body {
+    private final Body body;
+    private final OutputStream rawOut;
+
+    BinaryMimeBody(Body body, OutputStream rawOut) {
+        this.body = body;
+        this.rawOut = rawOut;
+    }
+
+    Body getOriginalBody() {
+        return body;
+    }
+
+    @Override
+    public InputStream getInputStream() throws MessagingException {
+        return MimeUtility.decodeBody(body);
+    }
+
+    @Override
+    public void setEncoding(String encoding) throws MessagingException {
+        throw new UnsupportedOperationException("BinaryMimeBody is always binary");
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException, MessagingException {
+        // Write out whatever the filters still hold before the raw data goes underneath them
+        out.flush();
+        try (InputStream in = getInputStream()) {
+            IOUtils.copy(in, rawOut);
+        }
+        rawOut.flush();
+    }
+}
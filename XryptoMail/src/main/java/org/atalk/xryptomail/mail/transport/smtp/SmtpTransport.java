@@ -9,16 +9,21 @@ import android.text.TextUtils;
 import androidx.annotation.VisibleForTesting;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.james.mime4j.util.MimeUtil;
 import org.atalk.xryptomail.XryptoMail;
 import org.atalk.xryptomail.mail.Address;
 import org.atalk.xryptomail.mail.AuthType;
 import org.atalk.xryptomail.mail.Authentication;
 import org.atalk.xryptomail.mail.AuthenticationFailedException;
+import org.atalk.xryptomail.mail.Body;
+import org.atalk.xryptomail.mail.BodyPart;
 import org.atalk.xryptomail.mail.CertificateValidationException;
 import org.atalk.xryptomail.mail.ConnectionSecurity;
 import org.atalk.xryptomail.mail.Message;
 import org.atalk.xryptomail.mail.Message.RecipientType;
 import org.atalk.xryptomail.mail.MessagingException;
+import org.atalk.xryptomail.mail.Multipart;
+import org.atalk.xryptomail.mail.Part;
 import org.atalk.xryptomail.mail.ServerSettings;
 import org.atalk.xryptomail.mail.ServerSettings.Type;
 import org.atalk.xryptomail.mail.Transport;
@@ -29,7 +34,10 @@ import org.atalk.xryptomail.mail.filter.EOLConvertingOutputStream;
 import org.atalk.xryptomail.mail.filter.LineWrapOutputStream;
 import org.atalk.xryptomail.mail.filter.PeekableInputStream;
 import org.atalk.xryptomail.mail.filter.SmtpDataStuffing;
+import org.atalk.xryptomail.mail.internet.BinaryTempFileBody;
 import org.atalk.xryptomail.mail.internet.CharsetSupport;
+import org.atalk.xryptomail.mail.internet.MimeHeader;
+import org.atalk.xryptomail.mail.internet.MimeUtility;
 import org.atalk.xryptomail.mail.oauth.OAuth2AuthorizationCodeFlowTokenProvider;
 import org.atalk.xryptomail.mail.oauth.OAuth2TokenProvider;
 import org.atalk.xryptomail.mail.oauth.XOAuth2ChallengeParser;
@@ -38,7 +46,11 @@ import org.atalk.xryptomail.mail.store.StoreConfig;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Inet6Address;
 import java.net.InetAddress;
@@ -64,6 +76,11 @@ public class SmtpTransport extends Transport {
     private static final int SMTP_CONTINUE_REQUEST = 334;
     private static final int SMTP_AUTHENTICATION_FAILURE_ERROR_CODE = 535;
 
+    /**
+     * Size of the chunks a message is sent in with BDAT. Every chunk costs a round trip.
+     */
+    private static final int BDAT_CHUNK_SIZE = 512 * 1024;
+
     private final TrustedSocketFactory mTrustedSocketFactory;
     private final OAuth2TokenProvider oauthTokenProvider;
 
@@ -83,6 +100,8 @@ public class SmtpTransport extends Transport {
     private int mLargestAcceptableMessage;
     private boolean retryXoauthWithNewToken;
     private boolean isPipeliningSupported;
+    private boolean isChunkingSupported;
+    private boolean isBinaryMimeSupported;
     private final boolean shouldHideHostname;
 
     public SmtpTransport(StoreConfig storeConfig, TrustedSocketFactory trustedSocketFactory, OAuth2TokenProvider oAuth2TokenProvider)
@@ -191,6 +210,9 @@ public class SmtpTransport extends Transport {
                 authXoauth2Supported = saslMech.contains("XOAUTH2");
             }
             parseOptionalSizeValue(extensions);
+            isChunkingSupported = extensions.containsKey("CHUNKING");
+            // BINARYMIME may only be used together with BDAT
+            isBinaryMimeSupported = isChunkingSupported && extensions.containsKey("BINARYMIME");
 
             if (!TextUtils.isEmpty(mUsername)
                     && (!TextUtils.isEmpty(mPassword) ||
@@ -403,32 +425,140 @@ public class SmtpTransport extends Transport {
             addressesOfCharset.add(addressString);
         }
 
-        for (Map.Entry<String, List<String>> charsetAddressesMapEntry :
-                charsetAddressesMap.entrySet()) {
-            String charset = charsetAddressesMapEntry.getKey();
-            List<String> addressesOfCharset = charsetAddressesMapEntry.getValue();
-            message.setCharset(charset);
-            sendMessageTo(addressesOfCharset, message);
+        if (charsetAddressesMap.isEmpty()) {
+            return;
+        }
+
+        // All charset groups are sent in one session, separated by RSET
+        close();
+        open();
+        try {
+            boolean firstEnvelope = true;
+            for (Map.Entry<String, List<String>> charsetAddressesMapEntry :
+                    charsetAddressesMap.entrySet()) {
+                String charset = charsetAddressesMapEntry.getKey();
+                List<String> addressesOfCharset = charsetAddressesMapEntry.getValue();
+                message.setCharset(charset);
+
+                if (!firstEnvelope) {
+                    resetTransaction();
+                }
+                firstEnvelope = false;
+                sendMessageTo(addressesOfCharset, message);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private void resetTransaction()
+            throws MessagingException {
+        try {
+            executeCommand("RSET");
+        } catch (IOException e) {
+            throw new MessagingException("Unable to reset SMTP session", e);
         }
     }
 
     private void sendMessageTo(List<String> addresses, Message message)
             throws MessagingException {
+        File spooledMessage = null;
+        try {
+            // With BINARYMIME, attachments are sent as binary instead of base64. Only the
+            // serialized copy of the message is converted.
+            List<BodyPart> binaryParts = new ArrayList<>();
+            if (isBinaryMimeSupported) {
+                findBinaryMimeParts(message, binaryParts);
+            }
+            boolean binaryMime = !binaryParts.isEmpty();
+
+            // If the message has attachments and our server has told us about a limit on
+            // the size of messages, serialize the message once to count its size. The
+            // serialized copy is then sent as is.
+            boolean checkSize = mLargestAcceptableMessage > 0 && message.hasAttachments();
+            if (checkSize || binaryMime) {
+                spooledMessage = spoolMessage(message, binaryParts);
+                if (checkSize && spooledMessage.length() > mLargestAcceptableMessage) {
+                    throw new MessagingException("Message too large for server", true);
+                }
+            }
+            sendEnvelopeAndData(addresses, message, spooledMessage, binaryMime);
+        } finally {
+            if (spooledMessage != null && !spooledMessage.delete()) {
+                Timber.w("Failed to delete spooled message file: %s", spooledMessage.getName());
+            }
+        }
+    }
 
-        close();
-        open();
+    /**
+     * Collect the base64 encoded attachments that can be sent as binary. Parts of signed or
+     * encrypted content are left alone, re-encoding them would invalidate the signature.
+     */
+    private static void findBinaryMimeParts(Part part, List<BodyPart> binaryParts) {
+        Body body = part.getBody();
+        if (body instanceof Multipart) {
+            if (part.isMimeType("multipart/signed") || part.isMimeType("multipart/encrypted")) {
+                return;
+            }
+            for (BodyPart bodyPart : ((Multipart) body).getBodyParts()) {
+                findBinaryMimeParts(bodyPart, binaryParts);
+            }
+        } else if (body != null && part instanceof BodyPart
+                && !MimeUtility.mimeTypeMatches(part.getMimeType(), "text/*")) {
+            String[] encoding = part.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING);
+            if (encoding.length > 0
+                    && MimeUtil.ENC_BASE64.equalsIgnoreCase(MimeUtility.getHeaderParameter(encoding[0], null))) {
+                binaryParts.add((BodyPart) part);
+            }
+        }
+    }
 
-        // If the message has attachments and our server has told us about a limit on
-        // the size of messages, count the message's size before sending it
-        if (mLargestAcceptableMessage > 0 && message.hasAttachments()) {
-            if (message.calculateSize() > mLargestAcceptableMessage) {
-                throw new MessagingException("Message too large for server", true);
+    /**
+     * Write the message the way it is sent as DATA, before dot-stuffing, to a temp file.
+     * <p>
+     * {@code binaryParts} are written as binary for BINARYMIME, and restored afterwards.
+     * </p>
+     */
+    private File spoolMessage(Message message, List<BodyPart> binaryParts)
+            throws MessagingException {
+        File file = null;
+        try {
+            file = File.createTempFile("smtp", null, BinaryTempFileBody.getTempDirectory());
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 8192)) {
+                String[] originalEncodings = new String[binaryParts.size()];
+                for (int i = 0; i < originalEncodings.length; i++) {
+                    BodyPart part = binaryParts.get(i);
+                    originalEncodings[i] = part.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING)[0];
+                    part.setBody(new BinaryMimeBody(part.getBody(), out));
+                    part.setHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING, MimeUtil.ENC_BINARY);
+                }
+                try {
+                    EOLConvertingOutputStream msgOut = new EOLConvertingOutputStream(new LineWrapOutputStream(out, 1000));
+                    message.writeTo(msgOut);
+                    msgOut.endWithCrLfAndFlush();
+                } finally {
+                    for (int i = 0; i < originalEncodings.length; i++) {
+                        BodyPart part = binaryParts.get(i);
+                        part.setBody(((BinaryMimeBody) part.getBody()).getOriginalBody());
+                        part.setHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING, originalEncodings[i]);
+                    }
+                }
+            }
+            return file;
+        } catch (IOException e) {
+            if (file != null && !file.delete()) {
+                Timber.w("Failed to delete spooled message file: %s", file.getName());
             }
+            throw new MessagingException("Unable to serialize message", e);
         }
+    }
 
+    private void sendEnvelopeAndData(List<String> addresses, Message message, File spooledMessage,
+            boolean binaryMime)
+            throws MessagingException {
         boolean entireMessageSent = false;
         try {
-            String mailFrom = constructSmtpMailFromCommand(message.getFrom(), is8bitEncodingAllowed);
+            String mailFrom = constructSmtpMailFromCommand(message.getFrom(), is8bitEncodingAllowed, binaryMime);
 
             if (isPipeliningSupported) {
                 Queue<String> pipelinedCommands = new LinkedList<>();
@@ -438,7 +568,9 @@ public class SmtpTransport extends Transport {
                     pipelinedCommands.add(String.format("RCPT TO:<%s>", address));
                 }
 
-                pipelinedCommands.add("DATA");
+                if (!isChunkingSupported) {
+                    pipelinedCommands.add("DATA");
+                }
                 executePipelinedCommands(pipelinedCommands);
                 readPipelinedResponse(pipelinedCommands);
             } else {
@@ -447,19 +579,32 @@ public class SmtpTransport extends Transport {
                 for (String address : addresses) {
                     executeCommand("RCPT TO:<%s>", address);
                 }
-                executeCommand("DATA");
+                if (!isChunkingSupported) {
+                    executeCommand("DATA");
+                }
             }
 
-            EOLConvertingOutputStream msgOut = new EOLConvertingOutputStream(
-                    new LineWrapOutputStream(new SmtpDataStuffing(outputStream), 1000));
+            if (!isChunkingSupported) {
+                if (spooledMessage != null) {
+                    OutputStream msgOut = new SmtpDataStuffing(outputStream);
+                    try (InputStream in = new FileInputStream(spooledMessage)) {
+                        IOUtils.copy(in, msgOut);
+                    }
+                    // We use BufferedOutputStream. So make sure to call flush() !
+                    msgOut.flush();
+                } else {
+                    EOLConvertingOutputStream msgOut = new EOLConvertingOutputStream(
+                            new LineWrapOutputStream(new SmtpDataStuffing(outputStream), 1000));
 
-            message.writeTo(msgOut);
+                    message.writeTo(msgOut);
 
-            // We use BufferedOutputStream. So make sure to call flush() !
-            msgOut.endWithCrLfAndFlush();
+                    // We use BufferedOutputStream. So make sure to call flush() !
+                    msgOut.endWithCrLfAndFlush();
+                }
 
-            entireMessageSent = true; // After the "\r\n." is attempted, we may have sent the message
-            executeCommand(".");
+                entireMessageSent = true; // After the "\r\n." is attempted, we may have sent the message
+                executeCommand(".");
+            }
         } catch (NegativeSmtpReplyException e) {
             throw e;
         } catch (Exception e) {
@@ -467,14 +612,53 @@ public class SmtpTransport extends Transport {
             me.setPermanentFailure(entireMessageSent);
 
             throw me;
-        } finally {
-            close();
+        }
+
+        if (isChunkingSupported) {
+            sendChunks(message, spooledMessage);
+        }
+    }
+
+    /**
+     * Send the message with BDAT (RFC 3030). The data is sent as is, without dot-stuffing.
+     */
+    private void sendChunks(Message message, File spooledMessage)
+            throws MessagingException {
+        BdatOutputStream bdatOut = new BdatOutputStream();
+        boolean entireMessageSent = false;
+        try {
+            if (spooledMessage != null) {
+                try (InputStream in = new FileInputStream(spooledMessage)) {
+                    IOUtils.copy(in, bdatOut);
+                }
+            } else {
+                EOLConvertingOutputStream msgOut = new EOLConvertingOutputStream(
+                        new LineWrapOutputStream(bdatOut, 1000));
+                message.writeTo(msgOut);
+                msgOut.endWithCrLfAndFlush();
+            }
+
+            entireMessageSent = true; // After the last chunk is attempted, we may have sent the message
+            bdatOut.sendChunk(true);
+        } catch (NegativeSmtpReplyException e) {
+            throw e;
+        } catch (Exception e) {
+            if (e.getCause() instanceof NegativeSmtpReplyException) {
+                throw (NegativeSmtpReplyException) e.getCause();
+            }
+            MessagingException me = new MessagingException("Unable to send message", e);
+            me.setPermanentFailure(entireMessageSent);
+
+            throw me;
         }
     }
 
-    private static String constructSmtpMailFromCommand(Address[] from, boolean is8bitEncodingAllowed) {
+    private static String constructSmtpMailFromCommand(Address[] from, boolean is8bitEncodingAllowed,
+            boolean binaryMime) {
         String fromAddress = from[0].getAddress();
-        if (is8bitEncodingAllowed) {
+        if (binaryMime) {
+            return String.format("MAIL FROM:<%s> BODY=BINARYMIME", fromAddress);
+        } else if (is8bitEncodingAllowed) {
             return String.format("MAIL FROM:<%s> BODY=8BITMIME", fromAddress);
         } else {
             Timber.d("Server does not support 8bit transfer encoding");
@@ -482,6 +666,53 @@ public class SmtpTransport extends Transport {
         }
     }
 
+    /**
+     * Buffers the data written to it and sends it as BDAT chunks of {@link #BDAT_CHUNK_SIZE}.
+     * The final chunk is sent by {@link #sendChunk(boolean) sendChunk(true)}.
+     */
+    private class BdatOutputStream extends OutputStream {
+        private final byte[] chunk = new byte[BDAT_CHUNK_SIZE];
+        private int count = 0;
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            if (count == chunk.length) {
+                sendFullChunk();
+            }
+            chunk[count++] = (byte) oneByte;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == chunk.length) {
+                    sendFullChunk();
+                }
+                int n = Math.min(len, chunk.length - count);
+                System.arraycopy(b, off, chunk, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void sendFullChunk() throws IOException {
+            try {
+                sendChunk(false);
+            } catch (MessagingException e) {
+                throw new IOException("BDAT chunk rejected", e);
+            }
+        }
+
+        void sendChunk(boolean last) throws IOException, MessagingException {
+            writeLine(last ? "BDAT " + count + " LAST" : "BDAT " + count, false);
+            outputStream.write(chunk, 0, count);
+            outputStream.flush();
+            count = 0;
+            executeCommand(null);
+        }
+    }
+
     @Override
     public void close() {
         // Do not proceed if any of the IO is null; else null pointer reference exception
@@ -670,6 +901,10 @@ public class SmtpTransport extends Transport {
         }
 
         if (negativeRecipient != null) {
+            if (!pipelinedCommands.contains("DATA")) {
+                // BDAT transaction, no message data has been started
+                throw negativeRecipient;
+            }
             try {
                 executeCommand(".");
                 throw negativeRecipient;
@@ -0,0 +1,452 @@
+package org.atalk.xryptomail.mailstore;
+
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Process;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.IntentCompat;
+
+import org.atalk.xryptomail.XryptoMail;
+import org.atalk.xryptomail.crypto.MessageCryptoStructureDetector;
+import org.atalk.xryptomail.mail.Address;
+import org.atalk.xryptomail.mail.Body;
+import org.atalk.xryptomail.mail.FetchProfile;
+import org.atalk.xryptomail.mail.Flag;
+import org.atalk.xryptomail.mail.Message;
+import org.atalk.xryptomail.mail.MessagingException;
+import org.atalk.xryptomail.mail.Multipart;
+import org.atalk.xryptomail.mail.Part;
+import org.atalk.xryptomail.mail.internet.MessageExtractor;
+import org.atalk.xryptomail.mail.internet.MimeUtility;
+import org.atalk.xryptomail.mailstore.LockableDatabase.DbCallback;
+import org.openintents.openpgp.IOpenPgpService2;
+import org.openintents.openpgp.OpenPgpDecryptionResult;
+import org.openintents.openpgp.OpenPgpError;
+import org.openintents.openpgp.OpenPgpSignatureResult;
+import org.openintents.openpgp.util.OpenPgpApi;
+import org.openintents.openpgp.util.OpenPgpApi.OpenPgpDataSource;
+import org.openintents.openpgp.util.OpenPgpServiceConnection;
+import org.openintents.openpgp.util.OpenPgpServiceConnection.OnBound;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import timber.log.Timber;
+
+/**
+ * Determines the {@link DatabaseCryptoStatus} of the messages of a {@link LocalStore} in the
+ * background, so the message list can be sorted and filtered by it without opening each message.
+ * <p>
+ * {@link ExtractionWorker} marks new signed or encrypted messages as
+ * {@link DatabaseCryptoStatus#PENDING}. These messages are then decrypted or verified in batches,
+ * newest first. All messages of a run are sent through one connection to the OpenPGP provider,
+ * using the synchronous API, and the decrypted content is discarded. Messages the provider needs
+ * the user for, e.g. to enter a passphrase, are marked as encrypted or unverified and not retried.
+ * Messages that couldn't be checked because loading them or talking to the provider failed stay
+ * pending, and are checked again on the next run, e.g. once the provider changes. Messages stored
+ * before the status was introduced are classified along the way.
+ * </p>
+ */
+class CryptoStatusVerifier {
+    private static final String MULTIPART_SIGNED = "multipart/signed";
+    private static final int BATCH_SIZE = 20;
+    private static final long BIND_TIMEOUT_SECONDS = 10;
+
+    // One thread for all stores, so only one run talks to the OpenPGP provider at a time
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        });
+        thread.setName("CryptoStatusVerifier");
+        return thread;
+    });
+
+    private final LocalStore localStore;
+    private final FetchProfile fetchProfile = new FetchProfile();
+
+    /**
+     * Number of {@link #schedule()} calls not yet covered by a run over the messages.
+     */
+    private final AtomicInteger requests = new AtomicInteger(0);
+
+    private OpenPgpServiceConnection serviceConnection;
+    private OpenPgpApi openPgpApi;
+
+    CryptoStatusVerifier(LocalStore localStore) {
+        this.localStore = localStore;
+        fetchProfile.add(FetchProfile.Item.BODY);
+    }
+
+    /**
+     * @return {@link DatabaseCryptoStatus#PENDING} if the message contains signed or encrypted
+     * parts, {@link DatabaseCryptoStatus#NONE} otherwise
+     */
+    @NonNull
+    static DatabaseCryptoStatus detectCryptoStatus(@NonNull Message message) {
+        if (findCryptoPart(message) != null) {
+            return DatabaseCryptoStatus.PENDING;
+        }
+        return DatabaseCryptoStatus.NONE;
+    }
+
+    /**
+     * Determine the status of the messages not checked yet. Does nothing if the messages are
+     * already being checked; messages marked in the meantime are picked up by the running check.
+     */
+    void schedule() {
+        if (requests.getAndIncrement() == 0) {
+            executor.execute(this::run);
+        }
+    }
+
+    private void run() {
+        int handled;
+        do {
+            handled = requests.get();
+            processMessages();
+        } while (requests.addAndGet(-handled) != 0);
+    }
+
+    private void processMessages() {
+        String openPgpProvider = XryptoMail.isOpenPgpProviderConfigured() ? XryptoMail.getOpenPgpProvider() : null;
+        try {
+            int count = 0;
+            long lastMessageId = Long.MAX_VALUE;
+            List<Long> messageIds;
+            while (!(messageIds = loadNextBatch(openPgpProvider != null, lastMessageId)).isEmpty()) {
+                lastMessageId = messageIds.get(messageIds.size() - 1);
+                if (!processBatch(messageIds, openPgpProvider)) {
+                    break;
+                }
+                count += messageIds.size();
+            }
+            if (count > 0) {
+                Timber.d("Determined the crypto status of %d messages", count);
+            }
+        } catch (Exception e) {
+            Timber.w(e, "Checking the crypto status stopped, remaining messages stay pending");
+        } finally {
+            closeSession();
+        }
+    }
+
+    /**
+     * @return the ids of the next messages to check, in descending order
+     */
+    private List<Long> loadNextBatch(final boolean verify, final long beforeMessageId) throws MessagingException {
+        return localStore.getDatabase().execute(false, db -> {
+            // Queued messages get their status from the ExtractionWorker first
+            String statusSelection = verify ?
+                    "(crypto_status IS NULL OR crypto_status = " + DatabaseCryptoStatus.PENDING.getDatabaseValue() + ")" :
+                    "crypto_status IS NULL";
+            List<Long> messageIds = new ArrayList<>();
+            try (Cursor cursor = db.rawQuery("SELECT id FROM messages " +
+                    "WHERE " + statusSelection + " AND id < ? AND deleted = 0 AND empty = 0 " +
+                    "AND id NOT IN (SELECT message_id FROM extraction_queue) " +
+                    "ORDER BY id DESC LIMIT " + BATCH_SIZE, new String[] { Long.toString(beforeMessageId) })) {
+                while (cursor.moveToNext()) {
+                    messageIds.add(cursor.getLong(0));
+                }
+            }
+            return messageIds;
+        });
+    }
+
+    /**
+     * @return {@code false} if the OpenPGP provider isn't available
+     */
+    private boolean processBatch(List<Long> messageIds, @Nullable String openPgpProvider) throws MessagingException {
+        String[] args = new String[messageIds.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = Long.toString(messageIds.get(i));
+        }
+        String selection = "messages.id IN (" + TextUtils.join(",", Collections.nCopies(args.length, "?")) + ")";
+        List<LocalMessage> messages = new LocalMessageIterator(localStore, selection, args).toList();
+
+        final List<Result> results = new ArrayList<>(messages.size());
+        boolean available = true;
+        for (LocalMessage message : messages) {
+            Part cryptoPart;
+            try {
+                message.getFolder().fetch(Collections.singletonList(message), fetchProfile, null);
+                cryptoPart = findCryptoPart(message);
+            } catch (Exception e) {
+                // The message keeps its current status and is checked again on the next run
+                Timber.w(e, "Unable to load message %d to check its crypto status", message.getDatabaseId());
+                continue;
+            }
+
+            if (cryptoPart == null) {
+                results.add(new Result(message, DatabaseCryptoStatus.NONE));
+            } else if (openPgpProvider == null) {
+                results.add(new Result(message, DatabaseCryptoStatus.PENDING));
+            } else if (!openSession(openPgpProvider)) {
+                available = false;
+                break;
+            } else {
+                results.add(new Result(message, verify(message, cryptoPart)));
+            }
+        }
+
+        localStore.getDatabase().execute(true, (DbCallback<Void>) db -> {
+            // Messages whose content was replaced in the meantime are checked again
+            SQLiteStatement updateStatus = db.compileStatement("UPDATE messages SET crypto_status = ? " +
+                    "WHERE id = ? AND message_part_id = ?");
+            try {
+                for (Result result : results) {
+                    updateStatus.bindLong(1, result.status.getDatabaseValue());
+                    updateStatus.bindLong(2, result.messageId);
+                    updateStatus.bindLong(3, result.messagePartId);
+                    updateStatus.executeUpdateDelete();
+                }
+            } finally {
+                updateStatus.close();
+            }
+            return null;
+        });
+
+        if (!results.isEmpty()) {
+            localStore.notifyChange();
+        }
+        return available;
+    }
+
+    @Nullable
+    private static Part findCryptoPart(Message message) {
+        List<Part> encryptedParts = MessageCryptoStructureDetector.findMultipartEncryptedParts(message);
+        if (!encryptedParts.isEmpty()) {
+            return encryptedParts.get(0);
+        }
+        List<Part> signedParts = MessageCryptoStructureDetector.findMultipartSignedParts(message);
+        if (!signedParts.isEmpty()) {
+            return signedParts.get(0);
+        }
+        List<Part> inlineParts = MessageCryptoStructureDetector.findPgpInlineParts(message);
+        if (!inlineParts.isEmpty()) {
+            return inlineParts.get(0);
+        }
+        return null;
+    }
+
+    @NonNull
+    private DatabaseCryptoStatus verify(LocalMessage message, Part cryptoPart) {
+        boolean encrypted;
+        boolean inline;
+        boolean supported;
+        boolean complete;
+        if (MessageCryptoStructureDetector.isPartMultipartEncrypted(cryptoPart)) {
+            encrypted = true;
+            inline = false;
+            supported = MessageCryptoStructureDetector.isMultipartEncryptedOpenPgpProtocol(cryptoPart);
+            complete = MessageHelper.isCompletePartAvailable(cryptoPart);
+        } else if (MimeUtility.isSameMimeType(cryptoPart.getMimeType(), MULTIPART_SIGNED)) {
+            encrypted = false;
+            inline = false;
+            supported = MessageCryptoStructureDetector.isMultipartSignedOpenPgpProtocol(cryptoPart);
+            complete = MessageHelper.isCompletePartAvailable(cryptoPart);
+        } else {
+            encrypted = MessageCryptoStructureDetector.isPartPgpInlineEncrypted(cryptoPart);
+            inline = true;
+            supported = true;
+            complete = message.getFlags().contains(Flag.X_DOWNLOADED_FULL);
+        }
+        if (!supported || !complete) {
+            // Incomplete messages are checked again once they are downloaded completely
+            return encrypted ? DatabaseCryptoStatus.ENCRYPTED : DatabaseCryptoStatus.UNVERIFIED;
+        }
+
+        Intent intent = new Intent(OpenPgpApi.ACTION_DECRYPT_VERIFY);
+        Address[] from = message.getFrom();
+        if (from != null && from.length > 0) {
+            intent.putExtra(OpenPgpApi.EXTRA_SENDER_ADDRESS, from[0].getAddress());
+        }
+
+        Intent result;
+        try {
+            if (encrypted || inline) {
+                result = openPgpApi.executeApi(intent, getDataSourceForEncryptedOrInlineData(cryptoPart),
+                        new DiscardingOutputStream());
+            } else {
+                intent.putExtra(OpenPgpApi.EXTRA_DETACHED_SIGNATURE,
+                        MessageCryptoStructureDetector.getSignatureData(cryptoPart));
+                result = openPgpApi.executeApi(intent, getDataSourceForSignedData(cryptoPart), (OutputStream) null);
+            }
+        } catch (IOException | MessagingException e) {
+            Timber.w(e, "Unable to check the crypto status of message %d", message.getDatabaseId());
+            return DatabaseCryptoStatus.PENDING;
+        }
+        return getCryptoStatus(message, result, encrypted);
+    }
+
+    @NonNull
+    private static DatabaseCryptoStatus getCryptoStatus(LocalMessage message, Intent result, boolean encrypted) {
+        int resultCode = result.getIntExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_ERROR);
+        if (resultCode == OpenPgpApi.RESULT_CODE_USER_INTERACTION_REQUIRED) {
+            return encrypted ? DatabaseCryptoStatus.ENCRYPTED : DatabaseCryptoStatus.UNVERIFIED;
+        } else if (resultCode != OpenPgpApi.RESULT_CODE_SUCCESS) {
+            // An error of the provider says nothing about the message itself
+            OpenPgpError error = IntentCompat.getParcelableExtra(result, OpenPgpApi.RESULT_ERROR, OpenPgpError.class);
+            Timber.w("OpenPGP provider couldn't check the crypto status of message %d: %s",
+                    message.getDatabaseId(), (error != null) ? error.getMessage() : null);
+            return DatabaseCryptoStatus.PENDING;
+        }
+
+        OpenPgpDecryptionResult decryptionResult =
+                IntentCompat.getParcelableExtra(result, OpenPgpApi.RESULT_DECRYPTION, OpenPgpDecryptionResult.class);
+        if (decryptionResult != null && decryptionResult.getResult() == OpenPgpDecryptionResult.RESULT_INSECURE) {
+            return DatabaseCryptoStatus.INVALID;
+        }
+        encrypted |= decryptionResult != null && decryptionResult.getResult() == OpenPgpDecryptionResult.RESULT_ENCRYPTED;
+
+        OpenPgpSignatureResult signatureResult =
+                IntentCompat.getParcelableExtra(result, OpenPgpApi.RESULT_SIGNATURE, OpenPgpSignatureResult.class);
+        int signatureStatus = (signatureResult != null) ?
+                signatureResult.getResult() : OpenPgpSignatureResult.RESULT_NO_SIGNATURE;
+        switch (signatureStatus) {
+            case OpenPgpSignatureResult.RESULT_VALID_KEY_CONFIRMED:
+            case OpenPgpSignatureResult.RESULT_VALID_KEY_UNCONFIRMED: {
+                return encrypted ? DatabaseCryptoStatus.ENCRYPTED_SIGNED : DatabaseCryptoStatus.SIGNED;
+            }
+            case OpenPgpSignatureResult.RESULT_KEY_MISSING: {
+                return encrypted ? DatabaseCryptoStatus.ENCRYPTED : DatabaseCryptoStatus.UNVERIFIED;
+            }
+            case OpenPgpSignatureResult.RESULT_NO_SIGNATURE: {
+                // A signed part without a signature is as bad as an invalid one
+                return encrypted ? DatabaseCryptoStatus.ENCRYPTED : DatabaseCryptoStatus.INVALID;
+            }
+            default: {
+                return DatabaseCryptoStatus.INVALID;
+            }
+        }
+    }
+
+    private static OpenPgpDataSource getDataSourceForSignedData(final Part signedPart) {
+        return new OpenPgpDataSource() {
+            @Override
+            public void writeTo(OutputStream os) throws IOException {
+                try {
+                    Multipart multipartSigned = (Multipart) signedPart.getBody();
+                    multipartSigned.getBodyPart(0).writeTo(os);
+                } catch (MessagingException e) {
+                    Timber.e(e, "Exception while writing message to crypto provider");
+                }
+            }
+        };
+    }
+
+    private static OpenPgpDataSource getDataSourceForEncryptedOrInlineData(final Part part) {
+        return new OpenPgpDataSource() {
+            @Override
+            public void writeTo(OutputStream os) throws IOException {
+                try {
+                    if (MessageCryptoStructureDetector.isPartMultipartEncrypted(part)) {
+                        Multipart multipartEncrypted = (Multipart) part.getBody();
+                        Body encryptionPayloadBody = multipartEncrypted.getBodyPart(1).getBody();
+                        encryptionPayloadBody.writeTo(os);
+                    } else {
+                        String text = MessageExtractor.getTextFromPart(part);
+                        if (text != null) {
+                            os.write(text.getBytes());
+                        }
+                    }
+                } catch (MessagingException e) {
+                    Timber.e(e, "MessagingException while writing message to crypto provider");
+                }
+            }
+        };
+    }
+
+    /**
+     * Bind to the OpenPGP provider, unless already bound during this run.
+     *
+     * @return {@code false} if the provider isn't available
+     */
+    private boolean openSession(String openPgpProvider) {
+        if (openPgpApi != null) {
+            return true;
+        }
+
+        final Context context = localStore.getContext();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<IOpenPgpService2> boundService = new AtomicReference<>();
+        serviceConnection = new OpenPgpServiceConnection(context, openPgpProvider, new OnBound() {
+            @Override
+            public void onBound(IOpenPgpService2 service) {
+                boundService.set(service);
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Timber.w(e, "Couldn't connect to OpenPgpService to check the crypto status of messages");
+                latch.countDown();
+            }
+        });
+        serviceConnection.bindToService();
+
+        try {
+            latch.await(BIND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        IOpenPgpService2 service = boundService.get();
+        if (service == null) {
+            return false;
+        }
+        openPgpApi = new OpenPgpApi(context, service);
+        return true;
+    }
+
+    private void closeSession() {
+        if (serviceConnection != null) {
+            try {
+                serviceConnection.unbindFromService();
+            } catch (IllegalArgumentException e) {
+                // Binding failed, there is nothing to unbind
+            }
+            serviceConnection = null;
+        }
+        openPgpApi = null;
+    }
+
+    private static class Result {
+        final long messageId;
+        final long messagePartId;
+        final DatabaseCryptoStatus status;
+
+        Result(LocalMessage message, DatabaseCryptoStatus status) {
+            messageId = message.getDatabaseId();
+            messagePartId = message.getMessagePartId();
+            this.status = status;
+        }
+    }
+
+    /**
+     * Only the status of a message is kept, not its decrypted content.
+     */
+    private static class DiscardingOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(@NonNull byte[] buffer, int offset, int length) {
+        }
+    }
+}
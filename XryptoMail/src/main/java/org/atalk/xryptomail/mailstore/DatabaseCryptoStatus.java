@@ -0,0 +1,54 @@
+package org.atalk.xryptomail.mailstore;
+
+/**
+ * The OpenPGP status of a message, as stored in the 'crypto_status' column of the 'messages' table.
+ * <p>
+ * A message whose status wasn't determined yet has {@code NULL} in that column. The database
+ * values are ordered from plain to signed and encrypted messages, so the message list can be
+ * sorted by the column.
+ * </p>
+ */
+public enum DatabaseCryptoStatus {
+    /**
+     * The message is neither signed nor encrypted.
+     */
+    NONE(0),
+    /**
+     * The message is signed or encrypted, but hasn't been checked by the OpenPGP provider yet, or
+     * the check failed for reasons unrelated to the message.
+     */
+    PENDING(1),
+    /**
+     * The signature is invalid or missing, or the message was decrypted insecurely.
+     */
+    INVALID(2),
+    /**
+     * The message is signed, but the signature couldn't be checked, e.g. because the key is missing.
+     */
+    UNVERIFIED(3),
+    SIGNED(4),
+    /**
+     * The message is encrypted, and it either isn't signed or the signature couldn't be checked.
+     */
+    ENCRYPTED(5),
+    ENCRYPTED_SIGNED(6);
+
+    private final int databaseValue;
+
+    DatabaseCryptoStatus(int databaseValue) {
+        this.databaseValue = databaseValue;
+    }
+
+    public static DatabaseCryptoStatus fromDatabaseValue(int databaseValue) {
+        for (DatabaseCryptoStatus databaseCryptoStatus : values()) {
+            if (databaseCryptoStatus.getDatabaseValue() == databaseValue) {
+                return databaseCryptoStatus;
+            }
+        }
+        throw new AssertionError("Unknown database value: " + databaseValue);
+    }
+
+    public int getDatabaseValue() {
+        return databaseValue;
+    }
+}
@@ -0,0 +1,89 @@
+package org.atalk.xryptomail.mailstore;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * The 'extraction_queue' table marks the messages whose preview, attachment count or search index
+ * entry still have to be extracted from their content.
+ * <p>
+ * Extracting these walks the whole part tree of a message and converts HTML to text, so it is not
+ * done while the message is saved. Triggers on 'messages' queue the work instead, and
+ * {@link ExtractionWorker} does it in the background. Each queue row holds a bit mask of the
+ * pending tasks and the number of failed attempts to load the message. Re-queueing a message
+ * replaces its row, so the id of the row changes and the attempts are reset whenever the message
+ * changes again while it is being processed.
+ * </p>
+ */
+public class ExtractionQueue {
+    public static final String TABLE = "extraction_queue";
+
+    /**
+     * Add the subject, sender and body of the message to {@link MessageSearchIndex#TABLE}.
+     */
+    static final int TASK_SEARCH_INDEX = 1;
+
+    /**
+     * Set the 'preview', 'preview_type' and 'attachment_count' columns of the message.
+     */
+    static final int TASK_PREVIEW = 2;
+
+    private static final int ALL_TASKS = TASK_SEARCH_INDEX | TASK_PREVIEW;
+
+    public static void createTable(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS extraction_queue");
+        db.execSQL("CREATE TABLE extraction_queue (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "message_id INTEGER NOT NULL UNIQUE, " +
+                "tasks INTEGER NOT NULL, " +
+                "attempts INTEGER NOT NULL DEFAULT 0" +
+                ")");
+    }
+
+    public static void createTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS extraction_message_insert");
+        db.execSQL("CREATE TRIGGER extraction_message_insert " +
+                "AFTER INSERT ON messages " +
+                "WHEN NEW.deleted = 0 AND NEW.empty = 0 " +
+                "BEGIN " +
+                queueMessage("NEW.id", ALL_TASKS) +
+                "END");
+
+        // The message content is replaced by storing a new part tree
+        db.execSQL("DROP TRIGGER IF EXISTS extraction_message_content");
+        db.execSQL("CREATE TRIGGER extraction_message_content " +
+                "AFTER UPDATE OF message_part_id ON messages " +
+                "WHEN NEW.deleted = 0 AND NEW.empty = 0 " +
+                "BEGIN " +
+                queueMessage("NEW.id", ALL_TASKS) +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS extraction_message_update");
+        db.execSQL("CREATE TRIGGER extraction_message_update " +
+                "AFTER UPDATE OF subject, sender_list, deleted, empty ON messages " +
+                "WHEN NEW.deleted = 0 AND NEW.empty = 0 " +
+                "BEGIN " +
+                queueMessage("NEW.id", TASK_SEARCH_INDEX) +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS extraction_message_remove");
+        db.execSQL("CREATE TRIGGER extraction_message_remove " +
+                "AFTER UPDATE OF deleted, empty ON messages " +
+                "WHEN NEW.deleted != 0 OR NEW.empty != 0 " +
+                "BEGIN " +
+                "DELETE FROM extraction_queue WHERE message_id = NEW.id; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS extraction_message_delete");
+        db.execSQL("CREATE TRIGGER extraction_message_delete " +
+                "AFTER DELETE ON messages " +
+                "BEGIN " +
+                "DELETE FROM extraction_queue WHERE message_id = OLD.id; " +
+                "END");
+    }
+
+    private static String queueMessage(String messageId, int tasks) {
+        return "INSERT OR REPLACE INTO extraction_queue (message_id, tasks) VALUES (" + messageId + ", " +
+                "IFNULL((SELECT tasks FROM extraction_queue WHERE message_id = " + messageId + "), 0) | " +
+                tasks + "); ";
+    }
+}
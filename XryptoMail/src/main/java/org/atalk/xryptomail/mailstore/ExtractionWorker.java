@@ -0,0 +1,313 @@
+package org.atalk.xryptomail.mailstore;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Process;
+import android.text.TextUtils;
+
+import org.atalk.xryptomail.mail.Address;
+import org.atalk.xryptomail.mail.FetchProfile;
+import org.atalk.xryptomail.mail.MessagingException;
+import org.atalk.xryptomail.mailstore.LockableDatabase.DbCallback;
+import org.atalk.xryptomail.message.extractors.AttachmentCounter;
+import org.atalk.xryptomail.message.extractors.MessageFulltextCreator;
+import org.atalk.xryptomail.message.extractors.MessagePreviewCreator;
+import org.atalk.xryptomail.message.extractors.PreviewResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * Works off the {@link ExtractionQueue} of a {@link LocalStore} in the background.
+ * <p>
+ * The queue is processed in batches: the messages of a batch are loaded and their preview,
+ * attachment count and text are extracted without holding the database lock, then the results of
+ * the whole batch are written in one short transaction. Messages that changed again in the
+ * meantime stay queued. The stores of all accounts share a small pool of low priority threads;
+ * the queue of one store is only processed by one thread at a time.
+ * </p>
+ * <p>
+ * A message that can't be loaded stays queued and is tried again on the next run, up to
+ * {@link #MAX_LOAD_ATTEMPTS} times. After that only its subject and sender are indexed.
+ * </p>
+ * <p>
+ * Along with the preview, signed and encrypted messages are marked for the
+ * {@link CryptoStatusVerifier}, which is started once the queue is empty.
+ * </p>
+ */
+class ExtractionWorker {
+    private static final int BATCH_SIZE = 50;
+    private static final int WORKER_COUNT = 2;
+    private static final int MAX_LOAD_ATTEMPTS = 3;
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(WORKER_COUNT, runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        });
+        thread.setName("ExtractionWorker");
+        return thread;
+    });
+
+    private final LocalStore localStore;
+    private final MessagePreviewCreator previewCreator;
+    private final AttachmentCounter attachmentCounter;
+    private final MessageFulltextCreator fulltextCreator;
+    private final FetchProfile fetchProfile = new FetchProfile();
+
+    /**
+     * Number of {@link #schedule()} calls not yet covered by a run over the queue.
+     */
+    private final AtomicInteger requests = new AtomicInteger(0);
+
+    ExtractionWorker(LocalStore localStore) {
+        this.localStore = localStore;
+        previewCreator = localStore.getMessagePreviewCreator();
+        attachmentCounter = localStore.getAttachmentCounter();
+        fulltextCreator = localStore.getMessageFulltextCreator();
+        fetchProfile.add(FetchProfile.Item.BODY);
+    }
+
+    /**
+     * Process the queued messages. Does nothing if the queue is already being processed; messages
+     * queued in the meantime are picked up by the running worker.
+     */
+    void schedule() {
+        if (requests.getAndIncrement() == 0) {
+            executor.execute(this::run);
+        }
+    }
+
+    private void run() {
+        int handled;
+        do {
+            handled = requests.get();
+            processQueue();
+        } while (requests.addAndGet(-handled) != 0);
+    }
+
+    private void processQueue() {
+        try {
+            int count = 0;
+            long lastEntryId = 0;
+            List<QueueEntry> processed;
+            // Entries kept for a retry are skipped until the next run
+            while (!(processed = processNextBatch(lastEntryId)).isEmpty()) {
+                count += processed.size();
+                lastEntryId = processed.get(processed.size() - 1).id;
+            }
+            if (count > 0) {
+                Timber.d("Extracted preview and search data of %d messages", count);
+                localStore.getCryptoStatusVerifier().schedule();
+            }
+        } catch (Exception e) {
+            Timber.w(e, "Message extraction stopped, remaining messages stay queued");
+        }
+    }
+
+    /**
+     * @return the queue entries processed, in the order of their ids
+     */
+    private List<QueueEntry> processNextBatch(final long afterEntryId) throws MessagingException {
+        final List<QueueEntry> entries = localStore.getDatabase().execute(false, db -> {
+            List<QueueEntry> queued = new ArrayList<>();
+            try (Cursor cursor = db.rawQuery("SELECT id, message_id, tasks, attempts FROM extraction_queue " +
+                    "WHERE id > ? ORDER BY id LIMIT " + BATCH_SIZE, new String[] { Long.toString(afterEntryId) })) {
+                while (cursor.moveToNext()) {
+                    queued.add(new QueueEntry(cursor.getLong(0), cursor.getLong(1), cursor.getInt(2),
+                            cursor.getInt(3)));
+                }
+            }
+            return queued;
+        });
+        if (entries.isEmpty()) {
+            return entries;
+        }
+
+        String[] args = new String[entries.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = Long.toString(entries.get(i).messageId);
+        }
+        String selection = "messages.id IN (" + TextUtils.join(",", Collections.nCopies(args.length, "?")) + ")";
+        Map<Long, LocalMessage> messages = new HashMap<>();
+        for (LocalMessage message : new LocalMessageIterator(localStore, selection, args).toList()) {
+            messages.put(message.getDatabaseId(), message);
+        }
+
+        boolean previewsChanged = false;
+        for (QueueEntry entry : entries) {
+            LocalMessage message = messages.get(entry.messageId);
+            if (message != null) {
+                extract(entry, message);
+                previewsChanged |= entry.previewResult != null;
+            }
+        }
+
+        localStore.getDatabase().execute(true, (DbCallback<Void>) db -> {
+            SQLiteStatement deleteQueueEntry = db.compileStatement("DELETE FROM extraction_queue WHERE id = ?");
+            SQLiteStatement countAttempt = db.compileStatement("UPDATE extraction_queue " +
+                    "SET attempts = attempts + 1 WHERE id = ?");
+            SQLiteStatement updatePreview = db.compileStatement("UPDATE messages SET " +
+                    "preview_type = ?, preview = ?, attachment_count = ?, crypto_status = ? WHERE id = ?");
+            SQLiteStatement deleteIndexRow = db.compileStatement("DELETE FROM messages_search WHERE rowid = ?");
+            SQLiteStatement insertIndexRow = db.compileStatement("INSERT INTO messages_search " +
+                    "(rowid, subject, sender, body) " +
+                    "SELECT id, ?, ?, ? FROM messages WHERE id = ? AND deleted = 0 AND empty = 0");
+            try {
+                for (QueueEntry entry : entries) {
+                    // A message queued again in the meantime has a new entry, with its attempts reset
+                    if (entry.retry) {
+                        countAttempt.bindLong(1, entry.id);
+                        countAttempt.executeUpdateDelete();
+                        continue;
+                    }
+
+                    // The results are outdated if the message was queued again in the meantime
+                    deleteQueueEntry.bindLong(1, entry.id);
+                    if (deleteQueueEntry.executeUpdateDelete() == 0) {
+                        continue;
+                    }
+
+                    if (entry.previewResult != null) {
+                        PreviewResult previewResult = entry.previewResult;
+                        DatabasePreviewType previewType =
+                                DatabasePreviewType.fromPreviewType(previewResult.getPreviewType());
+                        updatePreview.bindString(1, previewType.getDatabaseValue());
+                        bindText(updatePreview, 2,
+                                previewResult.isPreviewTextAvailable() ? previewResult.getPreviewText() : null);
+                        updatePreview.bindLong(3, entry.attachmentCount);
+                        updatePreview.bindLong(4, entry.cryptoStatus.getDatabaseValue());
+                        updatePreview.bindLong(5, entry.messageId);
+                        updatePreview.executeUpdateDelete();
+                    }
+
+                    if (entry.searchDocument != null) {
+                        deleteIndexRow.bindLong(1, entry.messageId);
+                        deleteIndexRow.executeUpdateDelete();
+
+                        bindText(insertIndexRow, 1, entry.searchDocument[0]);
+                        bindText(insertIndexRow, 2, entry.searchDocument[1]);
+                        bindText(insertIndexRow, 3, entry.searchDocument[2]);
+                        insertIndexRow.bindLong(4, entry.messageId);
+                        insertIndexRow.executeInsert();
+                    }
+                }
+            } finally {
+                deleteQueueEntry.close();
+                countAttempt.close();
+                updatePreview.close();
+                deleteIndexRow.close();
+                insertIndexRow.close();
+            }
+            return null;
+        });
+
+        if (previewsChanged) {
+            localStore.notifyChange();
+        }
+        return entries;
+    }
+
+    private void extract(QueueEntry entry, LocalMessage message) {
+        boolean bodyLoaded;
+        try {
+            message.getFolder().fetch(Collections.singletonList(message), fetchProfile, null);
+            bodyLoaded = true;
+        } catch (Exception e) {
+            Timber.w(e, "Unable to load message %d for extraction", message.getDatabaseId());
+            bodyLoaded = false;
+        }
+
+        if (!bodyLoaded && entry.attempts + 1 < MAX_LOAD_ATTEMPTS) {
+            entry.retry = true;
+            return;
+        }
+
+        if ((entry.tasks & ExtractionQueue.TASK_PREVIEW) != 0 && bodyLoaded) {
+            try {
+                entry.previewResult = previewCreator.createPreview(message);
+                entry.attachmentCount = attachmentCounter.getAttachmentCount(message);
+                entry.cryptoStatus = CryptoStatusVerifier.detectCryptoStatus(message);
+            } catch (Exception e) {
+                Timber.w(e, "Unable to create the preview of message %d", message.getDatabaseId());
+                entry.previewResult = PreviewResult.error();
+                entry.attachmentCount = 0;
+                entry.cryptoStatus = DatabaseCryptoStatus.NONE;
+            }
+        }
+
+        if ((entry.tasks & ExtractionQueue.TASK_SEARCH_INDEX) != 0) {
+            String body = null;
+            if (bodyLoaded) {
+                try {
+                    body = fulltextCreator.createFulltext(message);
+                } catch (Exception e) {
+                    // Still index the subject and sender
+                    Timber.w(e, "Unable to extract the text of message %d for search", message.getDatabaseId());
+                }
+            }
+            entry.searchDocument = new String[]{message.getSubject(), getSenderText(message), body};
+        }
+    }
+
+    private static String getSenderText(LocalMessage message) {
+        Address[] from = message.getFrom();
+        if (from == null) {
+            return null;
+        }
+        List<String> parts = new ArrayList<>();
+        for (Address address : from) {
+            if (!TextUtils.isEmpty(address.getPersonal())) {
+                parts.add(address.getPersonal());
+            }
+            parts.add(address.getAddress());
+        }
+        return TextUtils.join(" ", parts);
+    }
+
+    private static void bindText(SQLiteStatement statement, int index, String text) {
+        if (text == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, text);
+        }
+    }
+
+    private static class QueueEntry {
+        final long id;
+        final long messageId;
+        final int tasks;
+        /**
+         * Number of earlier runs that failed to load the message.
+         */
+        final int attempts;
+
+        /**
+         * The message couldn't be loaded and stays queued for another attempt.
+         */
+        boolean retry;
+
+        PreviewResult previewResult;
+        int attachmentCount;
+        DatabaseCryptoStatus cryptoStatus;
+        /**
+         * Subject, sender and body text for {@link MessageSearchIndex#TABLE}.
+         */
+        String[] searchDocument;
+
+        QueueEntry(long id, long messageId, int tasks, int attempts) {
+            this.id = id;
+            this.messageId = messageId;
+            this.tasks = tasks;
+            this.attempts = attempts;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.atalk.xryptomail.mailstore;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Keeps the 'unread_count' and 'flagged_count' columns of the 'folders' table exact, so account
+ * and folder statistics can be summed over the folders instead of scanning 'messages'.
+ * <p>
+ * Only messages that are neither deleted nor empty are counted. Triggers on 'messages' subtract
+ * the old state of a row from its old folder and add the new state to its new folder.
+ * </p>
+ */
+public class FolderCountersSchema {
+    public static void createTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS folder_counters_message_insert");
+        db.execSQL("CREATE TRIGGER folder_counters_message_insert " +
+                "AFTER INSERT ON messages " +
+                "BEGIN " +
+                addCounts("NEW", "+") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS folder_counters_message_update");
+        db.execSQL("CREATE TRIGGER folder_counters_message_update " +
+                "AFTER UPDATE OF read, flagged, deleted, empty, folder_id ON messages " +
+                "BEGIN " +
+                addCounts("OLD", "-") +
+                addCounts("NEW", "+") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS folder_counters_message_delete");
+        db.execSQL("CREATE TRIGGER folder_counters_message_delete " +
+                "AFTER DELETE ON messages " +
+                "BEGIN " +
+                addCounts("OLD", "-") +
+                "END");
+    }
+
+    /**
+     * Recompute the counters of all folders.
+     */
+    public static void rebuild(SQLiteDatabase db) {
+        db.execSQL("UPDATE folders SET " +
+                "unread_count = (SELECT COUNT(*) FROM messages m " +
+                "WHERE m.folder_id = folders.id AND m.deleted = 0 AND m.empty = 0 AND m.read = 0), " +
+                "flagged_count = (SELECT COUNT(*) FROM messages m " +
+                "WHERE m.folder_id = folders.id AND m.deleted = 0 AND m.empty = 0 AND m.flagged != 0)");
+    }
+
+    private static String addCounts(String row, String operator) {
+        String counted = row + ".deleted = 0 AND " + row + ".empty = 0";
+        return "UPDATE folders SET " +
+                "unread_count = IFNULL(unread_count, 0) " + operator + " (" + counted + " AND " + row + ".read = 0), " +
+                "flagged_count = IFNULL(flagged_count, 0) " + operator + " (" + counted + " AND " + row + ".flagged != 0) " +
+                "WHERE id = " + row + ".folder_id AND (" + counted + "); ";
+    }
+}
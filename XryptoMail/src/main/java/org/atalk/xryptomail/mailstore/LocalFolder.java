@@ -38,12 +38,7 @@ import org.atalk.xryptomail.mail.internet.SizeAware;
 import org.atalk.xryptomail.mail.message.MessageHeaderParser;
 import org.atalk.xryptomail.mailstore.LockableDatabase.DbCallback;
 import org.atalk.xryptomail.mailstore.LockableDatabase.WrappedException;
-import org.atalk.xryptomail.message.extractors.AttachmentCounter;
 import org.atalk.xryptomail.message.extractors.AttachmentInfoExtractor;
-import org.atalk.xryptomail.message.extractors.MessageFulltextCreator;
-import org.atalk.xryptomail.message.extractors.MessagePreviewCreator;
-import org.atalk.xryptomail.message.extractors.PreviewResult;
-import org.atalk.xryptomail.message.extractors.PreviewResult.PreviewType;
 import org.atalk.xryptomail.preferences.Storage;
 import org.atalk.xryptomail.preferences.StorageEditor;
 import org.atalk.xryptomail.ui.messageview.MessageViewFragment;
@@ -96,6 +91,8 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
     // know whether or not an unread message added to the local folder is actually "new" or not.
     private Integer mLastUid = null;
     private MoreMessages moreMessages = MoreMessages.UNKNOWN;
+    private long highestModSeq = 0;
+    private long uidValidity = 0;
 
     public LocalFolder(LocalStore localStore, String name) {
         super();
@@ -200,6 +197,8 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         mSyncClass = Folder.FolderClass.valueOf((syncClass == null) ? noClass : syncClass);
         String moreMessagesValue = cursor.getString(LocalStore.MORE_MESSAGES_INDEX);
         moreMessages = MoreMessages.fromDatabaseName(moreMessagesValue);
+        highestModSeq = cursor.getLong(LocalStore.FOLDER_HIGHEST_MOD_SEQ_INDEX);
+        uidValidity = cursor.getLong(LocalStore.FOLDER_UID_VALIDITY_INDEX);
     }
 
     @Override
@@ -443,6 +442,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                 db.execSQL("UPDATE folders SET " + column + " = ? WHERE id = ?", new Object[]{value, mDatabaseId});
                 return null;
             });
+            mLocalStore.countChange();
         } catch (WrappedException e) {
             throw (MessagingException) e.getCause();
         }
@@ -531,6 +531,42 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         updateFolderColumn("more_messages", moreMessages.getDatabaseName());
     }
 
+    /**
+     * @return the remote folder's HIGHESTMODSEQ up to which the local message flags are known to
+     * be in sync, or {@code 0} if unknown.
+     */
+    @Override
+    public long getHighestModSeq() {
+        return highestModSeq;
+    }
+
+    public void setHighestModSeq(long highestModSeq)
+            throws MessagingException {
+        if (this.highestModSeq == highestModSeq) {
+            return;
+        }
+        this.highestModSeq = highestModSeq;
+        updateFolderColumn("highest_mod_seq", highestModSeq);
+    }
+
+    /**
+     * @return the remote folder's UIDVALIDITY the stored {@link #getHighestModSeq() mod-sequence}
+     * belongs to, or {@code 0} if unknown.
+     */
+    @Override
+    public long getUidValidity() {
+        return uidValidity;
+    }
+
+    public void setUidValidity(long uidValidity)
+            throws MessagingException {
+        if (this.uidValidity == uidValidity) {
+            return;
+        }
+        this.uidValidity = uidValidity;
+        updateFolderColumn("uid_validity", uidValidity);
+    }
+
     private String getPrefId(String name) {
         if (prefId == null) {
             prefId = mAccount.getUuid() + "." + name;
@@ -963,7 +999,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                         uidMap.put(oldUID, newUid);
 
                         // Message threading in the target folder
-                        ThreadInfo threadInfo = lDestFolder.doMessageThreading(db, message);
+                        ThreadInfo threadInfo = lDestFolder.doMessageThreading(db, message, null);
 
                         /*
                          * "Move" the message into the new folder
@@ -1045,23 +1081,52 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
     }
 
     /**
-     * Convenience transaction wrapper for storing a message and set it as fully downloaded. Implemented mainly to speed up DB transaction commit.
+     * Store a batch of messages in a single transaction and set them as fully downloaded.
+     * <p>
+     * If the batch can't be stored, the messages are stored one by one so a single bad message
+     * doesn't drop the others.
+     * </p>
      *
-     * @param message Message to store. Never <code>null</code>.
-     * @param runnable What to do before setting {@link Flag#X_DOWNLOADED_FULL}. Never <code>null</code>.
-     * @return The local version of the message. Never <code>null</code>.
+     * @param messages Messages to store. Never <code>null</code>.
+     * @return The local versions of the messages, in the same order; <code>null</code> for a message
+     * that couldn't be stored. Never <code>null</code>.
      * @throws MessagingException
      */
-    public LocalMessage storeSmallMessage(final Message message, final Runnable runnable)
+    public List<LocalMessage> storeSmallMessages(final List<? extends Message> messages)
+            throws MessagingException {
+        try {
+            return storeSmallMessagesInTransaction(messages);
+        } catch (MessagingException | RuntimeException e) {
+            if (messages.size() == 1) {
+                Timber.e(e, "Unable to store message %s in %s", messages.get(0).getUid(), getServerId());
+                return Collections.singletonList(null);
+            }
+            Timber.w(e, "Unable to store %d messages in %s; storing them one by one", messages.size(), getServerId());
+        }
+
+        List<LocalMessage> result = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            try {
+                result.add(storeSmallMessagesInTransaction(Collections.singletonList(message)).get(0));
+            } catch (MessagingException | RuntimeException e) {
+                Timber.e(e, "Unable to store message %s in %s", message.getUid(), getServerId());
+                result.add(null);
+            }
+        }
+        return result;
+    }
+
+    private List<LocalMessage> storeSmallMessagesInTransaction(final List<? extends Message> messages)
             throws MessagingException {
         return mLocalStore.getDatabase().execute(true, db -> {
             try {
-                appendMessages(Collections.singletonList(message));
-                final String uid = message.getUid();
-                final LocalMessage result = getMessage(uid);
-                runnable.run();
-                // Set a flag indicating this message has now be fully downloaded
-                result.setFlag(Flag.X_DOWNLOADED_FULL, true);
+                appendMessages(messages);
+                List<LocalMessage> result = new ArrayList<>(messages.size());
+                for (Message message : messages) {
+                    LocalMessage localMessage = getMessage(message.getUid());
+                    localMessage.setFlag(Flag.X_DOWNLOADED_FULL, true);
+                    result.add(localMessage);
+                }
                 return result;
             } catch (MessagingException e) {
                 throw new WrappedException(e);
@@ -1153,13 +1218,17 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         open(OPEN_MODE_RW);
         try {
             final Map<String, String> uidMap = new HashMap<>();
+            // All messages are stored in one transaction, through statements compiled once for the call
             mLocalStore.getDatabase().execute(true, (DbCallback<Void>) db -> {
+                MessageInsertBatch batch = new MessageInsertBatch(db);
                 try {
                     for (Message message : messages) {
-                        saveMessage(db, message, copy, uidMap);
+                        saveMessage(db, message, copy, uidMap, batch);
                     }
                 } catch (MessagingException e) {
                     throw new WrappedException(e);
+                } finally {
+                    batch.close();
                 }
                 return null;
             });
@@ -1172,6 +1241,17 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
 
     protected void saveMessage(SQLiteDatabase db, Message message, boolean copy, Map<String, String> uidMap)
             throws MessagingException {
+        MessageInsertBatch batch = new MessageInsertBatch(db);
+        try {
+            saveMessage(db, message, copy, uidMap, batch);
+        } finally {
+            batch.close();
+        }
+    }
+
+    private void saveMessage(SQLiteDatabase db, Message message, boolean copy, Map<String, String> uidMap,
+            MessageInsertBatch batch)
+            throws MessagingException {
         if (!(message instanceof MimeMessage)) {
             throw new Error("LocalStore can only store Messages that extend MimeMessage");
         }
@@ -1194,6 +1274,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
             uid = randomLocalUid;
         } else {
             // Replace an existing message in the database
+            batch.flushThreads();
             LocalMessage oldMessage = getMessage(uid);
             if (oldMessage != null) {
                 oldMessageId = oldMessage.getDatabaseId();
@@ -1203,26 +1284,15 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         }
         long rootId = -1;
         long parentId = -1;
-        long msgId;
         if (oldMessageId == -1) {
             // This is a new message. Do the message threading.
-            ThreadInfo threadInfo = doMessageThreading(db, message);
+            ThreadInfo threadInfo = doMessageThreading(db, message, batch);
             oldMessageId = threadInfo.msgId;
             rootId = threadInfo.rootId;
             parentId = threadInfo.parentId;
         }
         try {
-            MessagePreviewCreator previewCreator = mLocalStore.getMessagePreviewCreator();
-            PreviewResult previewResult = previewCreator.createPreview(message);
-            PreviewType previewType = previewResult.getPreviewType();
-            DatabasePreviewType databasePreviewType = DatabasePreviewType.fromPreviewType(previewType);
-
-            MessageFulltextCreator fulltextCreator = mLocalStore.getMessageFulltextCreator();
-            String fulltext = fulltextCreator.createFulltext(message);
-            AttachmentCounter attachmentCounter = mLocalStore.getAttachmentCounter();
-            int attachmentCount = attachmentCounter.getAttachmentCount(message);
-
-            long rootMessagePartId = saveMessageParts(db, message);
+            long rootMessagePartId = saveMessageParts(db, message, batch);
 
             ContentValues cv = new ContentValues();
             cv.put("message_part_id", rootMessagePartId);
@@ -1243,57 +1313,37 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
             cv.put("cc_list", Address.pack(message.getRecipients(RecipientType.CC)));
             cv.put("bcc_list", Address.pack(message.getRecipients(RecipientType.BCC)));
             cv.put("reply_to_list", Address.pack(message.getReplyTo()));
-            cv.put("attachment_count", attachmentCount);
             cv.put("internal_date", message.getInternalDate() == null
                     ? System.currentTimeMillis() : message.getInternalDate().getTime());
             cv.put("mime_type", message.getMimeType());
             cv.put("empty", 0);
 
-            cv.put("preview_type", databasePreviewType.getDatabaseValue());
-            if (previewResult.isPreviewTextAvailable()) {
-                cv.put("preview", previewResult.getPreviewText());
-            } else {
-                cv.putNull("preview");
-            }
-
             String messageId = message.getMessageId();
             if (messageId != null) {
                 cv.put("message_id", messageId);
             }
 
             if (oldMessageId == -1) {
-                msgId = db.insert("messages", "uid", cv);
-
-                // Create entry in 'threads' table
-                cv.clear();
-                cv.put("message_id", msgId);
+                // Preview and attachment count are set by the ExtractionWorker; a replaced message
+                // keeps its old values until then.
+                cv.put("preview_type", DatabasePreviewType.NONE.getDatabaseValue());
+                cv.putNull("preview");
+                cv.put("attachment_count", 0);
+                long msgId = batch.insertMessage(cv);
 
-                if (rootId != -1) {
-                    cv.put("root", rootId);
-                }
-                if (parentId != -1) {
-                    cv.put("parent", parentId);
-                }
-                db.insert("threads", null, cv);
+                // Create entry in 'threads' table; deferred to the end of the batch
+                batch.addThread(msgId, messageId, rootId, parentId);
             } else {
-                msgId = oldMessageId;
                 db.update("messages", cv, "id = ?", new String[]{Long.toString(oldMessageId)});
             }
-
-            if (fulltext != null) {
-                cv.clear();
-                cv.put("docid", msgId);
-                cv.put("fulltext", fulltext);
-                db.replace("messages_fulltext", null, cv);
-            }
         } catch (Exception e) {
             throw new MessagingException("Error appending message: " + message.getSubject(), e);
         }
     }
 
-    private long saveMessageParts(SQLiteDatabase db, Message message)
+    private long saveMessageParts(SQLiteDatabase db, Message message, MessageInsertBatch batch)
             throws IOException, MessagingException {
-        long rootMessagePartId = saveMessagePart(db, new PartContainer(-1, message), -1, 0);
+        long rootMessagePartId = saveMessagePart(db, new PartContainer(-1, message), -1, 0, batch);
 
         Stack<PartContainer> partsToSave = new Stack<>();
         addChildrenToStack(partsToSave, message, rootMessagePartId);
@@ -1301,14 +1351,15 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         int order = 1;
         while (!partsToSave.isEmpty()) {
             PartContainer partContainer = partsToSave.pop();
-            long messagePartId = saveMessagePart(db, partContainer, rootMessagePartId, order);
+            long messagePartId = saveMessagePart(db, partContainer, rootMessagePartId, order, batch);
             order++;
             addChildrenToStack(partsToSave, partContainer.part, messagePartId);
         }
         return rootMessagePartId;
     }
 
-    private long saveMessagePart(SQLiteDatabase db, PartContainer partContainer, long rootMessagePartId, int order)
+    private long saveMessagePart(SQLiteDatabase db, PartContainer partContainer, long rootMessagePartId, int order,
+            MessageInsertBatch batch)
             throws IOException, MessagingException {
         Part part = partContainer.part;
         ContentValues cv = new ContentValues();
@@ -1318,7 +1369,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         cv.put("parent", partContainer.parent);
         cv.put("seq", order);
         cv.put("server_extra", part.getServerExtra());
-        return updateOrInsertMessagePart(db, cv, part, INVALID_MESSAGE_PART_ID);
+        return updateOrInsertMessagePart(db, cv, part, INVALID_MESSAGE_PART_ID, batch);
     }
 
     private void moveTemporaryFile(File tempFile, String messagePartId)
@@ -1327,7 +1378,8 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         FileHelper.renameOrMoveByCopying(tempFile, destinationFile);
     }
 
-    private long updateOrInsertMessagePart(SQLiteDatabase db, ContentValues cv, Part part, long existingMessagePartId)
+    private long updateOrInsertMessagePart(SQLiteDatabase db, ContentValues cv, Part part, long existingMessagePartId,
+            MessageInsertBatch batch)
             throws IOException, MessagingException {
         byte[] headerBytes = getHeaderBytes(part);
 
@@ -1351,6 +1403,8 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         if (existingMessagePartId != INVALID_MESSAGE_PART_ID) {
             messagePartId = existingMessagePartId;
             db.update("message_parts", cv, "id = ?", new String[]{Long.toString(messagePartId)});
+        } else if (batch != null) {
+            messagePartId = batch.insertMessagePart(cv);
         } else {
             messagePartId = db.insertOrThrow("message_parts", null, cv);
         }
@@ -1398,19 +1452,22 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         SizeAware sizeAwareBody = (SizeAware) body;
         long fileSize = sizeAwareBody.getSize();
 
+        // Bodies fetched from the server have their decoded size counted while they were downloaded
+        long decodedSize = (body instanceof BinaryTempFileBody) ? ((BinaryTempFileBody) body).getDecodedSize() : -1;
+
         File file = null;
         int dataLocation;
         if (fileSize > MAX_BODY_SIZE_FOR_DATABASE) {
             dataLocation = DataLocation.ON_DISK;
             file = writeBodyToDiskIfNecessary(part);
-            long size = decodeAndCountBytes(file, encoding, fileSize);
+            long size = (decodedSize != -1) ? decodedSize : decodeAndCountBytes(file, encoding, fileSize);
             cv.put("decoded_body_size", size);
         } else {
             dataLocation = DataLocation.IN_DATABASE;
             byte[] bodyData = getBodyBytes(body);
             cv.put("data", bodyData);
 
-            long size = decodeAndCountBytes(bodyData, encoding, bodyData.length);
+            long size = (decodedSize != -1) ? decodedSize : decodeAndCountBytes(bodyData, encoding, bodyData.length);
             cv.put("decoded_body_size", size);
         }
         cv.put("data_location", dataLocation);
@@ -1525,7 +1582,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                 messagePartId = cursor.getLong(0);
             }
             try {
-                updateOrInsertMessagePart(db, new ContentValues(), part, messagePartId);
+                updateOrInsertMessagePart(db, new ContentValues(), part, messagePartId, null);
             } catch (Exception e) {
                 Timber.e(e, "Error writing message part");
             }
@@ -1641,6 +1698,8 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
 
         mLocalStore.notifyChange();
         setPushState(null);
+        setHighestModSeq(0);
+        setUidValidity(0);
         setLastPush(0);
         setLastChecked(0);
         setVisibleLimit(mAccount.getDisplayCount());
@@ -1664,6 +1723,8 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                 db.execSQL("DELETE FROM folders WHERE id = ?", new Object[]{Long.toString(mDatabaseId),});
                 return null;
             });
+            // The folder's messages are deleted along with it by the 'delete_folder' trigger
+            mLocalStore.notifyChange();
         } catch (WrappedException e) {
             throw (MessagingException) e.getCause();
         }
@@ -1694,8 +1755,6 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                 try {
                     deleteMessagePartsAndDataFromDisk(messagePartId);
 
-                    deleteFulltextIndexEntry(db, messageId);
-
                     if (hasThreadChildren(db, messageId)) {
                         // This message has children in the thread structure so we need to
                         // make it an empty message.
@@ -1801,11 +1860,6 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         db.delete("threads", "message_id = ?", idArg);
     }
 
-    void deleteFulltextIndexEntry(SQLiteDatabase db, long messageId) {
-        String[] idArg = {Long.toString(messageId)};
-        db.delete("messages_fulltext", "docid = ?", idArg);
-    }
-
     void deleteMessagePartsAndDataFromDisk(final long rootMessagePartId)
             throws MessagingException {
         deleteMessageDataFromDisk(rootMessagePartId);
@@ -1913,7 +1967,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         });
     }
 
-    private ThreadInfo doMessageThreading(SQLiteDatabase db, Message message) {
+    private ThreadInfo doMessageThreading(SQLiteDatabase db, Message message, MessageInsertBatch batch) {
         long rootId = -1;
         long parentId = -1;
 
@@ -1951,7 +2005,18 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         }
 
         for (String reference : messageIds) {
-            ThreadInfo threadInfo = getThreadInfo(db, reference, false);
+            // The referenced message may have been stored earlier in this batch, with its 'threads'
+            // row still queued
+            ThreadInfo threadInfo = null;
+            if (batch != null) {
+                threadInfo = batch.getPendingThreadInfo(reference);
+                if (threadInfo == null) {
+                    batch.flushThreads();
+                }
+            }
+            if (threadInfo == null) {
+                threadInfo = getThreadInfo(db, reference, false);
+            }
 
             if (threadInfo == null) {
                 // Create placeholder message in 'messages' table
@@ -1983,6 +2048,9 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                     // Connect it to the current parent.
 
                     // Let all children know who's the new root
+                    if (batch != null) {
+                        batch.flushThreads();
+                    }
                     ContentValues cv = new ContentValues();
                     cv.put("root", rootId);
                     db.update("threads", cv, "root = ?", new String[]{Long.toString(threadInfo.threadId)});
@@ -10,6 +10,7 @@ import org.atalk.xryptomail.Account;
 import org.atalk.xryptomail.BuildConfig;
 import org.atalk.xryptomail.activity.MessageReference;
 import org.atalk.xryptomail.mail.Address;
+import org.atalk.xryptomail.mail.FetchProfile;
 import org.atalk.xryptomail.mail.Flag;
 import org.atalk.xryptomail.mail.Folder;
 import org.atalk.xryptomail.mail.MessagingException;
@@ -17,11 +18,13 @@ import org.atalk.xryptomail.mail.internet.MimeMessage;
 import org.atalk.xryptomail.mail.message.MessageHeaderParser;
 import org.atalk.xryptomail.mailstore.LockableDatabase.DbCallback;
 import org.atalk.xryptomail.mailstore.LockableDatabase.WrappedException;
+import org.atalk.xryptomail.message.extractors.PreviewResult;
 import org.atalk.xryptomail.message.extractors.PreviewResult.PreviewType;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Collections;
 import java.util.Date;
 
 import timber.log.Timber;
@@ -165,6 +168,19 @@ public class LocalMessage extends MimeMessage
         return mPreview;
     }
 
+    /**
+     * Create the preview from the message body, for a message whose preview wasn't extracted in the
+     * background yet. The result isn't stored; {@link ExtractionWorker} does that.
+     */
+    public PreviewResult createPreview()
+            throws MessagingException
+    {
+        FetchProfile fetchProfile = new FetchProfile();
+        fetchProfile.add(FetchProfile.Item.BODY);
+        getFolder().fetch(Collections.singletonList(this), fetchProfile, null);
+        return mLocalStore.getMessagePreviewCreator().createPreview(this);
+    }
+
     @Override
     public String getSubject()
     {
@@ -361,8 +377,6 @@ public class LocalMessage extends MimeMessage
                     throw new WrappedException(e);
                 }
 
-                getFolder().deleteFulltextIndexEntry(db, databaseId);
-
                 return null;
             });
         } catch (WrappedException e) {
@@ -0,0 +1,144 @@
+package org.atalk.xryptomail.mailstore;
+
+import android.database.Cursor;
+
+import org.atalk.xryptomail.mail.MessagingException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the result of a local search, newest message first, loading the messages a page
+ * at a time.
+ * <p>
+ * Pages are read with keyset pagination on (date, id), served by the {@code msg_date_id} index:
+ * each page continues after the last row of the previous one, so no page has to skip over the rows
+ * before it and only one page of messages is held in memory. Messages without a date are read
+ * last, as a separate range ordered by id. The database is only locked while a page is read.
+ * Messages that change while the iteration is in progress may be missed or returned with their
+ * new state.
+ * </p>
+ */
+public class LocalMessageIterator {
+    /**
+     * Size of the first page, kept small so the first results are available quickly.
+     */
+    static final int FIRST_PAGE_SIZE = 10;
+    static final int PAGE_SIZE = 100;
+
+    private final LocalStore localStore;
+    private final String where;
+    private final String[] selectionArgs;
+
+    private List<LocalMessage> page = new ArrayList<>();
+    private int pageIndex = 0;
+    private boolean started = false;
+    private boolean readingUndated = false;
+    private boolean exhausted = false;
+    private long lastDate;
+    private long lastId;
+
+    /**
+     * @param where selection on the 'messages' table joined with 'threads', 'message_parts' and
+     * 'folders', or {@code null}
+     */
+    LocalMessageIterator(LocalStore localStore, String where, String[] selectionArgs) {
+        this.localStore = localStore;
+        this.where = where;
+        this.selectionArgs = selectionArgs;
+    }
+
+    public boolean hasNext() throws MessagingException {
+        // The last page of dated messages may be empty while undated messages follow
+        while (pageIndex >= page.size()) {
+            if (exhausted) {
+                return false;
+            }
+            loadNextPage();
+        }
+        return true;
+    }
+
+    public LocalMessage next() throws MessagingException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.get(pageIndex++);
+    }
+
+    /**
+     * Read all remaining messages.
+     */
+    public List<LocalMessage> toList() throws MessagingException {
+        List<LocalMessage> messages = new ArrayList<>();
+        while (hasNext()) {
+            messages.add(next());
+        }
+        return messages;
+    }
+
+    private void loadNextPage() throws MessagingException {
+        final int pageSize = started ? PAGE_SIZE : FIRST_PAGE_SIZE;
+
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT ").append(LocalStore.GET_MESSAGES_COLS).append("FROM messages " +
+                "LEFT JOIN threads ON (threads.message_id = messages.id) " +
+                "LEFT JOIN message_parts ON (message_parts.id = messages.message_part_id) " +
+                "LEFT JOIN folders ON (folders.id = messages.folder_id) WHERE " +
+                "(empty = 0 AND deleted = 0)");
+        if (where != null && !where.isEmpty()) {
+            query.append(" AND (").append(where).append(")");
+        }
+
+        final List<String> args = new ArrayList<>();
+        if (selectionArgs != null) {
+            args.addAll(Arrays.asList(selectionArgs));
+        }
+        if (readingUndated) {
+            query.append(" AND messages.date IS NULL");
+            if (lastId != 0) {
+                query.append(" AND messages.id < ?");
+                args.add(Long.toString(lastId));
+            }
+            query.append(" ORDER BY messages.id DESC");
+        } else {
+            query.append(" AND messages.date IS NOT NULL");
+            if (started) {
+                query.append(" AND (messages.date < ? OR (messages.date = ? AND messages.id < ?))");
+                args.add(Long.toString(lastDate));
+                args.add(Long.toString(lastDate));
+                args.add(Long.toString(lastId));
+            }
+            query.append(" ORDER BY messages.date DESC, messages.id DESC");
+        }
+        query.append(" LIMIT ").append(pageSize);
+
+        final String sql = query.toString();
+        page = localStore.getDatabase().execute(false, db -> {
+            List<LocalMessage> messages = new ArrayList<>(pageSize);
+            try (Cursor cursor = db.rawQuery(sql, args.toArray(new String[0]))) {
+                while (cursor.moveToNext()) {
+                    LocalMessage message = new LocalMessage(localStore, null, null);
+                    message.populateFromGetMessageCursor(cursor);
+                    messages.add(message);
+
+                    lastDate = cursor.getLong(LocalStore.MSG_INDEX_DATE);
+                    lastId = cursor.getLong(LocalStore.MSG_INDEX_ID);
+                }
+            }
+            return messages;
+        });
+        pageIndex = 0;
+        started = true;
+        if (page.size() < pageSize) {
+            if (readingUndated) {
+                exhausted = true;
+            } else {
+                readingUndated = true;
+                lastId = 0;
+            }
+        }
+    }
+}
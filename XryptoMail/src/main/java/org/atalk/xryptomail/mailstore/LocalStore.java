@@ -27,6 +27,7 @@ import java.util.Map;
 import java.util.Stack;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.james.mime4j.codec.Base64InputStream;
 import org.apache.james.mime4j.codec.QuotedPrintableInputStream;
@@ -129,7 +130,8 @@ public class LocalStore extends Store {
     static final int MSG_INDEX_STEALTH_TIMER = 26;
 
     static final String GET_FOLDER_COLS = "folders.id, name, visible_limit, last_updated, status, push_state, " +
-            "last_pushed, integrate, top_group, poll_class, push_class, display_class, notify_class, more_messages";
+            "last_pushed, integrate, top_group, poll_class, push_class, display_class, notify_class, more_messages, " +
+            "highest_mod_seq, uid_validity";
 
     static final int FOLDER_ID_INDEX = 0;
     static final int FOLDER_NAME_INDEX = 1;
@@ -145,6 +147,8 @@ public class LocalStore extends Store {
     static final int FOLDER_DISPLAY_CLASS_INDEX = 11;
     static final int FOLDER_NOTIFY_CLASS_INDEX = 12;
     static final int MORE_MESSAGES_INDEX = 13;
+    static final int FOLDER_HIGHEST_MOD_SEQ_INDEX = 14;
+    static final int FOLDER_UID_VALIDITY_INDEX = 15;
 
     static final String[] UID_CHECK_PROJECTION = {"uid"};
 
@@ -176,7 +180,7 @@ public class LocalStore extends Store {
      * @see #setFlagForThreads(List, Flag, boolean)
      */
     private static final int THREAD_FLAG_UPDATE_BATCH_SIZE = 500;
-    public static final int DB_VERSION = 61;
+    public static final int DB_VERSION = 70;
     private final Context mContext;
     private final ContentResolver mContentResolver;
 
@@ -189,6 +193,14 @@ public class LocalStore extends Store {
     private final Account mAccount;
     private final String mAccountUuid;
     private final LockableDatabase database;
+    private final ExtractionWorker extractionWorker;
+    private final CryptoStatusVerifier cryptoStatusVerifier;
+    private final boolean mFts5SearchIndex;
+
+    /**
+     * Incremented whenever messages or folders change, see {@link #getChangeCount()}.
+     */
+    private final AtomicLong mChangeCount = new AtomicLong();
 
     /**
      * local://localhost/path/to/database/uuid.db
@@ -212,9 +224,17 @@ public class LocalStore extends Store {
         pendingCommandSerializer = PendingCommandSerializer.getInstance();
         attachmentInfoExtractor = AttachmentInfoExtractor.getInstance();
 
+        extractionWorker = new ExtractionWorker(this);
+        cryptoStatusVerifier = new CryptoStatusVerifier(this);
+
         database = new LockableDatabase(context, mAccountUuid, new StoreSchemaDefinition(this));
         database.setStorageProviderId(account.getLocalStorageProviderId());
         database.open();
+
+        mFts5SearchIndex = database.execute(false, MessageSearchIndex::isFts5Table);
+        // Picks up messages queued by a database upgrade or left over from the last run
+        extractionWorker.schedule();
+        cryptoStatusVerifier.schedule();
     }
 
     /**
@@ -241,6 +261,17 @@ public class LocalStore extends Store {
         }
     }
 
+    /**
+     * Determine the crypto status of the messages of all open stores that couldn't be checked so
+     * far, e.g. after an OpenPGP provider was configured. Stores opened later check theirs when
+     * they are created.
+     */
+    public static void verifyPendingCryptoStatus() {
+        for (LocalStore localStore : sLocalStores.values()) {
+            localStore.cryptoStatusVerifier.schedule();
+        }
+    }
+
     public static void removeAccount(Account account) {
         try {
             removeInstance(account);
@@ -329,10 +360,12 @@ public class LocalStore extends Store {
             db.delete("messages", "deleted = 0", null);
 
             // We don't need the search data now either
-            db.delete("messages_fulltext", null, null);
+            db.delete(MessageSearchIndex.TABLE, null, null);
+            db.delete(ExtractionQueue.TABLE, null, null);
 
             return null;
         });
+        notifyChange();
 
         compact();
         if (XryptoMail.isDebug()) {
@@ -413,11 +446,14 @@ public class LocalStore extends Store {
     public void delete()
             throws UnavailableStorageException {
         database.delete();
+        // Nothing is left to extract, so don't wake up the extraction worker
+        countChange();
     }
 
     public void recreate()
             throws UnavailableStorageException {
         database.recreate();
+        notifyChange();
     }
 
     private void deleteAllMessageDataFromDisk()
@@ -460,6 +496,7 @@ public class LocalStore extends Store {
             db.update("folders", cv, null, null);
             return null;
         });
+        countChange();
     }
 
     public List<PendingCommand> getPendingCommands()
@@ -523,8 +560,11 @@ public class LocalStore extends Store {
         return true;
     }
 
-    public List<LocalMessage> searchForMessages(MessageRetrievalListener<LocalMessage> retrievalListener, LocalSearch search)
-            throws MessagingException {
+    /**
+     * Search the local messages. The result is read a page at a time while it is iterated, newest
+     * message first.
+     */
+    public LocalMessageIterator searchForMessages(LocalSearch search) {
         StringBuilder query = new StringBuilder();
         List<String> queryArgs = new ArrayList<>();
         SqlQueryBuilder.buildWhereClause(mAccount, search.getConditions(), query, queryArgs);
@@ -534,16 +574,8 @@ public class LocalStore extends Store {
 
         String[] selectionArgs = queryArgs.toArray(new String[0]);
 
-        String sqlQuery = "SELECT " + GET_MESSAGES_COLS + "FROM messages " +
-                "LEFT JOIN threads ON (threads.message_id = messages.id) " +
-                "LEFT JOIN message_parts ON (message_parts.id = messages.message_part_id) " +
-                "LEFT JOIN folders ON (folders.id = messages.folder_id) WHERE " +
-                "(empty = 0 AND deleted = 0)" +
-                ((!TextUtils.isEmpty(where)) ? " AND (" + where + ")" : "") +
-                " ORDER BY date DESC";
-
-        Timber.d("Query = %s", sqlQuery);
-        return getMessages(retrievalListener, null, sqlQuery, selectionArgs);
+        Timber.d("Search where = %s", where);
+        return new LocalMessageIterator(this, where, selectionArgs);
     }
 
     /*
@@ -605,7 +637,7 @@ public class LocalStore extends Store {
         LocalSearch search = new LocalSearch();
         search.and(SearchField.THREAD_ID, rootIdString, Attribute.EQUALS);
 
-        return searchForMessages(null, search);
+        return searchForMessages(search).toList();
     }
 
     public AttachmentInfo getAttachmentInfo(final String attachmentId)
@@ -840,9 +872,16 @@ public class LocalStore extends Store {
     }
 
     File getAttachmentFile(String attachmentId) {
+        return new File(getAttachmentDirectory(), attachmentId);
+    }
+
+    /**
+     * Directory the message part files of this store are kept in. Bodies downloaded into this
+     * directory are moved into place by {@link LocalFolder#appendMessages(List)} without copying.
+     */
+    public File getAttachmentDirectory() {
         final StorageManager storageManager = StorageManager.getInstance(mContext);
-        final File attachmentDirectory = storageManager.getAttachmentDirectory(mAccountUuid, database.getStorageProviderId());
-        return new File(attachmentDirectory, attachmentId);
+        return storageManager.getAttachmentDirectory(mAccountUuid, database.getStorageProviderId());
     }
 
     public static class AttachmentInfo {
@@ -928,10 +967,28 @@ public class LocalStore extends Store {
         return messagePreviewCreator;
     }
 
-    public MessageFulltextCreator getMessageFulltextCreator() {
+    MessageFulltextCreator getMessageFulltextCreator() {
         return messageFulltextCreator;
     }
 
+    /**
+     * Turn text entered by the user into a query for the {@link MessageSearchIndex#TABLE} table.
+     *
+     * @return the query, or {@code null} if the text contains nothing to search for
+     */
+    public String createSearchMatchQuery(String text) {
+        return MessageSearchIndex.createMatchQuery(text, mFts5SearchIndex);
+    }
+
+    /**
+     * Returns an SQL expression that ranks the message {@code m.id} by how well it matches a query
+     * built by {@link #createSearchMatchQuery(String)}, best match lowest. The query is the
+     * expression's only argument.
+     */
+    public String createSearchRankSql() {
+        return MessageSearchIndex.createRankSql(mFts5SearchIndex);
+    }
+
     AttachmentCounter getAttachmentCounter() {
         return attachmentCounter;
     }
@@ -940,9 +997,33 @@ public class LocalStore extends Store {
         return attachmentInfoExtractor;
     }
 
+    CryptoStatusVerifier getCryptoStatusVerifier() {
+        return cryptoStatusVerifier;
+    }
+
     void notifyChange() {
+        mChangeCount.incrementAndGet();
         Uri uri = Uri.withAppendedPath(EmailProvider.CONTENT_URI, "account/" + mAccountUuid + "/messages");
         mContentResolver.notifyChange(uri, null);
+
+        // Changed messages are put into the extraction queue by the database triggers
+        extractionWorker.schedule();
+    }
+
+    /**
+     * Record a change that doesn't need to be announced to the message lists, e.g. a change of
+     * folder settings.
+     */
+    void countChange() {
+        mChangeCount.incrementAndGet();
+    }
+
+    /**
+     * @return a value that changes whenever the messages or folders of this store change; values
+     * derived from the database, e.g. message counts, can be cached as long as it stays the same
+     */
+    public long getChangeCount() {
+        return mChangeCount.get();
     }
 
     /**
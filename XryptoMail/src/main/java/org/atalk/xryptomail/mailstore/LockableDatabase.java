@@ -5,8 +5,10 @@ import static java.lang.System.currentTimeMillis;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.os.SystemClock;
 
 import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -17,8 +19,25 @@ import org.atalk.xryptomail.mail.MessagingException;
 
 import timber.log.Timber;
 
+/**
+ * Account database shared by the sync and UI threads.
+ * <p>
+ * The database runs in write-ahead logging mode. Queries outside of a transaction are served by
+ * the reader connections of the framework's connection pool, so UI and content provider reads
+ * never wait for a sync transaction to commit. Transactions are still serialized on the primary
+ * connection.
+ * </p>
+ * <p>
+ * Time spent waiting for the storage locks and for the primary connection is recorded per lock,
+ * see {@link #getLockStats()}.
+ * </p>
+ */
 public class LockableDatabase
 {
+    /**
+     * Waits for a lock longer than this are logged.
+     */
+    private static final long SLOW_LOCK_WAIT_MILLIS = 200;
 
     /**
      * Callback interface for DB operations. Concept is similar to Spring
@@ -129,6 +148,10 @@ public class LockableDatabase
 
     private final StorageListener mStorageListener = new StorageListener();
 
+    private final LockStats mReadLockStats = new LockStats("read");
+    private final LockStats mWriteLockStats = new LockStats("write");
+    private final LockStats mTransactionStats = new LockStats("transaction");
+
     /**
      * {@link ThreadLocal} to check whether a DB transaction is occurring in the
      * current {@link Thread}.
@@ -180,7 +203,9 @@ public class LockableDatabase
      */
     protected void lockRead() throws UnavailableStorageException
     {
+        final long start = SystemClock.elapsedRealtime();
         mReadLock.lock();
+        mReadLockStats.recordWait(SystemClock.elapsedRealtime() - start);
         try {
             getStorageManager().lockProvider(mStorageProviderId);
         } catch (UnavailableStorageException | RuntimeException e) {
@@ -225,7 +250,9 @@ public class LockableDatabase
      */
     protected void lockWrite(final String providerId) throws UnavailableStorageException
     {
+        final long start = SystemClock.elapsedRealtime();
         mWriteLock.lock();
+        mWriteLockStats.recordWait(SystemClock.elapsedRealtime() - start);
         try {
             getStorageManager().lockProvider(providerId);
         } catch (UnavailableStorageException | RuntimeException e) {
@@ -269,7 +296,10 @@ public class LockableDatabase
             final boolean debug = XryptoMail.isDebug();
             if (doTransaction) {
                 inTransaction.set(Boolean.TRUE);
-                mDb.beginTransaction();
+                // Waits for transactions on other threads to finish; readers are not blocked in WAL mode
+                final long start = SystemClock.elapsedRealtime();
+                mDb.beginTransactionNonExclusive();
+                mTransactionStats.recordWait(SystemClock.elapsedRealtime() - start);
             }
             try {
                 final T result = callback.doDbWork(mDb);
@@ -320,6 +350,8 @@ public class LockableDatabase
             lockWrite(newProviderId);
             try {
                 try {
+                    // Checkpoint the write-ahead log so that only the database file needs to be moved
+                    mDb.disableWriteAheadLogging();
                     mDb.close();
                 } catch (Exception e) {
                     Timber.i(e, "Unable to close DB on local store migration");
@@ -400,6 +432,77 @@ public class LockableDatabase
             // external storage
             mDb = SQLiteDatabase.openOrCreateDatabase(databaseFile, null);
         }
+
+        if (!mDb.enableWriteAheadLogging()) {
+            Timber.w("LockableDatabase: Unable to enable write-ahead logging for DB %s", uUid);
+        }
+    }
+
+    /**
+     * @return wait time statistics of the read and write locks and of transactions waiting for
+     * the primary connection
+     */
+    public String getLockStats()
+    {
+        return mReadLockStats + ", " + mWriteLockStats + ", " + mTransactionStats;
+    }
+
+    /**
+     * Wait time statistics of a lock.
+     */
+    private class LockStats
+    {
+        private final String mName;
+        private final AtomicLong mAcquired = new AtomicLong();
+        private final AtomicLong mContended = new AtomicLong();
+        private final AtomicLong mTotalWaitMillis = new AtomicLong();
+        private final AtomicLong mMaxWaitMillis = new AtomicLong();
+
+        LockStats(String name)
+        {
+            mName = name;
+        }
+
+        void recordWait(long waitMillis)
+        {
+            mAcquired.incrementAndGet();
+            if (waitMillis <= 0) {
+                return;
+            }
+
+            mContended.incrementAndGet();
+            mTotalWaitMillis.addAndGet(waitMillis);
+            long max;
+            do {
+                max = mMaxWaitMillis.get();
+            } while (waitMillis > max && !mMaxWaitMillis.compareAndSet(max, waitMillis));
+
+            if (waitMillis > SLOW_LOCK_WAIT_MILLIS) {
+                Timber.d("LockableDatabase: Waited %d ms for %s lock of DB %s / %s", waitMillis, mName, uUid,
+                        findCaller());
+            }
+        }
+
+        /**
+         * @return the first stack frame outside of this class, i.e. the code that uses the database
+         */
+        private StackTraceElement findCaller()
+        {
+            String className = LockableDatabase.class.getName();
+            for (StackTraceElement element : new Exception().getStackTrace()) {
+                if (!element.getClassName().startsWith(className)) {
+                    return element;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String toString()
+        {
+            return mName + " [acquired=" + mAcquired.get() + ", contended=" + mContended.get()
+                    + ", totalWait=" + mTotalWaitMillis.get() + "ms, maxWait=" + mMaxWaitMillis.get() + "ms]";
+        }
     }
 
     /**
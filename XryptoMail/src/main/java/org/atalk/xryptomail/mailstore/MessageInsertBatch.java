@@ -0,0 +1,242 @@
+package org.atalk.xryptomail.mailstore;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiled insert statements and deferred work shared by the messages that
+ * {@link LocalFolder#appendMessages(List)} stores in one transaction.
+ * <p>
+ * Rows are inserted through statements that are compiled once per batch instead of once per row.
+ * The 'threads' rows of newly stored messages are collected and only inserted when the batch is
+ * flushed. Their ids are reserved up front, so message threading can link replies to queued rows
+ * without inserting them first; it only flushes before it reads or updates the 'threads' table.
+ * </p>
+ * A batch is bound to the database it was created for and must be {@link #close() closed} before
+ * the transaction ends.
+ */
+class MessageInsertBatch {
+    private static final String[] MESSAGE_COLUMNS = {
+            "message_part_id", "stealth_timer", "uid", "subject", "sender_list", "date", "flags", "deleted",
+            "read", "flagged", "answered", "forwarded", "folder_id", "to_list", "cc_list", "bcc_list",
+            "reply_to_list", "attachment_count", "internal_date", "mime_type", "empty", "preview_type",
+            "preview", "message_id"
+    };
+
+    private static final String[] MESSAGE_PART_COLUMNS = {
+            "type", "root", "parent", "seq", "mime_type", "decoded_body_size", "display_name", "header",
+            "encoding", "charset", "data_location", "data", "preamble", "epilogue", "boundary", "content_id",
+            "server_extra"
+    };
+
+    /**
+     * Columns of 'messages' that have a default value. A statement insert binds NULL for missing
+     * columns, so it is only used when these are all present.
+     */
+    private static final String[] MESSAGE_DEFAULT_VALUE_COLUMNS = {
+            "deleted", "preview_type", "empty", "read", "flagged", "answered", "forwarded", "stealth_timer"
+    };
+
+    private static final Set<String> MESSAGE_COLUMN_SET = new HashSet<>(Arrays.asList(MESSAGE_COLUMNS));
+    private static final Set<String> MESSAGE_PART_COLUMN_SET = new HashSet<>(Arrays.asList(MESSAGE_PART_COLUMNS));
+
+    private final SQLiteDatabase db;
+    private SQLiteStatement insertMessageStatement;
+    private SQLiteStatement insertMessagePartStatement;
+    private SQLiteStatement insertThreadStatement;
+
+    private final List<PendingThread> pendingThreads = new ArrayList<>();
+    private final Map<String, PendingThread> pendingThreadsByMessageId = new HashMap<>();
+
+    /**
+     * Id of the next 'threads' row queued by this batch, or -1 if it has to be read from the table.
+     */
+    private long nextThreadId = -1;
+
+    MessageInsertBatch(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    long insertMessage(ContentValues cv) {
+        if (!MESSAGE_COLUMN_SET.containsAll(cv.keySet()) || !containsAll(cv, MESSAGE_DEFAULT_VALUE_COLUMNS)) {
+            return db.insert("messages", "uid", cv);
+        }
+        if (insertMessageStatement == null) {
+            insertMessageStatement = db.compileStatement(createInsertSql("messages", MESSAGE_COLUMNS));
+        }
+        bind(insertMessageStatement, MESSAGE_COLUMNS, cv);
+        return insertMessageStatement.executeInsert();
+    }
+
+    long insertMessagePart(ContentValues cv) {
+        if (!MESSAGE_PART_COLUMN_SET.containsAll(cv.keySet())) {
+            return db.insertOrThrow("message_parts", null, cv);
+        }
+        if (insertMessagePartStatement == null) {
+            insertMessagePartStatement = db.compileStatement(createInsertSql("message_parts", MESSAGE_PART_COLUMNS));
+        }
+        bind(insertMessagePartStatement, MESSAGE_PART_COLUMNS, cv);
+        return insertMessagePartStatement.executeInsert();
+    }
+
+    /**
+     * Queue the 'threads' row of a newly stored message.
+     *
+     * @param messageId database id of the message
+     * @param messageIdHeader the message's Message-ID, or {@code null}
+     * @param rootId id of the thread root, or -1 if the message starts a new thread
+     * @param parentId id of the parent thread, or -1 if there is none
+     */
+    void addThread(long messageId, String messageIdHeader, long rootId, long parentId) {
+        if (nextThreadId == -1) {
+            nextThreadId = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(id), 0) + 1 FROM threads", null);
+        }
+        PendingThread thread = new PendingThread(nextThreadId++, messageId, rootId, parentId);
+        pendingThreads.add(thread);
+        if (messageIdHeader != null && !pendingThreadsByMessageId.containsKey(messageIdHeader)) {
+            pendingThreadsByMessageId.put(messageIdHeader, thread);
+        }
+    }
+
+    /**
+     * Look up a queued 'threads' row by the Message-ID of its message.
+     *
+     * @return the thread info, as it will read from the table once inserted, or {@code null} if no
+     * message with this Message-ID was queued
+     */
+    ThreadInfo getPendingThreadInfo(String messageIdHeader) {
+        PendingThread thread = pendingThreadsByMessageId.get(messageIdHeader);
+        if (thread == null) {
+            return null;
+        }
+        // The 'set_thread_root' trigger makes a row without a root the root of its own thread
+        long rootId = (thread.rootId == -1) ? thread.threadId : thread.rootId;
+        return new ThreadInfo(thread.threadId, thread.messageId, messageIdHeader, rootId, thread.parentId);
+    }
+
+    /**
+     * Insert all queued 'threads' rows. Must be called before the 'threads' table is read or
+     * written other than through this batch.
+     */
+    void flushThreads() {
+        // Rows inserted directly after the flush take the next free ids
+        nextThreadId = -1;
+        if (pendingThreads.isEmpty()) {
+            return;
+        }
+        if (insertThreadStatement == null) {
+            insertThreadStatement = db.compileStatement(
+                    "INSERT INTO threads (id, message_id, root, parent) VALUES (?, ?, ?, ?)");
+        }
+        for (PendingThread thread : pendingThreads) {
+            insertThreadStatement.bindLong(1, thread.threadId);
+            insertThreadStatement.bindLong(2, thread.messageId);
+            bindOptionalId(insertThreadStatement, 3, thread.rootId);
+            bindOptionalId(insertThreadStatement, 4, thread.parentId);
+            insertThreadStatement.executeInsert();
+        }
+        pendingThreads.clear();
+        pendingThreadsByMessageId.clear();
+    }
+
+    /**
+     * Flush the deferred work and release the compiled statements.
+     */
+    void close() {
+        try {
+            flushThreads();
+        } finally {
+            closeStatement(insertMessageStatement);
+            closeStatement(insertMessagePartStatement);
+            closeStatement(insertThreadStatement);
+        }
+    }
+
+    private static String createInsertSql(String table, String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        StringBuilder values = new StringBuilder(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+                values.append(", ");
+            }
+            sql.append(columns[i]);
+            values.append('?');
+        }
+        return sql.append(values).append(')').toString();
+    }
+
+    private static boolean containsAll(ContentValues cv, String[] columns) {
+        for (String column : columns) {
+            if (!cv.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Bind the values of {@code cv} to the statement. Columns missing from {@code cv} are bound to NULL.
+     */
+    private static void bind(SQLiteStatement statement, String[] columns, ContentValues cv) {
+        statement.clearBindings();
+        for (int i = 0; i < columns.length; i++) {
+            Object value = cv.get(columns[i]);
+            int index = i + 1;
+            if (value == null) {
+                statement.bindNull(index);
+            } else if (value instanceof byte[]) {
+                statement.bindBlob(index, (byte[]) value);
+            } else if (value instanceof Float || value instanceof Double) {
+                statement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                statement.bindLong(index, ((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                statement.bindLong(index, ((Boolean) value) ? 1 : 0);
+            } else {
+                statement.bindString(index, value.toString());
+            }
+        }
+    }
+
+    private static void bindOptionalId(SQLiteStatement statement, int index, long id) {
+        if (id == -1) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, id);
+        }
+    }
+
+    private static void closeStatement(SQLiteStatement statement) {
+        if (statement != null) {
+            statement.close();
+        }
+    }
+
+    /**
+     * A queued 'threads' row; -1 for a missing root or parent.
+     */
+    private static class PendingThread {
+        final long threadId;
+        final long messageId;
+        final long rootId;
+        final long parentId;
+
+        PendingThread(long threadId, long messageId, long rootId, long parentId) {
+            this.threadId = threadId;
+            this.messageId = messageId;
+            this.rootId = rootId;
+            this.parentId = parentId;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.atalk.xryptomail.mailstore;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The full text search index over the subject, sender and body of the messages.
+ * <p>
+ * The 'messages_search' table is an FTS5 table where the platform's SQLite provides FTS5, and an
+ * FTS4 table with the same columns otherwise. Its rowid is the id of the message.
+ * </p>
+ * <p>
+ * Extracting the text of a message is too expensive to do while the message is saved, so new and
+ * changed messages are put into the {@link ExtractionQueue} and indexed in the background. Changed
+ * and deleted messages are removed from the index by triggers right away.
+ * </p>
+ */
+public class MessageSearchIndex {
+    public static final String TABLE = "messages_search";
+
+    /**
+     * bm25 weights of the subject, sender and body columns.
+     */
+    private static final String FTS5_RANK = "bm25(messages_search, 10.0, 5.0, 1.0)";
+
+    public static void createTable(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS messages_search");
+        if (isFts5Supported(db)) {
+            db.execSQL("CREATE VIRTUAL TABLE messages_search USING fts5 (subject, sender, body, prefix = '2 3')");
+        } else {
+            db.execSQL("CREATE VIRTUAL TABLE messages_search USING fts4 (subject, sender, body, prefix=\"2,3\")");
+        }
+    }
+
+    public static void createTriggers(SQLiteDatabase db) {
+        // The message is queued for indexing again by the 'extraction_queue' triggers
+        db.execSQL("DROP TRIGGER IF EXISTS search_index_message_update");
+        db.execSQL("CREATE TRIGGER search_index_message_update " +
+                "AFTER UPDATE OF subject, sender_list, message_part_id, deleted, empty ON messages " +
+                "BEGIN " +
+                "DELETE FROM messages_search WHERE rowid = OLD.id; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS search_index_message_delete");
+        db.execSQL("CREATE TRIGGER search_index_message_delete " +
+                "AFTER DELETE ON messages " +
+                "BEGIN " +
+                "DELETE FROM messages_search WHERE rowid = OLD.id; " +
+                "END");
+    }
+
+    /**
+     * Returns whether the 'messages_search' table of this database is an FTS5 table.
+     */
+    static boolean isFts5Table(SQLiteDatabase db) {
+        try (Cursor cursor = db.rawQuery("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{TABLE})) {
+            return cursor.moveToFirst() && cursor.getString(0).toLowerCase().contains("fts5");
+        }
+    }
+
+    private static boolean isFts5Supported(SQLiteDatabase db) {
+        try {
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS temp.fts5_probe USING fts5 (content)");
+            db.execSQL("DROP TABLE temp.fts5_probe");
+            return true;
+        } catch (SQLiteException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns an SQL expression that ranks the message {@code m.id} for a query built by
+     * {@link #createMatchQuery(String, boolean)}, given as its only argument. Better matches have
+     * lower values, and messages that don't match rank after all matches.
+     * <p>
+     * FTS4 tables have no built-in ranking function, so there all matches rank the same.
+     * </p>
+     */
+    static String createRankSql(boolean fts5) {
+        if (fts5) {
+            // bm25() is negative for matches; the rowid constraint makes this a lookup per message
+            return "IFNULL((SELECT " + FTS5_RANK + " FROM messages_search " +
+                    "WHERE messages_search MATCH ? AND rowid = m.id), 0)";
+        }
+        return "(CASE WHEN m.id IN (SELECT rowid FROM messages_search WHERE messages_search MATCH ?) " +
+                "THEN 0 ELSE 1 END)";
+    }
+
+    /**
+     * Turn the text entered by the user into an FTS query.
+     * <p>
+     * Text within double quotes is matched as a phrase. Any other word matches words starting with
+     * it; a word that consists of several tokens, like an email address, is matched as a phrase
+     * whose last token is a prefix. All words and phrases must match.
+     * </p>
+     *
+     * @return the query, or {@code null} if the text contains nothing to search for
+     */
+    public static String createMatchQuery(String text, boolean fts5) {
+        StringBuilder query = new StringBuilder();
+        boolean quoted = false;
+        for (String chunk : text.split("\"", -1)) {
+            if (quoted) {
+                appendPhrase(query, tokenize(chunk), false, fts5);
+            } else {
+                for (String word : chunk.split("\\s+")) {
+                    appendPhrase(query, tokenize(word), true, fts5);
+                }
+            }
+            quoted = !quoted;
+        }
+        return query.length() == 0 ? null : query.toString();
+    }
+
+    private static void appendPhrase(StringBuilder query, List<String> tokens, boolean prefix, boolean fts5) {
+        if (tokens.isEmpty()) {
+            return;
+        }
+        if (query.length() > 0) {
+            query.append(' ');
+        }
+
+        // Tokens are quoted so words like "OR" or "NEAR" aren't taken as operators
+        query.append('"');
+        for (int i = 0; i < tokens.size(); i++) {
+            if (i > 0) {
+                query.append(' ');
+            }
+            query.append(tokens.get(i));
+        }
+        if (prefix && !fts5) {
+            query.append('*');
+        }
+        query.append('"');
+        if (prefix && fts5) {
+            query.append('*');
+        }
+    }
+
+    /**
+     * Split text into runs of letters and digits, the way the FTS tokenizers do.
+     */
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean tokenChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (tokenChar && start == -1) {
+                start = i;
+            } else if (!tokenChar && start != -1) {
+                tokens.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+}
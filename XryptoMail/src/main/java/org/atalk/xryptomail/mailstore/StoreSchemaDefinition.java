@@ -72,7 +72,7 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
                 "id INTEGER PRIMARY KEY, " +
                 "name TEXT, " +
                 "last_updated INTEGER, " +
-                "unread_count INTEGER, " +
+                "unread_count INTEGER default 0, " +
                 "visible_limit INTEGER, " +
                 "status TEXT, " +
                 "push_state TEXT, " +
@@ -84,7 +84,9 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
                 "push_class TEXT, " +
                 "display_class TEXT, " +
                 "notify_class TEXT default '" + Folder.FolderClass.INHERITED.name() + "', " +
-                "more_messages TEXT default \"unknown\"" +
+                "more_messages TEXT default \"unknown\", " +
+                "highest_mod_seq INTEGER default 0, " +
+                "uid_validity INTEGER default 0" +
                 ")");
 
         db.execSQL("CREATE INDEX IF NOT EXISTS folder_name ON folders (name)");
@@ -115,7 +117,8 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
                 "answered INTEGER default 0, " +
                 "forwarded INTEGER default 0, " +
                 "message_part_id INTEGER, " +
-                "stealth_timer INTEGER default 30" +
+                "stealth_timer INTEGER default 30, " +
+                "crypto_status INTEGER" +
                 ")");
 
         db.execSQL("DROP TABLE IF EXISTS message_parts");
@@ -150,6 +153,7 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
         db.execSQL("DROP INDEX IF EXISTS msg_folder_id");
         db.execSQL("DROP INDEX IF EXISTS msg_folder_id_date");
         db.execSQL("CREATE INDEX IF NOT EXISTS msg_folder_id_deleted_date ON messages (folder_id,deleted,internal_date)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS msg_date_id ON messages (date, id)");
 
         db.execSQL("DROP INDEX IF EXISTS msg_empty");
         db.execSQL("CREATE INDEX IF NOT EXISTS msg_empty ON messages (empty)");
@@ -199,11 +203,17 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
                 "BEFORE DELETE ON messages " +
                 "BEGIN " +
                 "DELETE FROM message_parts WHERE root = OLD.message_part_id; " +
-                "DELETE FROM messages_fulltext WHERE docid = OLD.id; " +
                 "END");
 
         db.execSQL("DROP TABLE IF EXISTS messages_fulltext");
-        db.execSQL("CREATE VIRTUAL TABLE messages_fulltext USING fts4 (fulltext)");
+        MessageSearchIndex.createTable(db);
+        MessageSearchIndex.createTriggers(db);
+        ExtractionQueue.createTable(db);
+        ExtractionQueue.createTriggers(db);
+
+        ThreadSummarySchema.createTable(db);
+        ThreadSummarySchema.createTriggers(db);
+        FolderCountersSchema.createTriggers(db);
     }
 
     private static class RealMigrationsHelper implements MigrationsHelper {
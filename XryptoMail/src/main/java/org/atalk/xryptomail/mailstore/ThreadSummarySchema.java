@@ -0,0 +1,128 @@
+package org.atalk.xryptomail.mailstore;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * The 'thread_summary' table holds the aggregated state of every thread per folder, so the
+ * threaded message list doesn't have to group the whole 'messages'/'threads' join on every load.
+ * <p>
+ * The table is maintained by triggers. A change of the read/flagged/answered/forwarded state of a
+ * message adjusts the counters of its thread; any other change to a thread's messages recomputes
+ * the rows of that one thread.
+ * </p>
+ */
+public class ThreadSummarySchema {
+    public static final String TABLE = "thread_summary";
+
+    /**
+     * Columns of {@code messages} whose changes require the thread summary to be recomputed.
+     */
+    private static final String STRUCTURAL_COLUMNS = "deleted, empty, folder_id, date, internal_date, attachment_count";
+
+    private static final String STRUCTURAL_COLUMNS_UNCHANGED = "OLD.deleted = NEW.deleted AND OLD.empty = NEW.empty AND " +
+            "OLD.folder_id IS NEW.folder_id AND OLD.date IS NEW.date AND OLD.internal_date IS NEW.internal_date AND " +
+            "OLD.attachment_count IS NEW.attachment_count";
+
+    public static void createTable(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS thread_summary");
+        db.execSQL("CREATE TABLE thread_summary (" +
+                "thread_root INTEGER NOT NULL, " +
+                "thread_folder_id INTEGER NOT NULL, " +
+                "message_count INTEGER NOT NULL, " +
+                "unread_count INTEGER NOT NULL, " +
+                "flagged_count INTEGER NOT NULL, " +
+                "unanswered_count INTEGER NOT NULL, " +
+                "unforwarded_count INTEGER NOT NULL, " +
+                "attachment_sum INTEGER, " +
+                "latest_date INTEGER, " +
+                "latest_internal_date INTEGER, " +
+                "latest_message_id INTEGER, " +
+                "PRIMARY KEY (thread_root, thread_folder_id)" +
+                ")");
+
+        db.execSQL("DROP INDEX IF EXISTS thread_summary_folder_date");
+        db.execSQL("CREATE INDEX thread_summary_folder_date ON thread_summary (thread_folder_id, latest_date)");
+    }
+
+    public static void createTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_thread_insert");
+        db.execSQL("CREATE TRIGGER thread_summary_thread_insert " +
+                "AFTER INSERT ON threads WHEN NEW.root IS NOT NULL " +
+                "BEGIN " +
+                recomputeThread("NEW.root") +
+                "END");
+
+        // Also covers new threads, whose root is set by the 'set_thread_root' trigger
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_thread_update");
+        db.execSQL("CREATE TRIGGER thread_summary_thread_update " +
+                "AFTER UPDATE OF root, message_id ON threads " +
+                "BEGIN " +
+                recomputeThread("OLD.root") +
+                recomputeThread("NEW.root") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_thread_delete");
+        db.execSQL("CREATE TRIGGER thread_summary_thread_delete " +
+                "AFTER DELETE ON threads " +
+                "BEGIN " +
+                recomputeThread("OLD.root") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_message_flags");
+        db.execSQL("CREATE TRIGGER thread_summary_message_flags " +
+                "AFTER UPDATE OF read, flagged, answered, forwarded ON messages " +
+                "WHEN " + STRUCTURAL_COLUMNS_UNCHANGED + " AND NEW.deleted = 0 AND NEW.empty = 0 " +
+                "BEGIN " +
+                "UPDATE thread_summary SET " +
+                "unread_count = unread_count + (NEW.read = 0) - (OLD.read = 0), " +
+                "flagged_count = flagged_count + (NEW.flagged != 0) - (OLD.flagged != 0), " +
+                "unanswered_count = unanswered_count + (NEW.answered = 0) - (OLD.answered = 0), " +
+                "unforwarded_count = unforwarded_count + (NEW.forwarded = 0) - (OLD.forwarded = 0) " +
+                "WHERE thread_root = (SELECT root FROM threads WHERE message_id = NEW.id) " +
+                "AND thread_folder_id = NEW.folder_id; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_message_update");
+        db.execSQL("CREATE TRIGGER thread_summary_message_update " +
+                "AFTER UPDATE OF " + STRUCTURAL_COLUMNS + " ON messages " +
+                "WHEN NOT (" + STRUCTURAL_COLUMNS_UNCHANGED + ") " +
+                "BEGIN " +
+                recomputeThread("(SELECT root FROM threads WHERE message_id = NEW.id)") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_message_delete");
+        db.execSQL("CREATE TRIGGER thread_summary_message_delete " +
+                "AFTER DELETE ON messages " +
+                "BEGIN " +
+                recomputeThread("(SELECT root FROM threads WHERE message_id = OLD.id)") +
+                "END");
+    }
+
+    /**
+     * Recompute the whole table.
+     */
+    public static void rebuild(SQLiteDatabase db) {
+        db.execSQL("DELETE FROM thread_summary");
+        db.execSQL(selectSummaries("t.root IS NOT NULL"));
+    }
+
+    private static String recomputeThread(String rootExpression) {
+        return "DELETE FROM thread_summary WHERE thread_root = " + rootExpression + "; " +
+                selectSummaries("t.root = " + rootExpression) + "; ";
+    }
+
+    private static String selectSummaries(String threadSelection) {
+        return "INSERT INTO thread_summary (thread_root, thread_folder_id, message_count, unread_count, " +
+                "flagged_count, unanswered_count, unforwarded_count, attachment_sum, latest_date, " +
+                "latest_internal_date, latest_message_id) " +
+                "SELECT t.root, m.folder_id, COUNT(*), SUM(m.read = 0), SUM(m.flagged != 0), " +
+                "SUM(m.answered = 0), SUM(m.forwarded = 0), SUM(m.attachment_count), MAX(m.date), " +
+                "MAX(m.internal_date), " +
+                "(SELECT lm.id FROM threads lt JOIN messages lm ON (lm.id = lt.message_id) " +
+                "WHERE lt.root = t.root AND lm.folder_id = m.folder_id AND lm.empty = 0 AND lm.deleted = 0 " +
+                "ORDER BY lm.date DESC, lm.id DESC LIMIT 1) " +
+                "FROM threads t JOIN messages m ON (m.id = t.message_id) " +
+                "WHERE " + threadSelection + " AND m.empty = 0 AND m.deleted = 0 AND m.folder_id IS NOT NULL " +
+                "GROUP BY t.root, m.folder_id";
+    }
+}
@@ -0,0 +1,15 @@
+package org.atalk.xryptomail.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.atalk.xryptomail.mailstore.ThreadSummarySchema;
+
+
+class MigrationTo63 {
+    public static void createThreadSummaryTable(SQLiteDatabase db) {
+        ThreadSummarySchema.createTable(db);
+        ThreadSummarySchema.createTriggers(db);
+        ThreadSummarySchema.rebuild(db);
+    }
+}
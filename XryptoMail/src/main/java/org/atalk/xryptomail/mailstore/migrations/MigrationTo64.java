@@ -0,0 +1,14 @@
+package org.atalk.xryptomail.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.atalk.xryptomail.mailstore.FolderCountersSchema;
+
+
+class MigrationTo64 {
+    public static void maintainFolderCounters(SQLiteDatabase db) {
+        FolderCountersSchema.createTriggers(db);
+        FolderCountersSchema.rebuild(db);
+    }
+}
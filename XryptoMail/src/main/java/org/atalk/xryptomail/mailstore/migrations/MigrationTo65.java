@@ -0,0 +1,60 @@
+package org.atalk.xryptomail.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.atalk.xryptomail.mailstore.MessageSearchIndex;
+
+
+class MigrationTo65 {
+    public static void replaceFtsSearchTable(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS delete_message");
+        db.execSQL("CREATE TRIGGER delete_message " +
+                "BEFORE DELETE ON messages " +
+                "BEGIN " +
+                "DELETE FROM message_parts WHERE root = OLD.message_part_id; " +
+                "END");
+        db.execSQL("DROP TABLE IF EXISTS messages_fulltext");
+
+        MessageSearchIndex.createTable(db);
+        createSearchIndexQueue(db);
+
+        // The messages are indexed in the background once the database is open
+        db.execSQL("INSERT OR REPLACE INTO search_index_queue (message_id) " +
+                "SELECT id FROM messages WHERE deleted = 0 AND empty = 0 ORDER BY date DESC");
+    }
+
+    private static void createSearchIndexQueue(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS search_index_queue");
+        db.execSQL("CREATE TABLE search_index_queue (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "message_id INTEGER NOT NULL UNIQUE" +
+                ")");
+
+        db.execSQL("DROP TRIGGER IF EXISTS search_index_message_insert");
+        db.execSQL("CREATE TRIGGER search_index_message_insert " +
+                "AFTER INSERT ON messages " +
+                "WHEN NEW.deleted = 0 AND NEW.empty = 0 " +
+                "BEGIN " +
+                "INSERT OR REPLACE INTO search_index_queue (message_id) VALUES (NEW.id); " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS search_index_message_update");
+        db.execSQL("CREATE TRIGGER search_index_message_update " +
+                "AFTER UPDATE OF subject, sender_list, message_part_id, deleted, empty ON messages " +
+                "BEGIN " +
+                "DELETE FROM messages_search WHERE rowid = OLD.id; " +
+                "DELETE FROM search_index_queue WHERE message_id = OLD.id; " +
+                "INSERT INTO search_index_queue (message_id) " +
+                "SELECT NEW.id WHERE NEW.deleted = 0 AND NEW.empty = 0; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS search_index_message_delete");
+        db.execSQL("CREATE TRIGGER search_index_message_delete " +
+                "AFTER DELETE ON messages " +
+                "BEGIN " +
+                "DELETE FROM messages_search WHERE rowid = OLD.id; " +
+                "DELETE FROM search_index_queue WHERE message_id = OLD.id; " +
+                "END");
+    }
+}
@@ -0,0 +1,24 @@
+package org.atalk.xryptomail.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.atalk.xryptomail.mailstore.ExtractionQueue;
+import org.atalk.xryptomail.mailstore.MessageSearchIndex;
+
+
+class MigrationTo66 {
+    public static void createExtractionQueue(SQLiteDatabase db) {
+        // Replace the triggers that used 'search_index_queue'
+        db.execSQL("DROP TRIGGER IF EXISTS search_index_message_insert");
+        MessageSearchIndex.createTriggers(db);
+
+        ExtractionQueue.createTable(db);
+        ExtractionQueue.createTriggers(db);
+
+        // Move the messages still waiting to be indexed; 1 is ExtractionQueue.TASK_SEARCH_INDEX
+        db.execSQL("INSERT OR REPLACE INTO extraction_queue (message_id, tasks) " +
+                "SELECT message_id, 1 FROM search_index_queue ORDER BY id");
+        db.execSQL("DROP TABLE IF EXISTS search_index_queue");
+    }
+}
@@ -0,0 +1,12 @@
+package org.atalk.xryptomail.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo67 {
+    public static void addCryptoStatusColumnToMessagesTable(SQLiteDatabase db) {
+        // NULL until the status is determined by the CryptoStatusVerifier in the background
+        db.execSQL("ALTER TABLE messages ADD crypto_status INTEGER");
+    }
+}
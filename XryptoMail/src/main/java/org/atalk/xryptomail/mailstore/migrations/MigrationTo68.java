@@ -0,0 +1,11 @@
+package org.atalk.xryptomail.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo68 {
+    public static void addUidValidityColumnToFoldersTable(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE folders ADD uid_validity INTEGER default 0");
+    }
+}
@@ -0,0 +1,12 @@
+package org.atalk.xryptomail.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo69 {
+    public static void addMessageDateIdIndex(SQLiteDatabase db) {
+        // Serves the keyset pagination of LocalMessageIterator
+        db.execSQL("CREATE INDEX IF NOT EXISTS msg_date_id ON messages (date, id)");
+    }
+}
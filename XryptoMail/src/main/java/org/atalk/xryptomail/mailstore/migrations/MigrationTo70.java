@@ -0,0 +1,19 @@
+package org.atalk.xryptomail.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+
+class MigrationTo70 {
+    public static void addAttemptsColumnToExtractionQueue(SQLiteDatabase db) {
+        try {
+            db.execSQL("ALTER TABLE extraction_queue ADD attempts INTEGER NOT NULL DEFAULT 0");
+        } catch (SQLiteException e) {
+            // The table was created with the column by MigrationTo66
+            if (!e.getMessage().startsWith("duplicate column name:")) {
+                throw e;
+            }
+        }
+    }
+}
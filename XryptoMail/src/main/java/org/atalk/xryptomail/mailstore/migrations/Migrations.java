@@ -2,14 +2,11 @@ package org.atalk.xryptomail.mailstore.migrations;
 
 import android.database.sqlite.SQLiteDatabase;
 
-import org.atalk.xryptomail.mailstore.LocalStore;
-
 public class Migrations
 {
     @SuppressWarnings("fallthrough")
     public static void upgradeDatabase(SQLiteDatabase db, MigrationsHelper migrationsHelper)
     {
-        boolean shouldBuildFtsTable = false;
         switch (db.getVersion()) {
             case 40:
                 MigrationTo41.db41FoldersAddClassColumns(db);
@@ -45,7 +42,6 @@ public class Migrations
                 MigrationTo54.addPreviewTypeColumn(db);
             case 54:
                 MigrationTo55.createFtsSearchTable(db);
-                shouldBuildFtsTable = true;
             case 55:
                 MigrationTo56.cleanUpFtsTable(db);
             case 56:
@@ -59,17 +55,24 @@ public class Migrations
                 MigrationTo60.migratePendingCommands(db);
             case 60:
                 MigrationTo61.removeErrorsFolder(db);
+            case 61:
+                MigrationTo62.addHighestModSeqColumnToFoldersTable(db);
+            case 62:
+                MigrationTo63.createThreadSummaryTable(db);
+            case 63:
+                MigrationTo64.maintainFolderCounters(db);
+            case 64:
+                MigrationTo65.replaceFtsSearchTable(db);
+            case 65:
+                MigrationTo66.createExtractionQueue(db);
+            case 66:
+                MigrationTo67.addCryptoStatusColumnToMessagesTable(db);
+            case 67:
+                MigrationTo68.addUidValidityColumnToFoldersTable(db);
+            case 68:
+                MigrationTo69.addMessageDateIdIndex(db);
+            case 69:
+                MigrationTo70.addAttemptsColumnToExtractionQueue(db);
         }
-
-        if (shouldBuildFtsTable) {
-            buildFtsTable(db, migrationsHelper);
-        }
-    }
-
-    private static void buildFtsTable(SQLiteDatabase db, MigrationsHelper migrationsHelper)
-    {
-        LocalStore localStore = migrationsHelper.getLocalStore();
-        FullTextIndexer fullTextIndexer = new FullTextIndexer(localStore, db);
-        fullTextIndexer.indexAllMessages();
     }
 }
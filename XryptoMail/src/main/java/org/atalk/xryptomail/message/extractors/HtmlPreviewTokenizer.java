@@ -0,0 +1,310 @@
+package org.atalk.xryptomail.message.extractors;
+
+import androidx.annotation.NonNull;
+
+import org.jsoup.parser.Parser;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Reads the visible text of an HTML document into a {@link PreviewTextBuilder}, a line at a time.
+ * <p>
+ * This is a small streaming tokenizer, not a full HTML parser: tags are skipped, block elements
+ * and line breaks start new lines, long lines are wrapped, list items are prefixed with "* " and
+ * links are followed by their URL, like
+ * {@link org.atalk.xryptomail.message.html.HtmlConverter#htmlToText(String)} does.
+ * No document tree is built, and reading stops as soon as the preview is complete.
+ * </p>
+ */
+class HtmlPreviewTokenizer {
+    private static final char NBSP_CHARACTER = '\u00A0';
+    private static final char PREVIEW_OBJECT_CHARACTER = '\uFFFC';
+    private static final int MAX_ENTITY_LENGTH = 32;
+    private static final int MAX_LINE_WIDTH = 76;
+
+    private static final Set<String> BLOCK_TAGS = new HashSet<>(Arrays.asList(
+            "address", "article", "aside", "blockquote", "body", "canvas", "caption", "center", "col",
+            "colgroup", "dd", "details", "dir", "div", "dl", "dt", "fieldset", "figcaption", "figure",
+            "footer", "form", "frame", "frameset", "h1", "h2", "h3", "h4", "h5", "h6", "header", "hgroup",
+            "hr", "html", "li", "main", "menu", "nav", "noframes", "ol", "p", "pre", "section", "summary",
+            "table", "tbody", "td", "tfoot", "th", "thead", "tr", "ul"));
+
+    /**
+     * Elements whose content is never shown.
+     */
+    private static final Set<String> HIDDEN_TAGS = new HashSet<>(Arrays.asList(
+            "head", "script", "style", "template", "title"));
+
+    private final String html;
+    private final PreviewTextBuilder preview;
+    private final StringBuilder line = new StringBuilder();
+    private int position = 0;
+    private String linkUrl = null;
+
+    HtmlPreviewTokenizer(@NonNull String html, @NonNull PreviewTextBuilder preview) {
+        this.html = html;
+        this.preview = preview;
+    }
+
+    void read() {
+        int length = html.length();
+        while (position < length && !preview.isComplete()) {
+            char c = html.charAt(position);
+            if (c == '<' && readTag()) {
+                continue;
+            }
+
+            if (c == '&') {
+                readEntity();
+            } else {
+                appendCharacter(c);
+                position++;
+            }
+        }
+        endLine(false);
+    }
+
+    /**
+     * @return {@code false} if the '<' at the current position doesn't start a tag
+     */
+    private boolean readTag() {
+        int start = position + 1;
+        if (start >= html.length()) {
+            return false;
+        }
+
+        char c = html.charAt(start);
+        if (html.startsWith("!--", start)) {
+            position = indexAfter("-->", start + 3);
+            return true;
+        } else if (c == '!' || c == '?') {
+            position = indexAfter(">", start);
+            return true;
+        }
+
+        boolean endTag = c == '/';
+        int nameStart = endTag ? start + 1 : start;
+        int nameEnd = nameStart;
+        while (nameEnd < html.length() && Character.isLetterOrDigit(html.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        if (nameEnd == nameStart || !Character.isLetter(html.charAt(nameStart))) {
+            return false;
+        }
+
+        String name = html.substring(nameStart, nameEnd).toLowerCase(Locale.ROOT);
+        int tagEnd = findTagEnd(nameEnd);
+        position = tagEnd;
+        if (endTag) {
+            handleEndTag(name);
+        } else {
+            handleStartTag(name, nameEnd, tagEnd);
+        }
+        return true;
+    }
+
+    private void handleStartTag(String name, int attributesStart, int tagEnd) {
+        if (HIDDEN_TAGS.contains(name)) {
+            endLine(true);
+            skipElementContent(name);
+        } else if ("br".equals(name)) {
+            endLine(true);
+        } else if ("li".equals(name)) {
+            endLine(true);
+            line.append("* ");
+        } else if ("a".equals(name)) {
+            linkUrl = getAttribute("href", attributesStart, tagEnd);
+        } else if (BLOCK_TAGS.contains(name)) {
+            endLine(true);
+        }
+    }
+
+    private void handleEndTag(String name) {
+        if ("a".equals(name)) {
+            if (linkUrl != null && hasScheme(linkUrl)) {
+                line.append(" <").append(linkUrl).append('>');
+            }
+            linkUrl = null;
+        } else if ("li".equals(name) || BLOCK_TAGS.contains(name)) {
+            endLine(true);
+        }
+    }
+
+    /**
+     * Skip to the end tag of an element whose content isn't shown. The content of 'head' ends
+     * at the start of the 'body' as well.
+     */
+    private void skipElementContent(String name) {
+        int end = indexOfIgnoreCase("</" + name, position);
+        if ("head".equals(name)) {
+            int bodyStart = indexOfIgnoreCase("<body", position);
+            if (bodyStart != -1 && (end == -1 || bodyStart < end)) {
+                position = bodyStart;
+                return;
+            }
+        }
+        position = (end == -1) ? html.length() : findTagEnd(end + 2 + name.length());
+    }
+
+    private void readEntity() {
+        int end = position + 1;
+        int limit = Math.min(html.length(), position + MAX_ENTITY_LENGTH);
+        while (end < limit && isEntityCharacter(html.charAt(end))) {
+            end++;
+        }
+        if (end < html.length() && html.charAt(end) == ';') {
+            end++;
+        }
+
+        String decoded = Parser.unescapeEntities(html.substring(position, end), false);
+        for (int i = 0; i < decoded.length(); i++) {
+            appendCharacter(decoded.charAt(i));
+        }
+        position = end;
+    }
+
+    private void appendCharacter(char c) {
+        if (c == NBSP_CHARACTER || c == PREVIEW_OBJECT_CHARACTER || Character.isWhitespace(c)) {
+            // Whitespace in HTML text only separates words
+            int length = line.length();
+            if (length > 0 && line.charAt(length - 1) != ' ') {
+                line.append(' ');
+            }
+        } else {
+            if (line.length() >= MAX_LINE_WIDTH) {
+                wrapLine();
+            }
+            line.append(c);
+        }
+    }
+
+    /**
+     * Break the line after its last space, so the lines are the same as in the text created by
+     * htmlToText(), which the rules dropping quote headers and similar lines were written for.
+     */
+    private void wrapLine() {
+        int lastSpace = line.lastIndexOf(" ");
+        if (lastSpace <= 0) {
+            return;
+        }
+        preview.appendLine(line, 0, lastSpace + 1, true);
+        line.delete(0, lastSpace + 1);
+    }
+
+    private void endLine(boolean terminated) {
+        if (line.length() > 0) {
+            preview.appendLine(line, 0, line.length(), terminated);
+            line.setLength(0);
+        }
+    }
+
+    /**
+     * @return the position after the '>' ending the tag, ignoring any '>' in quoted attribute values
+     */
+    private int findTagEnd(int start) {
+        char quote = 0;
+        char previous = 0;
+        for (int i = start; i < html.length(); i++) {
+            char c = html.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if ((c == '"' || c == '\'') && previous == '=') {
+                quote = c;
+            } else if (c == '>') {
+                return i + 1;
+            }
+            if (!Character.isWhitespace(c)) {
+                previous = c;
+            }
+        }
+        return html.length();
+    }
+
+    private String getAttribute(String attributeName, int start, int end) {
+        int i = start;
+        while (i < end) {
+            while (i < end && !Character.isLetter(html.charAt(i))) {
+                i++;
+            }
+            int nameStart = i;
+            while (i < end && isAttributeNameCharacter(html.charAt(i))) {
+                i++;
+            }
+            String name = html.substring(nameStart, i);
+            while (i < end && Character.isWhitespace(html.charAt(i))) {
+                i++;
+            }
+            if (i >= end || html.charAt(i) != '=') {
+                continue;
+            }
+            i++;
+            while (i < end && Character.isWhitespace(html.charAt(i))) {
+                i++;
+            }
+
+            int valueStart;
+            int valueEnd;
+            char quote = i < end ? html.charAt(i) : 0;
+            if (quote == '"' || quote == '\'') {
+                valueStart = i + 1;
+                valueEnd = html.indexOf(quote, valueStart);
+                if (valueEnd == -1 || valueEnd > end) {
+                    valueEnd = end - 1;
+                }
+                i = valueEnd + 1;
+            } else {
+                valueStart = i;
+                while (i < end && !Character.isWhitespace(html.charAt(i)) && html.charAt(i) != '>') {
+                    i++;
+                }
+                valueEnd = i;
+            }
+
+            if (name.equalsIgnoreCase(attributeName)) {
+                return Parser.unescapeEntities(html.substring(valueStart, valueEnd), true).trim();
+            }
+        }
+        return null;
+    }
+
+    private int indexAfter(String text, int start) {
+        int index = html.indexOf(text, start);
+        return (index == -1) ? html.length() : index + text.length();
+    }
+
+    private int indexOfIgnoreCase(String text, int start) {
+        for (int i = start; i <= html.length() - text.length(); i++) {
+            if (html.regionMatches(true, i, text, 0, text.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean hasScheme(String url) {
+        int colon = url.indexOf(':');
+        if (colon < 1 || !Character.isLetter(url.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < colon; i++) {
+            char c = url.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '+' && c != '-' && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isEntityCharacter(char c) {
+        return Character.isLetterOrDigit(c) || c == '#';
+    }
+
+    private static boolean isAttributeNameCharacter(char c) {
+        return !Character.isWhitespace(c) && c != '=' && c != '>' && c != '/' && c != '"' && c != '\'';
+    }
+}
@@ -0,0 +1,262 @@
+package org.atalk.xryptomail.message.extractors;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Builds the preview text of a message from its text, one line at a time.
+ * <p>
+ * Signatures, quoted text, quote headers, horizontal rules and URLs are dropped while the lines
+ * are read, and whitespace is collapsed to single spaces. Reading stops as soon as the preview is
+ * complete, so usually only the first few lines of a message are looked at.
+ * </p>
+ */
+class PreviewTextBuilder {
+    private static final int MIN_RULE_LENGTH = 30;
+    private static final String URL_REPLACEMENT = "...";
+    private static final char NO_TERMINATOR = 0;
+
+    private final int maxLength;
+    private final StringBuilder preview;
+    private boolean pendingSpace = false;
+    private boolean complete = false;
+    /**
+     * A URL continues past the end of the last line, which was followed by a character like
+     * U+2028 that is neither whitespace nor a line break.
+     */
+    private boolean inUrl = false;
+
+    /**
+     * @param maxLength the maximum length of the preview, including the ellipsis added when
+     * the text is cut off
+     */
+    PreviewTextBuilder(int maxLength) {
+        this.maxLength = maxLength;
+        preview = new StringBuilder(maxLength + 1);
+    }
+
+    /**
+     * @return {@code true} once no more text is needed for the preview
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Add plain text, which is split into lines at the usual line terminators.
+     */
+    void appendText(@NonNull CharSequence text) {
+        int length = text.length();
+        int lineStart = 0;
+        int i = 0;
+        while (i < length && !complete) {
+            char c = text.charAt(i);
+            if (isLineTerminator(c)) {
+                appendLine(text, lineStart, i, c);
+                i += (c == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') ? 2 : 1;
+                lineStart = i;
+            } else {
+                i++;
+            }
+        }
+        if (lineStart < length && !complete) {
+            appendLine(text, lineStart, length, NO_TERMINATOR);
+        }
+    }
+
+    /**
+     * Add one line of text.
+     *
+     * @param terminated {@code true} if the line is followed by a line break, which separates it
+     * from the next line like a space
+     */
+    void appendLine(@NonNull CharSequence text, int start, int end, boolean terminated) {
+        appendLine(text, start, end, terminated ? '\n' : NO_TERMINATOR);
+    }
+
+    @NonNull
+    String build() {
+        int length = preview.length();
+        while (length > 0 && preview.charAt(length - 1) <= ' ') {
+            length--;
+        }
+        if (length > maxLength) {
+            return preview.substring(0, maxLength - 1) + "…";
+        }
+        return preview.substring(0, length);
+    }
+
+    private void appendLine(CharSequence text, int start, int end, char terminator) {
+        if (complete) {
+            return;
+        }
+
+        boolean newline = terminator == '\r' || terminator == '\n';
+        if (isSignatureSeparator(text, start, end) && newline) {
+            // Everything after a correctly delimited signature separator is the signature
+            complete = true;
+            return;
+        }
+
+        if (!isHiddenLine(text, start, end)) {
+            appendVisibleText(text, start, end, !newline && terminator != NO_TERMINATOR);
+        }
+
+        if (newline) {
+            inUrl = false;
+            appendWhitespace();
+        } else if (terminator != NO_TERMINATOR && !inUrl) {
+            // Other line terminators aren't whitespace and stay in the preview
+            appendCharacter(terminator);
+        }
+    }
+
+    /**
+     * @param continued {@code true} if the line is followed by a character other than whitespace
+     */
+    private void appendVisibleText(CharSequence text, int start, int end, boolean continued) {
+        int i = start;
+        if (inUrl) {
+            i = findUrlEnd(text, i, end);
+            inUrl = i == end;
+        }
+
+        while (i < end && !complete) {
+            char c = text.charAt(i);
+            int ruleEnd = findRuleEnd(text, i, end);
+            if (ruleEnd != -1) {
+                appendWhitespace();
+                i = ruleEnd;
+            } else if (c == 'h' && isUrlStart(text, i, end, continued)) {
+                // URLs aren't clickable in the preview and usually overwhelm it
+                for (int j = 0; j < URL_REPLACEMENT.length(); j++) {
+                    appendCharacter(URL_REPLACEMENT.charAt(j));
+                }
+                i = findUrlEnd(text, i, end);
+                inUrl = i == end;
+            } else if (isWhitespace(c)) {
+                appendWhitespace();
+                i++;
+            } else {
+                appendCharacter(c);
+                i++;
+            }
+        }
+    }
+
+    private void appendCharacter(char c) {
+        if (preview.length() == 0 && c <= ' ') {
+            return;
+        }
+        if (pendingSpace) {
+            preview.append(' ');
+            pendingSpace = false;
+        }
+        preview.append(c);
+
+        // One character more than fits tells build() to cut the text off
+        if (preview.length() > maxLength && c > ' ') {
+            complete = true;
+        }
+    }
+
+    private void appendWhitespace() {
+        pendingSpace = preview.length() > 0;
+    }
+
+    /**
+     * A line consisting of "-- " only.
+     */
+    private static boolean isSignatureSeparator(CharSequence text, int start, int end) {
+        return end - start == 3 && text.charAt(start) == '-' && text.charAt(start + 1) == '-' &&
+                text.charAt(start + 2) == ' ';
+    }
+
+    /**
+     * Lines of dashes, quoted text and quote headers like "On ... wrote:" or "John Doe wrote:"
+     * aren't shown in the preview.
+     */
+    private static boolean isHiddenLine(CharSequence text, int start, int end) {
+        int length = end - start;
+        if (length == 0) {
+            return false;
+        }
+
+        char first = text.charAt(start);
+        if (first == '#' || first == '>' || regionMatches(text, start, end, "----")) {
+            return true;
+        }
+
+        if (length >= 2 && text.charAt(end - 1) == ':' && isWordCharacter(text.charAt(end - 2))) {
+            return true;
+        }
+
+        if (regionMatches(text, start, end, "On ")) {
+            int minStart = start + 3;
+            return (end - 5 >= minStart && regionMatches(text, end - 5, end, "wrote")) ||
+                    (end - 6 >= minStart && regionMatches(text, end - 6, end, "wrote"));
+        }
+        return false;
+    }
+
+    /**
+     * @return the end of the horizontal rule starting at {@code index}, or -1 if there is none
+     */
+    private static int findRuleEnd(CharSequence text, int index, int end) {
+        int i = index;
+        while (i < end && isRuleCharacter(text.charAt(i))) {
+            i++;
+        }
+        return i - index >= MIN_RULE_LENGTH ? i : -1;
+    }
+
+    private static boolean isUrlStart(CharSequence text, int index, int end, boolean continued) {
+        int schemeEnd;
+        if (regionMatches(text, index, end, "http://")) {
+            schemeEnd = index + 7;
+        } else if (regionMatches(text, index, end, "https://")) {
+            schemeEnd = index + 8;
+        } else {
+            return false;
+        }
+        if (schemeEnd == end) {
+            return continued;
+        }
+        return !isWhitespace(text.charAt(schemeEnd)) && findRuleEnd(text, schemeEnd, end) == -1;
+    }
+
+    private static int findUrlEnd(CharSequence text, int index, int end) {
+        int i = index;
+        while (i < end && !isWhitespace(text.charAt(i)) && findRuleEnd(text, i, end) == -1) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean regionMatches(CharSequence text, int index, int end, String prefix) {
+        if (end - index < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(index + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isRuleCharacter(char c) {
+        return c == '-' || c == '=' || c == '_';
+    }
+
+    private static boolean isWordCharacter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+}
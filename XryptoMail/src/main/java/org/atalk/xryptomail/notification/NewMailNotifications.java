@@ -4,6 +4,7 @@ import android.app.Notification;
 
 import androidx.core.app.NotificationManagerCompat;
 import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 
 import org.atalk.xryptomail.Account;
 import org.atalk.xryptomail.XryptoMail;
@@ -11,6 +12,13 @@ import org.atalk.xryptomail.XryptoMail.NotificationHideSubject;
 import org.atalk.xryptomail.activity.MessageReference;
 import org.atalk.xryptomail.mailstore.LocalMessage;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
 /**
  * Handle notifications for new messages.
  * <p>
@@ -20,6 +28,12 @@ import org.atalk.xryptomail.mailstore.LocalMessage;
  * notification when one or more of the stacked notifications are added/removed.<br>
  * {@link NotificationData} keeps track of all data required to (re)create the actual system notifications.
  * </p>
+ * <p>
+ * New messages often arrive in bursts, e.g. when a folder is synchronized. The messages arriving for an account
+ * within {@link #BATCH_WINDOW_MILLIS} of the first one are added to the {@link NotificationData} right away, but the
+ * system notifications are only updated once for the whole batch. The number of notification updates saved that
+ * way is counted and logged.
+ * </p>
  */
 class NewMailNotifications
 {
@@ -27,9 +41,25 @@ class NewMailNotifications
     private final NotificationContentCreator contentCreator;
     private final DeviceNotifications deviceNotifications;
     private final WearNotifications wearNotifications;
+    /**
+     * Maximum delay between the arrival of a new message and the update of the notifications.
+     */
+    private static final long BATCH_WINDOW_MILLIS = 500;
+
+    private static final ScheduledExecutorService batchExecutor =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "NewMailNotifications");
+                thread.setDaemon(true);
+                return thread;
+            });
+
     private final SparseArray<NotificationData> notifications = new SparseArray<NotificationData>();
+    private final SparseArray<PendingUpdate> pendingUpdates = new SparseArray<>();
     private final Object lock = new Object();
 
+    private final AtomicLong postedUpdates = new AtomicLong();
+    private final AtomicLong suppressedUpdates = new AtomicLong();
+
 
     NewMailNotifications(NotificationController controller, NotificationContentCreator contentCreator,
             DeviceNotifications deviceNotifications, WearNotifications wearNotifications)
@@ -58,12 +88,44 @@ class NewMailNotifications
             NotificationData notificationData = getOrCreateNotificationData(account, unreadMessageCount);
             AddNotificationResult result = notificationData.addNotificationContent(content);
 
-            if (result.shouldCancelNotification()) {
-                int notificationId = result.getNotificationId();
-                cancelNotification(notificationId);
+            int accountNumber = account.getAccountNumber();
+            PendingUpdate pendingUpdate = pendingUpdates.get(accountNumber);
+            if (pendingUpdate == null) {
+                pendingUpdate = new PendingUpdate();
+                pendingUpdates.put(accountNumber, pendingUpdate);
+                batchExecutor.schedule(() -> postPendingUpdate(account), BATCH_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+            } else {
+                // The summary notification is only rebuilt once for the whole batch
+                suppressedUpdates.incrementAndGet();
+            }
+            pendingUpdate.add(result);
+        }
+    }
+
+    private void postPendingUpdate(Account account)
+    {
+        synchronized (lock) {
+            int accountNumber = account.getAccountNumber();
+            PendingUpdate pendingUpdate = pendingUpdates.get(accountNumber);
+            pendingUpdates.remove(accountNumber);
+            NotificationData notificationData = getNotificationData(account);
+            if (pendingUpdate == null || notificationData == null) {
+                return;
             }
-            createStackedNotification(account, result.getNotificationHolder());
-            createSummaryNotification(account, notificationData, false);
+
+            for (int i = 0; i < pendingUpdate.notificationIdsToCancel.size(); i++) {
+                cancelNotification(pendingUpdate.notificationIdsToCancel.keyAt(i));
+            }
+            for (int i = 0; i < pendingUpdate.stackedNotifications.size(); i++) {
+                createStackedNotification(account, pendingUpdate.stackedNotifications.valueAt(i));
+            }
+            if (notificationData.getNewMessagesCount() > 0) {
+                createSummaryNotification(account, notificationData, false);
+            }
+
+            long posted = postedUpdates.incrementAndGet();
+            Timber.d("Notified %d new messages for %s in one update (updates: %d posted, %d suppressed)",
+                    pendingUpdate.messageCount, account.getDescription(), posted, suppressedUpdates.get());
         }
     }
 
@@ -79,6 +141,10 @@ class NewMailNotifications
                 return;
             }
             cancelNotification(result.getNotificationId());
+            PendingUpdate pendingUpdate = pendingUpdates.get(account.getAccountNumber());
+            if (pendingUpdate != null) {
+                pendingUpdate.remove(result.getNotificationId());
+            }
             if (result.shouldCreateNotification()) {
                 createStackedNotification(account, result.getNotificationHolder());
             }
@@ -91,6 +157,7 @@ class NewMailNotifications
         NotificationData notificationData;
         synchronized (lock) {
             notificationData = removeNotificationData(account);
+            pendingUpdates.remove(account.getAccountNumber());
         }
         if (notificationData == null) {
             return;
@@ -202,4 +269,34 @@ class NewMailNotifications
     {
         return controller.getNotificationManager();
     }
+
+    /**
+     * The changes to the notifications of an account collected during the current batch.
+     */
+    private class PendingUpdate
+    {
+        final SparseArray<NotificationHolder> stackedNotifications = new SparseArray<>();
+        final SparseBooleanArray notificationIdsToCancel = new SparseBooleanArray();
+        int messageCount;
+
+        void add(AddNotificationResult result)
+        {
+            messageCount++;
+            int notificationId = result.getNotificationHolder().notificationId;
+            if (result.shouldCancelNotification()) {
+                notificationIdsToCancel.put(result.getNotificationId(), true);
+            }
+            if (stackedNotifications.get(notificationId) != null) {
+                // Replaced by a newer message before it was shown
+                suppressedUpdates.incrementAndGet();
+            }
+            stackedNotifications.put(notificationId, result.getNotificationHolder());
+        }
+
+        void remove(int notificationId)
+        {
+            stackedNotifications.remove(notificationId);
+            notificationIdsToCancel.delete(notificationId);
+        }
+    }
 }
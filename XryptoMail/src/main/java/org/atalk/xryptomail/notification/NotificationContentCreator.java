@@ -14,8 +14,11 @@ import org.atalk.xryptomail.mail.Address;
 import org.atalk.xryptomail.mail.Flag;
 import org.atalk.xryptomail.mail.Message;
 import org.atalk.xryptomail.mailstore.LocalMessage;
+import org.atalk.xryptomail.message.extractors.PreviewResult;
 import org.atalk.xryptomail.message.extractors.PreviewResult.PreviewType;
 
+import timber.log.Timber;
+
 class NotificationContentCreator
 {
     private final Context mContext;
@@ -62,12 +65,25 @@ class NotificationContentCreator
     private String getPreview(LocalMessage message)
     {
         PreviewType previewType = message.getPreviewType();
+        String previewText = message.getPreview();
+        if (previewType == PreviewType.NONE) {
+            // New messages are notified before their preview is extracted in the background
+            try {
+                PreviewResult previewResult = message.createPreview();
+                previewType = previewResult.getPreviewType();
+                previewText = previewResult.isPreviewTextAvailable() ? previewResult.getPreviewText() : null;
+            } catch (Exception e) {
+                Timber.w(e, "Unable to create the preview of message %s", message.getUid());
+                return null;
+            }
+        }
+
         switch (previewType) {
             case NONE:
             case ERROR:
                 return null;
             case TEXT:
-                return message.getPreview();
+                return previewText;
             case ENCRYPTED:
                 return mContext.getString(R.string.preview_encrypted);
             case STEALTH:
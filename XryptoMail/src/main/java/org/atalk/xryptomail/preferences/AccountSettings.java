@@ -99,6 +99,15 @@ public class AccountSettings {
         s.put("idleRefreshMinutes", Settings.versions(
                 new V(1, new IntegerResourceSetting(24, R.array.idle_refresh_period_values))
             ));
+        s.put("imapIdleConnectionTimeout", Settings.versions(
+                new V(51, new IntegerRangeSetting(1, 60, Account.DEFAULT_IMAP_IDLE_CONNECTION_TIMEOUT_MINUTES))
+            ));
+        s.put("imapKeepaliveInterval", Settings.versions(
+                new V(51, new IntegerRangeSetting(10, 600, Account.DEFAULT_IMAP_KEEPALIVE_INTERVAL_SECONDS))
+            ));
+        s.put("imapMaxIdleConnections", Settings.versions(
+                new V(51, new IntegerRangeSetting(0, 10, Account.DEFAULT_IMAP_MAX_IDLE_CONNECTIONS))
+            ));
         s.put("inboxFolderName", Settings.versions(
                 new V(1, new StringSetting("INBOX"))
             ));
@@ -117,6 +126,9 @@ public class AccountSettings {
         s.put("maxPushFolders", Settings.versions(
                 new V(1, new IntegerRangeSetting(0, 100, 10))
             ));
+        s.put("maxSyncConnections", Settings.versions(
+                new V(50, new IntegerRangeSetting(1, 10, Account.DEFAULT_MAX_SYNC_CONNECTIONS))
+            ));
         s.put("maximumAutoDownloadMessageSize", Settings.versions(
                 new V(1, new IntegerResourceSetting(0,
                         R.array.account_settings_autodownload_message_size_values))
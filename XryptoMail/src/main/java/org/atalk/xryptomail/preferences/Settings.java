@@ -26,7 +26,7 @@ public class Settings {
      *
      * @see SettingsExporter
      */
-    public static final int VERSION = 49;
+    public static final int VERSION = 51;
 
     static Map<String, Object> validate(int version, Map<String, TreeMap<Integer, SettingsDescription>> settings,
             Map<String, String> importedSettings, boolean useDefaultValues) {
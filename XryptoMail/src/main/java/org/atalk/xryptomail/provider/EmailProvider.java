@@ -20,13 +20,20 @@ import org.atalk.xryptomail.helper.Utility;
 import org.atalk.xryptomail.mail.MessagingException;
 import org.atalk.xryptomail.mailstore.LocalStore;
 import org.atalk.xryptomail.mailstore.LockableDatabase;
+import org.atalk.xryptomail.mailstore.ThreadSummarySchema;
 import org.atalk.xryptomail.mailstore.UnavailableStorageException;
 import org.atalk.xryptomail.search.SqlQueryBuilder;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Content Provider used to display the message list etc.
@@ -71,6 +78,38 @@ public class EmailProvider extends ContentProvider {
         THREAD_AGGREGATION_FUNCS.put(MessageColumns.FORWARDED, "MIN");
     }
 
+    /**
+     * Expressions over the 'thread_summary' table that yield the same values as the aggregation
+     * functions in {@link #THREAD_AGGREGATION_FUNCS}.
+     */
+    private static final Map<String, String> THREAD_SUMMARY_COLUMNS = new HashMap<>();
+
+    static {
+        THREAD_SUMMARY_COLUMNS.put(MessageColumns.DATE, "latest_date");
+        THREAD_SUMMARY_COLUMNS.put(MessageColumns.INTERNAL_DATE, "latest_internal_date");
+        THREAD_SUMMARY_COLUMNS.put(MessageColumns.ATTACHMENT_COUNT, "attachment_sum");
+        THREAD_SUMMARY_COLUMNS.put(MessageColumns.READ, "(unread_count = 0)");
+        THREAD_SUMMARY_COLUMNS.put(MessageColumns.FLAGGED, "(flagged_count > 0)");
+        THREAD_SUMMARY_COLUMNS.put(MessageColumns.ANSWERED, "(unanswered_count = 0)");
+        THREAD_SUMMARY_COLUMNS.put(MessageColumns.FORWARDED, "(unforwarded_count = 0)");
+        THREAD_SUMMARY_COLUMNS.put(SpecialColumns.THREAD_COUNT, "message_count");
+    }
+
+    /**
+     * The selection used to list a single folder. Only this selection can be answered from the
+     * 'thread_summary' table, which holds the aggregates per thread and folder.
+     */
+    private static final String FOLDER_SELECTION = "folder_id = ?";
+
+    /**
+     * Identifiers that may appear in a stats selection that is answered from the message counters
+     * of the 'folders' table.
+     */
+    private static final Set<String> FOLDER_STATS_SELECTION_TOKENS = new HashSet<>(Arrays.asList(
+            "folder_id", FolderColumns.DISPLAY_CLASS, FolderColumns.INTEGRATE, "AND", "OR", "NOT", "LIKE"));
+
+    private static final Pattern SELECTION_TOKEN_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_.]*");
+
     private static final String[] FIXUP_MESSAGES_COLUMNS = {
             MessageColumns.ID
     };
@@ -143,6 +182,7 @@ public class EmailProvider extends ContentProvider {
         String FLAGGED = "flagged";
         String ANSWERED = "answered";
         String FORWARDED = "forwarded";
+        String CRYPTO_STATUS = "crypto_status";
     }
 
     private interface InternalMessageColumns extends MessageColumns {
@@ -359,18 +399,32 @@ public class EmailProvider extends ContentProvider {
                     }
                 }
 
+                boolean useThreadSummary = FOLDER_SELECTION.equals(selection) &&
+                        selectionArgs != null && selectionArgs.length == 1;
+
                 query.append(" FROM (");
-                createThreadedSubQuery(projection, selection, query);
+                if (useThreadSummary) {
+                    createThreadSummarySubQuery(query);
+                } else {
+                    createThreadedSubQuery(projection, selection, query);
+                }
                 query.append(") a ");
 
-                query.append("JOIN " + THREADS_TABLE + " t " +
-                        "ON (t." + ThreadColumns.ROOT + " = a.thread_root) " +
-                        "JOIN " + MESSAGES_TABLE + " m " +
-                        "ON (m." + MessageColumns.ID + " = t." + ThreadColumns.MESSAGE_ID +
-                        " AND m." + InternalMessageColumns.EMPTY + "=0 AND " +
-                        "m." + InternalMessageColumns.DELETED + "=0 AND " +
-                        "m." + MessageColumns.DATE + " = a." + MessageColumns.DATE +
-                        ") ");
+                if (useThreadSummary) {
+                    query.append("JOIN " + MESSAGES_TABLE + " m " +
+                            "ON (m." + MessageColumns.ID + " = a.latest_message_id) " +
+                            "JOIN " + THREADS_TABLE + " t " +
+                            "ON (t." + ThreadColumns.MESSAGE_ID + " = m." + MessageColumns.ID + ") ");
+                } else {
+                    query.append("JOIN " + THREADS_TABLE + " t " +
+                            "ON (t." + ThreadColumns.ROOT + " = a.thread_root) " +
+                            "JOIN " + MESSAGES_TABLE + " m " +
+                            "ON (m." + MessageColumns.ID + " = t." + ThreadColumns.MESSAGE_ID +
+                            " AND m." + InternalMessageColumns.EMPTY + "=0 AND " +
+                            "m." + InternalMessageColumns.DELETED + "=0 AND " +
+                            "m." + MessageColumns.DATE + " = a." + MessageColumns.DATE +
+                            ") ");
+                }
 
                 if (Utility.arrayContainsAny(projection, (Object[]) FOLDERS_COLUMNS)) {
                     query.append("JOIN " + FOLDERS_TABLE + " f " +
@@ -378,7 +432,9 @@ public class EmailProvider extends ContentProvider {
                             FolderColumns.ID + ") ");
                 }
 
-                query.append(" GROUP BY " + ThreadColumns.ROOT);
+                if (!useThreadSummary) {
+                    query.append(" GROUP BY " + ThreadColumns.ROOT);
+                }
 
                 if (!TextUtils.isEmpty(sortOrder)) {
                     query.append(" ORDER BY ");
@@ -394,6 +450,22 @@ public class EmailProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Select the threads of a single folder from the 'thread_summary' table, with the same columns
+     * as {@link #createThreadedSubQuery(String[], String, StringBuilder)}. This is a range scan over
+     * the folder's threads instead of a grouping of all of its messages.
+     */
+    private void createThreadSummarySubQuery(StringBuilder query) {
+        query.append("SELECT thread_root, latest_message_id");
+        for (Map.Entry<String, String> column : THREAD_SUMMARY_COLUMNS.entrySet()) {
+            query.append(",");
+            query.append(column.getValue());
+            query.append(" AS ");
+            query.append(column.getKey());
+        }
+        query.append(" FROM " + ThreadSummarySchema.TABLE + " WHERE thread_folder_id = ?");
+    }
+
     private void createThreadedSubQuery(String[] projection, String selection, StringBuilder query) {
         query.append("SELECT t." + ThreadColumns.ROOT + " AS thread_root");
         for (String columnName : projection) {
@@ -501,6 +573,9 @@ public class EmailProvider extends ContentProvider {
         // Use default projection if none was given
         String[] sourceProjection = (columns == null) ? STATS_DEFAULT_PROJECTION : columns;
 
+        // Selections on folders only are summed over the counters maintained in the 'folders' table
+        boolean useFolderCounters = isFolderStatsSelection(selection);
+
         // Create SQL query string
         final StringBuilder sql = new StringBuilder();
         sql.append("SELECT ");
@@ -516,14 +591,34 @@ public class EmailProvider extends ContentProvider {
             }
 
             if (StatsColumns.UNREAD_COUNT.equals(columnName)) {
-                sql.append("SUM(" + MessageColumns.READ + "=0) AS " + StatsColumns.UNREAD_COUNT);
+                if (useFolderCounters) {
+                    sql.append("SUM(" + FolderColumns.UNREAD_COUNT + ") AS " + StatsColumns.UNREAD_COUNT);
+                } else {
+                    sql.append("SUM(" + MessageColumns.READ + "=0) AS " + StatsColumns.UNREAD_COUNT);
+                }
             } else if (StatsColumns.FLAGGED_COUNT.equals(columnName)) {
-                sql.append("SUM(" + MessageColumns.FLAGGED + ") AS " + StatsColumns.FLAGGED_COUNT);
+                if (useFolderCounters) {
+                    sql.append("SUM(" + FolderColumns.FLAGGED_COUNT + ") AS " + StatsColumns.FLAGGED_COUNT);
+                } else {
+                    sql.append("SUM(" + MessageColumns.FLAGGED + ") AS " + StatsColumns.FLAGGED_COUNT);
+                }
             } else {
                 throw new IllegalArgumentException("Column name not allowed: " + columnName);
             }
         }
 
+        if (useFolderCounters) {
+            sql.append(" FROM (SELECT " + FolderColumns.ID + " AS folder_id, " +
+                    FolderColumns.DISPLAY_CLASS + ", " + FolderColumns.INTEGRATE + ", " +
+                    FolderColumns.UNREAD_COUNT + ", " + FolderColumns.FLAGGED_COUNT + " FROM " + FOLDERS_TABLE + ")");
+            if (!TextUtils.isEmpty(selection)) {
+                sql.append(" WHERE (");
+                sql.append(selection);
+                sql.append(")");
+            }
+            return queryStats(database, sql.toString(), selectionArgs);
+        }
+
         // Table selection
         sql.append(" FROM messages");
 
@@ -539,9 +634,13 @@ public class EmailProvider extends ContentProvider {
             sql.append(")");
         }
 
+        return queryStats(database, sql.toString(), selectionArgs);
+    }
+
+    private Cursor queryStats(LockableDatabase database, final String sql, final String[] selectionArgs) {
         // Query the database and return the result cursor
         try {
-            return database.execute(false, db -> db.rawQuery(sql.toString(), selectionArgs));
+            return database.execute(false, db -> db.rawQuery(sql, selectionArgs));
         } catch (UnavailableStorageException e) {
             throw new RuntimeException("Storage not available", e);
         } catch (MessagingException e) {
@@ -549,6 +648,27 @@ public class EmailProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Check whether a stats selection only restricts the set of folders, e.g. the one created by
+     * {@link Account#getStats(Context)}. Such a selection can be evaluated against the 'folders'
+     * table alone.
+     */
+    private static boolean isFolderStatsSelection(String selection) {
+        if (TextUtils.isEmpty(selection)) {
+            return true;
+        }
+
+        Matcher matcher = SELECTION_TOKEN_PATTERN.matcher(selection);
+        while (matcher.find()) {
+            String token = matcher.group();
+            if (!FOLDER_STATS_SELECTION_TOKENS.contains(token) &&
+                    !FOLDER_STATS_SELECTION_TOKENS.contains(token.toUpperCase(Locale.US))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private Account getAccount(String accountUuid) {
         if (mPreferences == null) {
             Context appContext = getContext().getApplicationContext();
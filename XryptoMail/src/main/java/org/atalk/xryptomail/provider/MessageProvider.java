@@ -22,14 +22,16 @@ import androidx.annotation.NonNull;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -47,9 +49,11 @@ import org.atalk.xryptomail.helper.MessageHelper;
 import org.atalk.xryptomail.mail.Flag;
 import org.atalk.xryptomail.mail.Message;
 import org.atalk.xryptomail.mail.MessagingException;
-import org.atalk.xryptomail.mailstore.LocalFolder;
 import org.atalk.xryptomail.mailstore.LocalMessage;
+import org.atalk.xryptomail.mailstore.LocalMessageIterator;
+import org.atalk.xryptomail.search.LocalSearch;
 import org.atalk.xryptomail.search.SearchAccount;
+import org.atalk.xryptomail.search.SearchSpecification;
 
 import timber.log.Timber;
 
@@ -543,21 +547,33 @@ public class MessageProvider extends ContentProvider {
          *
          * @return Never <code>null</code>.
          *
-         * @throws InterruptedException
+         * @throws MessagingException
          */
         protected MatrixCursor getMessages(String[] projection)
-                throws InterruptedException {
-            BlockingQueue<List<MessageInfoHolder>> queue = new SynchronousQueue<>();
-
-            // new code for integrated inbox, only execute this once as it will be processed
-            // afterwards via the listener
-            SearchAccount integratedInboxAccount = SearchAccount.createUnifiedInboxAccount(mContext);
-            MessagingController msgController = MessagingController.getInstance(mContext);
-            msgController.searchLocalMessages(integratedInboxAccount.getRelatedSearch(),
-                    new MessageInfoHolderRetrieverListener(queue));
-
-            List<MessageInfoHolder> holders = queue.take();
-            holders.sort(new ReverseDateComparator());
+                throws MessagingException {
+            // The messages of each account are read a page at a time, newest first, and merged by
+            // date, so only one page of messages per account is held in memory
+            LocalSearch search = SearchAccount.createUnifiedInboxAccount(mContext).getRelatedSearch();
+            final Comparator<MessageInfoHolder> comparator = new ReverseDateComparator();
+            PriorityQueue<AccountMessages> sources =
+                    new PriorityQueue<>(11, (a, b) -> comparator.compare(a.holder, b.holder));
+
+            Set<String> uuidSet = new HashSet<>(Arrays.asList(search.getAccountUuids()));
+            boolean allAccounts = uuidSet.contains(SearchSpecification.ALL_ACCOUNTS);
+            for (Account account : Preferences.getPreferences(mContext).getAccounts()) {
+                if (!allAccounts && !uuidSet.contains(account.getUuid())) {
+                    continue;
+                }
+                try {
+                    AccountMessages source = new AccountMessages(account,
+                            account.getLocalStore().searchForMessages(search));
+                    if (source.moveToNext()) {
+                        sources.add(source);
+                    }
+                } catch (MessagingException e) {
+                    Timber.e(e, "Unable to read the unified inbox messages of %s", account.getDescription());
+                }
+            }
 
             String[] projectionToUse;
             if (projection == null) {
@@ -567,22 +583,37 @@ public class MessageProvider extends ContentProvider {
                 projectionToUse = projection;
             }
 
+            // The count is only known once all messages are read, it is filled in below
             LinkedHashMap<String, FieldExtractor<MessageInfoHolder, ?>> extractors
-                    = resolveMessageExtractors(projectionToUse, holders.size());
+                    = resolveMessageExtractors(projectionToUse, 0);
             int fieldCount = extractors.size();
 
             String[] actualProjection = extractors.keySet().toArray(new String[fieldCount]);
-            MatrixCursor cursor = new MatrixCursor(actualProjection);
+            int countIndex = Arrays.asList(actualProjection).indexOf(MessageColumns._COUNT);
 
-            for (MessageInfoHolder holder : holders) {
+            List<Object[]> rows = new ArrayList<>();
+            AccountMessages source;
+            while ((source = sources.poll()) != null) {
                 Object[] o = new Object[fieldCount];
 
                 int i = 0;
                 for (FieldExtractor<MessageInfoHolder, ?> extractor : extractors.values()) {
-                    o[i] = extractor.getField(holder);
+                    o[i] = extractor.getField(source.holder);
                     i += 1;
                 }
-                cursor.addRow(o);
+                rows.add(o);
+
+                if (source.moveToNext()) {
+                    sources.add(source);
+                }
+            }
+
+            MatrixCursor cursor = new MatrixCursor(actualProjection, rows.size());
+            for (Object[] row : rows) {
+                if (countIndex != -1) {
+                    row[countIndex] = rows.size();
+                }
+                cursor.addRow(row);
             }
             return cursor;
         }
@@ -1145,41 +1176,34 @@ public class MessageProvider extends ContentProvider {
     }
 
     /**
-     * Synchronized listener used to retrieve {@link MessageInfoHolder}s using a given {@link BlockingQueue}.
+     * The messages of an account's unified inbox search, read one at a time.
      */
-    protected class MessageInfoHolderRetrieverListener extends SimpleMessagingListener {
-        private final BlockingQueue<List<MessageInfoHolder>> queue;
-        private final List<MessageInfoHolder> mHolders = new ArrayList<>();
+    private class AccountMessages {
+        private final Account account;
+        private final LocalMessageIterator messages;
+        private final MessagingController controller = MessagingController.getInstance(mContext);
 
         /**
-         * @param queue Never <code>null</code>. The synchronized channel to use
-         * to retrieve {@link MessageInfoHolder}s.
+         * The current message, valid after {@link #moveToNext()} returned {@code true}.
          */
-        public MessageInfoHolderRetrieverListener(BlockingQueue<List<MessageInfoHolder>> queue) {
-            this.queue = queue;
-        }
-
-        @Override
-        public void listLocalMessagesAddMessages(Account account, String folderName, List<LocalMessage> messages) {
-            for (LocalMessage message : messages) {
-                MessageInfoHolder messageInfoHolder = new MessageInfoHolder();
-                LocalFolder messageFolder = message.getFolder();
-                Account messageAccount = message.getAccount();
+        MessageInfoHolder holder;
 
-                FolderInfoHolder folderInfoHolder = new FolderInfoHolder(mContext, messageFolder, messageAccount);
-                mMessageHelper.populate(messageInfoHolder, message, folderInfoHolder, messageAccount);
-
-                mHolders.add(messageInfoHolder);
-            }
+        AccountMessages(Account account, LocalMessageIterator messages) {
+            this.account = account;
+            this.messages = messages;
         }
 
-        @Override
-        public void searchStats(AccountStats stats) {
-            try {
-                queue.put(mHolders);
-            } catch (InterruptedException e) {
-                Timber.e(e, "Unable to return message list back to caller");
+        boolean moveToNext() throws MessagingException {
+            while (messages.hasNext()) {
+                LocalMessage message = messages.next();
+                if (!controller.isMessageSuppressed(message)) {
+                    holder = new MessageInfoHolder();
+                    FolderInfoHolder folderInfoHolder = new FolderInfoHolder(mContext, message.getFolder(), account);
+                    mMessageHelper.populate(holder, message, folderInfoHolder, account);
+                    return true;
+                }
             }
+            return false;
         }
     }
 }
@@ -76,6 +76,7 @@ public interface SearchSpecification extends Parcelable {
         REPLY_TO,
         MESSAGE_CONTENTS,
         ATTACHMENT_COUNT,
+        CRYPTO_STATUS,
         DELETED,
         THREAD_ID,
         ID,
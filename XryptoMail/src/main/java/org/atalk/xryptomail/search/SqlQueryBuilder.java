@@ -19,6 +19,40 @@ public class SqlQueryBuilder {
         buildWhereClauseInternal(account, node, query, selectionArgs);
     }
 
+    /**
+     * Build the ORDER BY term that lists the results of a search of the message contents by
+     * relevance, best match first. It refers to the messages table as {@code m}.
+     *
+     * @return the term, or {@code null} if the message contents aren't searched
+     */
+    public static String buildSearchRankOrder(Account account, ConditionsTreeNode node,
+            List<String> selectionArgs) {
+        if (node == null) {
+            return null;
+        }
+
+        for (ConditionsTreeNode leaf : node.getLeafSet()) {
+            SearchCondition condition = leaf.mCondition;
+            if (condition.field != SearchField.MESSAGE_CONTENTS) {
+                continue;
+            }
+
+            String matchQuery = getSearchMatchQuery(account, condition.value);
+            if (matchQuery == null) {
+                return null;
+            }
+            try {
+                String rankSql = account.getLocalStore().createSearchRankSql();
+                selectionArgs.add(matchQuery);
+                return rankSql + " ASC";
+            } catch (MessagingException e) {
+                Timber.e(e, "Unable to rank the search results");
+                return null;
+            }
+        }
+        return null;
+    }
+
     private static void buildWhereClauseInternal(Account account, ConditionsTreeNode node,
             StringBuilder query, List<String> selectionArgs) {
         if (node == null) {
@@ -74,12 +108,17 @@ public class SqlQueryBuilder {
                     break;
                 }
                 case MESSAGE_CONTENTS: {
-                    String fulltextQueryString = condition.value;
                     if (condition.attribute != Attribute.CONTAINS) {
                         Timber.e("message contents can only be matched!");
                     }
-                    query.append("m.id IN (SELECT docid FROM messages_fulltext WHERE fulltext MATCH ?)");
-                    selectionArgs.add(fulltextQueryString);
+                    String matchQuery = getSearchMatchQuery(account, condition.value);
+                    if (matchQuery == null) {
+                        // Nothing to search for, never select
+                        query.append("0");
+                    } else {
+                        query.append("m.id IN (SELECT rowid FROM messages_search WHERE messages_search MATCH ?)");
+                        selectionArgs.add(matchQuery);
+                    }
                     break;
                 }
                 default: {
@@ -117,6 +156,15 @@ public class SqlQueryBuilder {
         return folderId;
     }
 
+    private static String getSearchMatchQuery(Account account, String text) {
+        try {
+            return account.getLocalStore().createSearchMatchQuery(text);
+        } catch (MessagingException e) {
+            Timber.e(e, "Unable to build the search query");
+            return null;
+        }
+    }
+
     private static String getColumnName(SearchCondition condition) {
         String columnName = null;
         switch (condition.field) {
@@ -124,6 +172,10 @@ public class SqlQueryBuilder {
                 columnName = "attachment_count";
                 break;
             }
+            case CRYPTO_STATUS: {
+                columnName = "crypto_status";
+                break;
+            }
             case BCC: {
                 columnName = "bcc_list";
                 break;
@@ -261,6 +313,7 @@ public class SqlQueryBuilder {
     private static boolean isNumberColumn(SearchField field) {
         switch (field) {
             case ATTACHMENT_COUNT:
+            case CRYPTO_STATUS:
             case DATE:
             case DELETED:
             case FOLDER:
@@ -0,0 +1,267 @@
+package org.atalk.xryptomail.ui.crypto;
+
+import android.app.PendingIntent;
+import android.os.SystemClock;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.atalk.xryptomail.XryptoMail;
+import org.atalk.xryptomail.mail.Part;
+import org.atalk.xryptomail.mailstore.CryptoResultAnnotation;
+import org.atalk.xryptomail.mailstore.LocalPart;
+import org.openintents.openpgp.OpenPgpDecryptionResult;
+import org.openintents.openpgp.OpenPgpSignatureResult;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import timber.log.Timber;
+
+/**
+ * Keeps the results of recent OpenPGP operations, so a message that is opened again doesn't have to
+ * be sent through the OpenPGP provider again.
+ * <p>
+ * The decrypted content is kept encrypted with a random key that only exists in memory, and the
+ * total size of the cache is bounded. Entries are keyed by the id of the message part holding the
+ * encrypted or signed data, the OpenPGP provider and the key configured for the account, so changing
+ * either makes the old entries unreachable. Since keys changing inside the OpenPGP provider can't be
+ * observed, entries also expire after a few minutes and the cache is cleared whenever the user
+ * interacted with the provider.
+ * </p>
+ */
+class DecryptedContentCache {
+    private static final int MAX_CACHE_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_CONTENT_SIZE = 1024 * 1024;
+    private static final long MAX_AGE_MILLIS = 10 * 60 * 1000;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+    private static final String CIPHER_TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private static DecryptedContentCache sInstance;
+
+    private final LruCache<String, CachedResult> cache = new LruCache<String, CachedResult>(MAX_CACHE_SIZE) {
+        @Override
+        protected int sizeOf(String key, CachedResult value) {
+            return value.content != null ? value.content.getSize() : 1;
+        }
+    };
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final SecretKey secretKey;
+
+    static synchronized DecryptedContentCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new DecryptedContentCache();
+        }
+        return sInstance;
+    }
+
+    private DecryptedContentCache() {
+        SecretKey key;
+        try {
+            KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+            keyGenerator.init(256, secureRandom);
+            key = keyGenerator.generateKey();
+        } catch (GeneralSecurityException e) {
+            Timber.e(e, "Unable to create the key of the decrypted content cache, caching disabled");
+            key = null;
+        }
+        secretKey = key;
+    }
+
+    /**
+     * @return the key of the results of decrypting or verifying {@code part}, or {@code null} if the
+     * results of this part can't be cached
+     */
+    @Nullable
+    static String getCacheKey(@NonNull Part part) {
+        if (!(part instanceof LocalPart)) {
+            return null;
+        }
+        LocalPart localPart = (LocalPart) part;
+        if (localPart.getMessage() == null) {
+            return null;
+        }
+        return XryptoMail.getOpenPgpProvider() + "/" + localPart.getAccountUuid() + "/" +
+                localPart.getMessage().getAccount().getCryptoKey() + "/" +
+                localPart.getMessage().getDatabaseId() + "/" + localPart.getPartId() + "/" + localPart.getSize();
+    }
+
+    @Nullable
+    CachedResult get(@NonNull String key) {
+        CachedResult cachedResult = cache.get(key);
+        if (cachedResult != null && SystemClock.elapsedRealtime() - cachedResult.timestamp > MAX_AGE_MILLIS) {
+            cache.remove(key);
+            return null;
+        }
+        return cachedResult;
+    }
+
+    /**
+     * Keep the result of a successful OpenPGP operation.
+     *
+     * @param content the decrypted content, or {@code null} for the result of a detached signature
+     */
+    void put(@NonNull String key, @NonNull CryptoResultAnnotation annotation, @Nullable SealedContent content) {
+        OpenPgpSignatureResult signatureResult = annotation.getOpenPgpSignatureResult();
+        if (signatureResult != null && signatureResult.getResult() == OpenPgpSignatureResult.RESULT_KEY_MISSING) {
+            // The user may import the key right away, the signature must be checked again then
+            return;
+        }
+        cache.put(key, new CachedResult(annotation, content));
+    }
+
+    void remove(@NonNull String key) {
+        cache.remove(key);
+    }
+
+    void clear() {
+        cache.evictAll();
+    }
+
+    /**
+     * Wrap the stream the decrypted content is read from, to capture the content for the cache.
+     */
+    @NonNull
+    CapturingInputStream capture(@NonNull InputStream inputStream) {
+        return new CapturingInputStream(inputStream);
+    }
+
+    /**
+     * Encrypt decrypted content for the cache.
+     *
+     * @return the encrypted content, or {@code null} if it is too large to be cached
+     */
+    @Nullable
+    @WorkerThread
+    SealedContent seal(@Nullable byte[] content) {
+        if (content == null || content.length > MAX_CONTENT_SIZE || secretKey == null) {
+            return null;
+        }
+        try {
+            byte[] iv = new byte[IV_LENGTH];
+            secureRandom.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+            return new SealedContent(iv, cipher.doFinal(content));
+        } catch (GeneralSecurityException e) {
+            Timber.w(e, "Unable to encrypt decrypted content for the cache");
+            return null;
+        }
+    }
+
+    @NonNull
+    @WorkerThread
+    byte[] open(@NonNull SealedContent content) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(TAG_LENGTH_BITS, content.iv));
+        return cipher.doFinal(content.ciphertext);
+    }
+
+    static class SealedContent {
+        private final byte[] iv;
+        private final byte[] ciphertext;
+
+        private SealedContent(byte[] iv, byte[] ciphertext) {
+            this.iv = iv;
+            this.ciphertext = ciphertext;
+        }
+
+        int getSize() {
+            return iv.length + ciphertext.length;
+        }
+    }
+
+    static class CachedResult {
+        final long timestamp = SystemClock.elapsedRealtime();
+        @Nullable final SealedContent content;
+        final OpenPgpDecryptionResult decryptionResult;
+        final OpenPgpSignatureResult signatureResult;
+        final PendingIntent pendingIntent;
+        final PendingIntent insecureWarningPendingIntent;
+        final boolean overrideCryptoWarning;
+
+        private CachedResult(CryptoResultAnnotation annotation, @Nullable SealedContent content) {
+            this.content = content;
+            decryptionResult = annotation.getOpenPgpDecryptionResult();
+            signatureResult = annotation.getOpenPgpSignatureResult();
+            pendingIntent = annotation.getOpenPgpPendingIntent();
+            insecureWarningPendingIntent = annotation.getOpenPgpInsecureWarningPendingIntent();
+            overrideCryptoWarning = annotation.isOverrideSecurityWarning();
+        }
+    }
+
+    /**
+     * Keeps a copy of the data read through it, as long as it is small enough to be cached.
+     */
+    static class CapturingInputStream extends FilterInputStream {
+        private ByteArrayOutputStream captured = new ByteArrayOutputStream();
+
+        private CapturingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1 && captured != null) {
+                captured.write(b);
+                checkCapturedSize();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0 && captured != null) {
+                captured.write(buffer, offset, count);
+                checkCapturedSize();
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped data can't be captured
+            captured = null;
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Read the rest of the stream, in case the reader stopped before its end.
+         *
+         * @return everything read from the stream, or {@code null} if it was too large to be cached
+         */
+        @Nullable
+        byte[] finish() throws IOException {
+            byte[] buffer = new byte[8192];
+            while (captured != null && read(buffer, 0, buffer.length) != -1) {
+                // Only captured
+            }
+            return captured != null ? captured.toByteArray() : null;
+        }
+
+        private void checkCapturedSize() {
+            if (captured.size() > MAX_CONTENT_SIZE) {
+                captured = null;
+            }
+        }
+    }
+}
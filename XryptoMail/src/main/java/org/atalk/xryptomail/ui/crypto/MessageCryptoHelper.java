@@ -2,6 +2,9 @@ package org.atalk.xryptomail.ui.crypto;
 
 import android.app.*;
 import android.content.*;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -19,13 +22,19 @@ import org.atalk.xryptomail.mailstore.*;
 import org.atalk.xryptomail.mailstore.CryptoResultAnnotation.CryptoError;
 import org.atalk.xryptomail.mailstore.util.FileFactory;
 import org.atalk.xryptomail.provider.DecryptedFileProvider;
+import org.atalk.xryptomail.ui.crypto.DecryptedContentCache.CachedResult;
+import org.atalk.xryptomail.ui.crypto.DecryptedContentCache.CapturingInputStream;
+import org.atalk.xryptomail.ui.crypto.DecryptedContentCache.SealedContent;
 import org.openintents.openpgp.*;
 import org.openintents.openpgp.util.*;
 import org.openintents.openpgp.util.OpenPgpApi.*;
 import org.openintents.openpgp.util.OpenPgpServiceConnection.OnBound;
 
 import java.io.*;
+import java.security.GeneralSecurityException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import timber.log.Timber;
 
@@ -34,11 +43,22 @@ public class MessageCryptoHelper {
     private static final MimeBodyPart NO_REPLACEMENT_PART = null;
     private static final int REQUEST_CODE_USER_INTERACTION = 124;
 
+    private static final ExecutorService cacheExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        });
+        thread.setName("DecryptedContentCache");
+        return thread;
+    });
+
     private final Context mContext;
     private final String openPgpProvider;
     private final AutocryptOperations autocryptOperations;
     private final Object callbackLock = new Object();
     private final Deque<CryptoPart> partsToProcess = new ArrayDeque<>();
+    private final DecryptedContentCache decryptedContentCache = DecryptedContentCache.getInstance();
+    private final Handler handler = new Handler(Looper.getMainLooper());
 
     @Nullable
     private MessageCryptoCallback mCallback;
@@ -51,6 +71,10 @@ public class MessageCryptoHelper {
     private MessageCryptoAnnotations messageAnnotations;
     private CryptoPart currentCryptoPart;
     private Intent currentCryptoResult;
+    /**
+     * The decrypted content of the current part, set by the data sink for the cache.
+     */
+    private volatile SealedContent currentDecryptedContent;
     private Intent userInteractionResultIntent;
     private State state;
     private CancelableBackgroundOperation cancelableBackgroundOperation;
@@ -183,6 +207,10 @@ public class MessageCryptoHelper {
             return;
         }
 
+        if (userInteractionResultIntent == null && loadCachedResult(partsToProcess.peekFirst())) {
+            return;
+        }
+
         if (!isBoundToCryptoProviderService()) {
             connectToCryptoProviderService();
             return;
@@ -246,6 +274,7 @@ public class MessageCryptoHelper {
     }
 
     private void decryptVerify(Intent apiIntent) {
+        currentDecryptedContent = null;
         try {
             CryptoPartType cryptoPartType = currentCryptoPart.type;
             switch (cryptoPartType) {
@@ -325,8 +354,9 @@ public class MessageCryptoHelper {
             try {
                 ByteArrayOutputStream decryptedByteOutputStream = new ByteArrayOutputStream();
                 FileBackend.copy(is, decryptedByteOutputStream);
-                TextBody body = new TextBody(decryptedByteOutputStream.toString());
-                return new MimeBodyPart(body, "text/plain");
+                byte[] decryptedData = decryptedByteOutputStream.toByteArray();
+                currentDecryptedContent = decryptedContentCache.seal(decryptedData);
+                return createInlineDecryptedPart(decryptedData);
             } catch (MessagingException e) {
                 Timber.e(e, "MessagingException");
             }
@@ -444,7 +474,10 @@ public class MessageCryptoHelper {
         return is -> {
             try {
                 FileFactory fileFactory = DecryptedFileProvider.getFileFactory(mContext);
-                return MimePartStreamParser.parse(fileFactory, is);
+                CapturingInputStream capturingInputStream = decryptedContentCache.capture(is);
+                MimeBodyPart decryptedPart = MimePartStreamParser.parse(fileFactory, capturingInputStream);
+                currentDecryptedContent = decryptedContentCache.seal(capturingInputStream.finish());
+                return decryptedPart;
             } catch (MessagingException e) {
                 Timber.e(e, "Something went wrong while parsing the decrypted MIME part");
                 //TODO: pass error to main thread and display error message to user
@@ -523,9 +556,107 @@ public class MessageCryptoHelper {
         CryptoResultAnnotation resultAnnotation = CryptoResultAnnotation.createOpenPgpResultAnnotation(decryptionResult,
                 signatureResult, pendingIntent, insecureWarningPendingIntent, outputPart, overrideCryptoWarning);
 
+        putResultInCache(resultAnnotation, outputPart);
+        onCryptoOperationSuccess(resultAnnotation);
+    }
+
+    private void putResultInCache(CryptoResultAnnotation resultAnnotation, MimeBodyPart outputPart) {
+        SealedContent decryptedContent = currentDecryptedContent;
+        currentDecryptedContent = null;
+
+        boolean hasDecryptedContent = currentCryptoPart.type != CryptoPartType.PGP_SIGNED;
+        if (hasDecryptedContent && (outputPart == null || decryptedContent == null)) {
+            // Failed to parse or too large to be cached
+            return;
+        }
+
+        String cacheKey = getCacheKey(currentCryptoPart);
+        if (cacheKey != null) {
+            decryptedContentCache.put(cacheKey, resultAnnotation, hasDecryptedContent ? decryptedContent : null);
+        }
+    }
+
+    /**
+     * Look up the result of decrypting or verifying a part in the {@link DecryptedContentCache}.
+     * If it is found, the decrypted content is restored in the background and processing continues
+     * with the next part without calling the OpenPGP provider.
+     *
+     * @return {@code true} if the cached result is being restored
+     */
+    private boolean loadCachedResult(CryptoPart cryptoPart) {
+        if (cryptoPart.type == CryptoPartType.PLAIN_AUTOCRYPT) {
+            return false;
+        }
+        String cacheKey = getCacheKey(cryptoPart);
+        if (cacheKey == null) {
+            return false;
+        }
+        CachedResult cachedResult = decryptedContentCache.get(cacheKey);
+        if (cachedResult == null) {
+            return false;
+        }
+
+        currentCryptoPart = cryptoPart;
+        cacheExecutor.execute(() -> {
+            try {
+                MimeBodyPart decryptedPart = restoreDecryptedPart(cryptoPart.type, cachedResult);
+                handler.post(() -> onCachedResultLoaded(cachedResult, decryptedPart));
+            } catch (IOException | MessagingException | GeneralSecurityException e) {
+                Timber.w(e, "Unable to restore cached decrypted content");
+                decryptedContentCache.remove(cacheKey);
+                handler.post(this::onCachedResultFailed);
+            }
+        });
+        return true;
+    }
+
+    @WorkerThread
+    private MimeBodyPart restoreDecryptedPart(CryptoPartType cryptoPartType, CachedResult cachedResult)
+            throws IOException, MessagingException, GeneralSecurityException {
+        if (cachedResult.content == null) {
+            return null;
+        }
+
+        byte[] decryptedData = decryptedContentCache.open(cachedResult.content);
+        if (cryptoPartType == CryptoPartType.PGP_INLINE) {
+            return createInlineDecryptedPart(decryptedData);
+        }
+        FileFactory fileFactory = DecryptedFileProvider.getFileFactory(mContext);
+        return MimePartStreamParser.parse(fileFactory, new ByteArrayInputStream(decryptedData));
+    }
+
+    private void onCachedResultLoaded(CachedResult cachedResult, MimeBodyPart decryptedPart) {
+        if (isCancelled) {
+            return;
+        }
+
+        CryptoResultAnnotation resultAnnotation = CryptoResultAnnotation.createOpenPgpResultAnnotation(
+                cachedResult.decryptionResult, cachedResult.signatureResult, cachedResult.pendingIntent,
+                cachedResult.insecureWarningPendingIntent, decryptedPart, cachedResult.overrideCryptoWarning);
         onCryptoOperationSuccess(resultAnnotation);
     }
 
+    private void onCachedResultFailed() {
+        if (isCancelled) {
+            return;
+        }
+
+        // The cache entry is gone, so the part is now sent to the OpenPGP provider
+        currentCryptoPart = null;
+        nextStep();
+    }
+
+    @Nullable
+    private static String getCacheKey(CryptoPart cryptoPart) {
+        String partKey = DecryptedContentCache.getCacheKey(cryptoPart.part);
+        return (partKey != null) ? cryptoPart.type + "/" + partKey : null;
+    }
+
+    private static MimeBodyPart createInlineDecryptedPart(byte[] decryptedData) throws MessagingException {
+        TextBody body = new TextBody(new String(decryptedData));
+        return new MimeBodyPart(body, "text/plain");
+    }
+
     private void parseAutocryptGossipHeadersFromDecryptedPart(MimeBodyPart outputPart) {
         if (!autocryptOperations.hasAutocryptGossipHeader(outputPart)) {
             return;
@@ -550,6 +681,8 @@ public class MessageCryptoHelper {
             throw new IllegalStateException("got an activity result that wasn't meant for us. this is a bug!");
         }
         if (resultCode == Activity.RESULT_OK) {
+            // The user may have changed keys in the OpenPGP provider
+            decryptedContentCache.clear();
             userInteractionResultIntent = data;
             nextStep();
         } else {
@@ -0,0 +1,183 @@
+package org.openintents.openpgp.util;
+
+import android.os.SystemClock;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * Runs the transfers between the pipes to and from the OpenPGP provider and the local streams on
+ * a shared, bounded pool of threads.
+ * <p>
+ * At most {@link #MAX_TRANSFERS} transfers run at the same time. Starting another transfer blocks
+ * until a running one finishes. Both ends of an operation's pipes are pumped by transfers, so
+ * operations waiting for each other could fill up the pool and never finish. To avoid that, a
+ * transfer that can't start within {@link #MAX_WAIT_MILLIS} runs on a thread of its own.
+ * </p>
+ * <p>
+ * Each pool thread reuses one large copy buffer, and every transfer logs its size and duration.
+ * </p>
+ */
+class IpcTransferExecutor {
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_TRANSFERS = 8;
+    private static final long MAX_WAIT_MILLIS = 5000;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private static final AtomicInteger threadCount = new AtomicInteger(0);
+    private static final Semaphore transferPermits = new Semaphore(MAX_TRANSFERS, true);
+    // The permits keep the number of queued transfers within the pool size
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_TRANSFERS, MAX_TRANSFERS,
+            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), runnable -> {
+                Thread thread = new Thread(runnable, "IPC Transfer Thread #" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    static void execute(final Transfer<?> transfer) {
+        transfer.queuedAt = SystemClock.elapsedRealtime();
+
+        boolean acquired;
+        try {
+            acquired = transferPermits.tryAcquire(MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+
+        if (!acquired) {
+            Timber.w("All IPC transfer threads busy, starting a separate thread for %s", transfer.name);
+            Thread thread = new Thread(transfer, transfer.name);
+            thread.setDaemon(true);
+            thread.start();
+            return;
+        }
+
+        executor.execute(() -> {
+            try {
+                transfer.run();
+            } finally {
+                transferPermits.release();
+            }
+        });
+    }
+
+    /**
+     * @return the copy buffer of the current thread
+     */
+    static byte[] getBuffer() {
+        return buffers.get();
+    }
+
+    /**
+     * A transfer between a pipe and a local stream, producing a result once it is finished.
+     */
+    abstract static class Transfer<T> implements Runnable {
+        final String name;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private long queuedAt;
+        private long byteCount;
+        private T result;
+
+        Transfer(String name) {
+            this.name = name;
+        }
+
+        abstract T transfer() throws IOException;
+
+        @Override
+        public final void run() {
+            long startedAt = SystemClock.elapsedRealtime();
+            try {
+                result = transfer();
+            } catch (IOException e) {
+                Timber.e(e, "IOException in %s", name);
+                result = null;
+            } finally {
+                long now = SystemClock.elapsedRealtime();
+                Timber.d("%s: %d bytes in %d ms, waited %d ms", name, byteCount, now - startedAt,
+                        startedAt - queuedAt);
+                finished.countDown();
+            }
+        }
+
+        /**
+         * Wait for the transfer to finish.
+         */
+        void join() throws InterruptedException {
+            finished.await();
+        }
+
+        T getResult() {
+            if (finished.getCount() > 0) {
+                throw new IllegalStateException("result must be accessed only *after* the transfer finished!");
+            }
+            return result;
+        }
+
+        InputStream countBytes(InputStream inputStream) {
+            return new FilterInputStream(inputStream) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        byteCount++;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int count = super.read(buffer, offset, length);
+                    if (count > 0) {
+                        byteCount += count;
+                    }
+                    return count;
+                }
+            };
+        }
+
+        OutputStream countBytes(OutputStream outputStream) {
+            return new FilterOutputStream(outputStream) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    byteCount++;
+                }
+
+                @Override
+                public void write(byte[] buffer, int offset, int length) throws IOException {
+                    out.write(buffer, offset, length);
+                    byteCount += length;
+                }
+            };
+        }
+
+        void addBytes(long count) {
+            byteCount += count;
+        }
+    }
+}
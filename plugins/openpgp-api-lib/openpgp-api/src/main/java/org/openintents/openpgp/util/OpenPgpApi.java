@@ -33,8 +33,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import org.openintents.openpgp.IOpenPgpService2;
 import org.openintents.openpgp.OpenPgpError;
-import org.openintents.openpgp.util.ParcelFileDescriptorUtil.DataSinkTransferThread;
-import org.openintents.openpgp.util.ParcelFileDescriptorUtil.DataSourceTransferThread;
+import org.openintents.openpgp.util.IpcTransferExecutor.Transfer;
+import org.openintents.openpgp.util.ParcelFileDescriptorUtil.DataSinkTransfer;
 
 import timber.log.Timber;
 
@@ -470,7 +470,7 @@ public class OpenPgpApi {
                 input = dataSource.startPumpThread();
             }
 
-            DataSinkTransferThread<T> pumpThread = null;
+            DataSinkTransfer<T> pumpThread = null;
             int outputPipeId = 0;
 
             if (dataSink != null) {
@@ -508,7 +508,7 @@ public class OpenPgpApi {
                 input = ParcelFileDescriptorUtil.pipeFrom(is);
             }
 
-            Thread pumpThread = null;
+            Transfer<?> pumpThread = null;
             int outputPipeId = 0;
 
             if (os != null) {
@@ -559,7 +559,8 @@ public class OpenPgpApi {
             ParcelFileDescriptor readSidePfd = pipe[0];
             writeSidePfd = pipe[1];
 
-            new DataSourceTransferThread(this, new ParcelFileDescriptor.AutoCloseOutputStream(writeSidePfd)).start();
+            ParcelFileDescriptorUtil.asyncPipeFromDataSource(this,
+                    new ParcelFileDescriptor.AutoCloseOutputStream(writeSidePfd));
 
             return readSidePfd;
         }
@@ -593,7 +594,7 @@ public class OpenPgpApi {
                 input = dataSource.startPumpThread();
             }
 
-            Thread pumpThread = null;
+            Transfer<?> pumpThread = null;
             int outputPipeId = 0;
 
             if (os != null) {
@@ -647,7 +648,7 @@ public class OpenPgpApi {
                     new OpenPgpError(OpenPgpError.CLIENT_SIDE_ERROR, e.getMessage()));
             return result;
         } finally {
-            // close() is required to halt the TransferThread
+            // close() is required to halt the transfer
             closeLoudly(input);
         }
     }
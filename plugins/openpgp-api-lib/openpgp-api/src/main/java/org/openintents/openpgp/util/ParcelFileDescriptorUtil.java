@@ -27,11 +27,16 @@ import android.os.ParcelFileDescriptor.AutoCloseInputStream;
 import android.system.ErrnoException;
 import android.system.OsConstants;
 
+import org.openintents.openpgp.util.IpcTransferExecutor.Transfer;
 import org.openintents.openpgp.util.OpenPgpApi.OpenPgpDataSink;
 import org.openintents.openpgp.util.OpenPgpApi.OpenPgpDataSource;
 
 import timber.log.Timber;
 
+/**
+ * Pipes data to and from the OpenPGP provider. The transfers run on the shared
+ * {@link IpcTransferExecutor}.
+ */
 public class ParcelFileDescriptorUtil {
 
     public static ParcelFileDescriptor pipeFrom(InputStream inputStream)
@@ -40,40 +45,40 @@ public class ParcelFileDescriptorUtil {
         ParcelFileDescriptor readSide = pipe[0];
         ParcelFileDescriptor writeSide = pipe[1];
 
-        new TransferThread(inputStream, new ParcelFileDescriptor.AutoCloseOutputStream(writeSide))
-                .start();
+        IpcTransferExecutor.execute(
+                new StreamTransfer(inputStream, new ParcelFileDescriptor.AutoCloseOutputStream(writeSide)));
 
         return readSide;
     }
 
-    public static TransferThread pipeTo(OutputStream outputStream, ParcelFileDescriptor output) {
+    public static StreamTransfer pipeTo(OutputStream outputStream, ParcelFileDescriptor output) {
 
         AutoCloseInputStream InputStream = new AutoCloseInputStream(output);
-        TransferThread t = new TransferThread(InputStream, outputStream);
+        StreamTransfer transfer = new StreamTransfer(InputStream, outputStream);
 
-        t.start();
-        return t;
+        IpcTransferExecutor.execute(transfer);
+        return transfer;
     }
 
-    static class TransferThread extends Thread {
+    static class StreamTransfer extends Transfer<Void> {
         final InputStream mIn;
         final OutputStream mOut;
 
-        TransferThread(InputStream in, OutputStream out) {
-            super("IPC Transfer Thread");
+        StreamTransfer(InputStream in, OutputStream out) {
+            super("IPC Transfer");
             mIn = in;
             mOut = out;
-            setDaemon(true);
         }
 
         @Override
-        public void run() {
-            byte[] buf = new byte[4096];
+        Void transfer() {
+            byte[] buf = IpcTransferExecutor.getBuffer();
             int len;
 
             try {
                 while ((len = mIn.read(buf)) > 0) {
                     mOut.write(buf, 0, len);
+                    addBytes(len);
                 }
             } catch (IOException e) {
                 Timber.e(e, "IOException when writing to out");
@@ -87,33 +92,38 @@ public class ParcelFileDescriptorUtil {
                 } catch (IOException ignored) {
                 }
             }
+            return null;
         }
     }
 	
 	// cmeng - Below DataSource not required if use inputStream instead
-    public static <T> DataSinkTransferThread<T> asyncPipeToDataSink(
+    public static <T> DataSinkTransfer<T> asyncPipeToDataSink(
             OpenPgpDataSink<T> dataSink, ParcelFileDescriptor output) {
-        InputStream inputStream = new BufferedInputStream(new AutoCloseInputStream(output));
-        DataSinkTransferThread<T> dataSinkTransferThread = new DataSinkTransferThread<>(dataSink, inputStream);
-        dataSinkTransferThread.start();
-        return dataSinkTransferThread;
+        InputStream inputStream = new BufferedInputStream(new AutoCloseInputStream(output),
+                IpcTransferExecutor.BUFFER_SIZE);
+        DataSinkTransfer<T> dataSinkTransfer = new DataSinkTransfer<>(dataSink, inputStream);
+        IpcTransferExecutor.execute(dataSinkTransfer);
+        return dataSinkTransfer;
+    }
+
+    static void asyncPipeFromDataSource(OpenPgpDataSource dataSource, OutputStream outputStream) {
+        IpcTransferExecutor.execute(new DataSourceTransfer(dataSource, outputStream));
     }
 
-    static class DataSourceTransferThread extends Thread {
+    static class DataSourceTransfer extends Transfer<Void> {
         final OpenPgpDataSource dataSource;
         final OutputStream outputStream;
 
-        DataSourceTransferThread(OpenPgpDataSource dataSource, OutputStream outputStream) {
-            super("IPC Transfer Thread (TO service)");
+        DataSourceTransfer(OpenPgpDataSource dataSource, OutputStream outputStream) {
+            super("IPC Transfer (TO service)");
             this.dataSource = dataSource;
             this.outputStream = outputStream;
-            setDaemon(true);
         }
 
         @Override
-        public void run() {
+        Void transfer() {
             try {
-                dataSource.writeTo(outputStream);
+                dataSource.writeTo(countBytes(outputStream));
             } catch (IOException e) {
                 if (dataSource.isCancelled()) {
                     Timber.d("Stopped writing because operation was cancelled.");
@@ -128,6 +138,7 @@ public class ParcelFileDescriptorUtil {
                 } catch (IOException ignored) {
                 }
             }
+            return null;
         }
     }
 
@@ -136,29 +147,27 @@ public class ParcelFileDescriptorUtil {
         return cause instanceof ErrnoException && ((ErrnoException) cause).errno == OsConstants.EPIPE;
     }
 
-    static class DataSinkTransferThread<T> extends Thread {
+    static class DataSinkTransfer<T> extends Transfer<T> {
         final OpenPgpDataSink<T> dataSink;
         final InputStream inputStream;
-        T sinkResult;
 
-        DataSinkTransferThread(OpenPgpDataSink<T> dataSink, InputStream inputStream) {
-            super("IPC Transfer Thread (FROM service)");
+        DataSinkTransfer(OpenPgpDataSink<T> dataSink, InputStream inputStream) {
+            super("IPC Transfer (FROM service)");
             this.dataSink = dataSink;
             this.inputStream = inputStream;
-            setDaemon(true);
         }
 
         @Override
-        public void run() {
+        T transfer() {
             try {
-                sinkResult = dataSink.processData(inputStream);
+                return dataSink.processData(countBytes(inputStream));
             } catch (IOException e) {
                 if (isIOExceptionCausedByEPIPE(e)) {
                     Timber.e("Stopped read due to broken pipe (other end closed pipe?)");
                 } else {
                     Timber.e(e, "IOException while reading from in");
                 }
-                sinkResult = null;
+                return null;
             } finally {
                 try {
                     inputStream.close();
@@ -166,12 +175,5 @@ public class ParcelFileDescriptorUtil {
                 }
             }
         }
-
-        T getResult() {
-            if (isAlive()) {
-                throw new IllegalStateException("result must be accessed only *after* the thread finished execution!");
-            }
-            return sinkResult;
-        }
     }
 }